@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Management view of the Bloom filter of a cache, see {@link JCacheConfiguration#setBloomFilterExpectedEntries(int)}.
+ */
+public interface CacheBloomFilterStatisticsMXBean {
+
+    /**
+     * @return the number of keys the filter is sized for
+     */
+    int getExpectedEntries();
+
+    /**
+     * @return the number of keys the filter counts, removed ones it couldn't forget included
+     */
+    long getEntries();
+
+    /**
+     * @return the number of counters of the filter
+     */
+    int getCounters();
+
+    /**
+     * @return the memory the counters of the filter take, in bytes, those of the key universe included
+     */
+    long getSizeInBytes();
+
+    /**
+     * @return the number of counters each key is hashed to
+     */
+    int getHashFunctions();
+
+    /**
+     * @return the false positive rate the filter was sized for
+     */
+    double getConfiguredFalsePositiveRate();
+
+    /**
+     * @return the false positive rate of the filter, estimated from the number of keys it counts
+     */
+    double getFalsePositiveRate();
+
+    /**
+     * @return the number of keys known to the loader, 0 unless it is a {@link JCacheKeyUniverse}
+     */
+    long getUniverseEntries();
+
+    /**
+     * @return the number of lookups the filter answered without the store being looked up
+     */
+    long getStoreLookupsAvoided();
+
+    /**
+     * @return the number of lookups the filter answered without the loader being called
+     */
+    long getLoadsAvoided();
+
+    /**
+     * @return the number of times the filter got rebuilt
+     */
+    long getRebuilds();
+}
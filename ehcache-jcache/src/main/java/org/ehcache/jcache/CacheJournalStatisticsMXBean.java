@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Management view of the journal of a cache, see {@link JCacheConfiguration#setJournaled(boolean)}.
+ */
+public interface CacheJournalStatisticsMXBean {
+
+    /**
+     * @return the number of mutations appended to the journal
+     */
+    long getJournalAppends();
+
+    /**
+     * @return the number of bytes appended to the journal
+     */
+    long getJournalBytes();
+
+    /**
+     * @return the number of times appended mutations were forced to disk
+     */
+    long getJournalCommits();
+
+    /**
+     * @return the mean number of mutations a commit made durable, 0 if there was no commit
+     */
+    float getAverageCommitSize();
+
+    /**
+     * @return the mean time journaling added to a mutation, in microseconds
+     */
+    float getAverageAppendTime();
+
+    /**
+     * @return the mean time it took to force appended mutations to disk, in microseconds
+     */
+    float getAverageCommitTime();
+
+    /**
+     * @return the number of segment files the journal spans since its last checkpoint
+     */
+    long getJournalSegments();
+
+    /**
+     * @return the number of entries and mutations replayed when the cache got created
+     */
+    long getReplayedEntries();
+}
@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Management view of the pool running a cache's {@link javax.cache.integration.CacheLoader}. Caches without a pool of
+ * their own report on the one shared by their {@link javax.cache.CacheManager}.
+ */
+public interface CacheLoaderStatisticsMXBean {
+
+    /**
+     * @return the number of threads the loader pool runs loads on
+     */
+    int getLoaderThreads();
+
+    /**
+     * @return the number of threads currently running loads
+     */
+    int getActiveWorkers();
+
+    /**
+     * @return the number of load tasks waiting for a thread
+     */
+    int getQueueDepth();
+
+    /**
+     * @return how many more load tasks can be queued before submitters have to run them themselves
+     */
+    int getQueueRemainingCapacity();
+
+    /**
+     * @return the number of load tasks run by the pool
+     */
+    long getCompletedTasks();
+
+    /**
+     * @return the number of load tasks the pool turned down because its queue was full
+     */
+    long getRejectedTasks();
+
+    /**
+     * @return the number of batches read-through misses were loaded in, 0 unless they are batched
+     * @see JCacheConfiguration#setLoadBatchSize(int)
+     */
+    long getLoadBatches();
+
+    /**
+     * @return the number of read-through misses loaded in batches
+     */
+    long getBatchedLoads();
+}
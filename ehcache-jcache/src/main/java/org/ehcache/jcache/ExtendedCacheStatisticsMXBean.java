@@ -0,0 +1,65 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import javax.cache.management.CacheStatisticsMXBean;
+
+/**
+ * The statistics of a cache, with what this implementation measures on top of the ones JSR107 defines.
+ */
+public interface ExtendedCacheStatisticsMXBean extends CacheStatisticsMXBean {
+
+    /**
+     * @return the number of values compressed, see {@link JCacheConfiguration#setValueCompressionThreshold(int)}
+     */
+    long getValueCompressions();
+
+    /**
+     * @return the number of values inflated back
+     */
+    long getValueDecompressions();
+
+    /**
+     * @return the size of the values compressed over their size once compressed, 0 if none were
+     */
+    float getCompressionRatio();
+
+    /**
+     * @return the mean time it took to compress a value, in microseconds
+     */
+    float getAverageCompressionTime();
+
+    /**
+     * @return the mean time it took to inflate a value, in microseconds
+     */
+    float getAverageDecompressionTime();
+
+    /**
+     * @return the number of entries reloaded in the background, see {@link JCacheConfiguration#setRefreshAheadFactor(float)}
+     */
+    long getCacheRefreshes();
+
+    /**
+     * @return the number of gets served a stale value, see {@link JCacheConfiguration#setStaleWhileRevalidateSeconds(int)}
+     */
+    long getStaleCacheHits();
+
+    /**
+     * @return the number of lookups answered by remembering the loader had no value for their key, which count as
+     * misses otherwise, see {@link JCacheConfiguration#setNegativeCacheTimeToLiveMillis(long)}
+     */
+    long getNegativeCacheHits();
+}
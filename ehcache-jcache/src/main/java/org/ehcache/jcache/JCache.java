@@ -17,16 +17,34 @@ package org.ehcache.jcache;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
-
+import net.sf.ehcache.concurrent.CacheLockProvider;
+import net.sf.ehcache.concurrent.LockType;
+import net.sf.ehcache.concurrent.Sync;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.store.Store;
+import net.sf.ehcache.store.compound.ReadWriteCopyStrategy;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.cache.Cache;
 import javax.cache.CacheException;
@@ -57,12 +75,30 @@ import javax.cache.processor.MutableEntry;
 public class JCache<K, V> implements Cache<K, V> {
 
     private static final Object NOT_THERE = new Object();
+    private static final int PARALLEL_PUT_ALL_THRESHOLD = 10000;
+    private static final int AGGREGATE_CHUNK_SIZE = 1024;
 
     private final JCacheConfiguration<K, V> cfg;
     private final Ehcache ehcache;
     private final JCacheManager cacheManager;
     private final CacheLoader<K, V> cacheLoader;
+    private final JCacheLoadBatcher<K, V> loadBatcher;
+    private final JCacheRefresher<K, V> refresher;
+    private final JCacheNegativeCache negativeCache;
+    private final JCacheBloomFilter bloomFilter;
+    private final Random expiryJitter = new Random();
     private final CacheWriter cacheWriter;
+    private final JCacheLoaderExecutor loaderExecutor;
+    private final boolean ownLoaderExecutor;
+    private final boolean lockFree;
+    private final JCacheCopyOnWriteStrategy copyStrategy;
+    private final Store backingStore;
+    private final JCacheJournal journal;
+    private final AtomicLong lockFreePuts = new AtomicLong();
+    private final AtomicLong lockFreeRemovals = new AtomicLong();
+    private final AtomicLong bulkPuts = new AtomicLong();
+    private final AtomicLong filteredMisses = new AtomicLong();
+    private final ConcurrentMap<Object, FutureTask<V>> loads = new ConcurrentHashMap<Object, FutureTask<V>>();
     private volatile boolean closed = false;
 
     public JCache(final JCacheManager cacheManager, final JCacheConfiguration<K, V> cfg, final Ehcache ehcache) {
@@ -76,6 +112,11 @@ public class JCache<K, V> implements Cache<K, V> {
         } else {
             this.cacheLoader = null;
         }
+        if (cacheLoader != null && cfg.getLoadBatchSize() > 1) {
+            this.loadBatcher = new JCacheLoadBatcher<K, V>(cacheLoader, cfg.getLoadBatchSize(), cfg.getLoadBatchWindowMicros());
+        } else {
+            this.loadBatcher = null;
+        }
         final Factory<CacheWriter<? super K,? super V>> cacheWriterFactory = cfg.getCacheWriterFactory();
         if (cacheWriterFactory != null) {
             this.cacheWriter = cacheWriterFactory.create();
@@ -83,6 +124,53 @@ public class JCache<K, V> implements Cache<K, V> {
             this.cacheWriter = null;
         }
         ehcache.registerCacheWriter(new JCacheCacheWriterAdapter<K, V>(cacheWriter, cfg.getKeyType(), cfg.getValueType()));
+        this.ownLoaderExecutor = cfg.getLoaderThreads() > 0;
+        if (ownLoaderExecutor) {
+            this.loaderExecutor = new JCacheLoaderExecutor(ehcache.getName(), cfg.getLoaderThreads(), cfg.getLoaderQueueSize());
+        } else {
+            this.loaderExecutor = cacheManager.getLoaderExecutor();
+        }
+        if (cacheLoader != null && cfg.isReadThrough() && (cfg.getRefreshAheadFactor() > 0 || cfg.getStaleWhileRevalidateSeconds() > 0)) {
+            this.refresher = new JCacheRefresher<K, V>(this, cacheLoader, loaderExecutor, cfg.getRefreshAheadFactor(), cfg.getStaleWhileRevalidateSeconds());
+            if(cfg.getStaleWhileRevalidateSeconds() > 0) {
+                ehcache.getCacheEventNotificationService().registerListener(refresher);
+            }
+        } else {
+            this.refresher = null;
+        }
+        this.lockFree = cfg.isLockFreeMutations();
+        final CacheConfiguration ehcacheConfiguration = ehcache.getCacheConfiguration();
+        final ReadWriteCopyStrategy<Element> ehcacheCopyStrategy = ehcacheConfiguration.isCopyOnWrite()
+            ? ehcacheConfiguration.getCopyStrategyConfiguration().getCopyStrategyInstance(ehcacheConfiguration.getClassLoader())
+            : null;
+        this.copyStrategy = ehcacheCopyStrategy instanceof JCacheCopyOnWriteStrategy
+            ? (JCacheCopyOnWriteStrategy)ehcacheCopyStrategy
+            : null;
+        this.backingStore = this.copyStrategy == null ? null : JCacheStoreAccess.backingStore(ehcache);
+        if(cfg.isJournaled()) {
+            this.journal = new JCacheJournal(this, cacheManager.getPersistenceDirectory(), JCacheManager.getFileName(ehcache.getName()),
+                cfg.getJournalSegmentSize() > 0 ? cfg.getJournalSegmentSize() : JCacheJournal.DEFAULT_SEGMENT_SIZE);
+            ehcache.getCacheEventNotificationService().registerListener(journal);
+        } else {
+            this.journal = null;
+        }
+        if(cacheLoader != null && cfg.getNegativeCacheTimeToLiveMillis() > 0) {
+            this.negativeCache = new JCacheNegativeCache(cfg.getNegativeCacheTimeToLiveMillis(),
+                cfg.getNegativeCacheSize() > 0 ? cfg.getNegativeCacheSize() : JCacheNegativeCache.DEFAULT_SIZE);
+            ehcache.getCacheEventNotificationService().registerListener(negativeCache);
+        } else {
+            this.negativeCache = null;
+        }
+        if(cfg.getBloomFilterExpectedEntries() > 0) {
+            this.bloomFilter = new JCacheBloomFilter(ehcache,
+                cfg.isReadThrough() && cacheLoader instanceof JCacheKeyUniverse ? (JCacheKeyUniverse<?>)cacheLoader : null,
+                loaderExecutor, cfg.getBloomFilterExpectedEntries(),
+                cfg.getBloomFilterFalsePositiveRate() > 0 ? cfg.getBloomFilterFalsePositiveRate() : JCacheBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+            ehcache.getCacheEventNotificationService().registerListener(bloomFilter);
+            bloomFilter.scheduleRebuild();
+        } else {
+            this.bloomFilter = null;
+        }
 
         final Iterable<CacheEntryListenerConfiguration<K, V>> cacheEntryListenerConfigurations = cfg.getInitialCacheEntryListenerConfigurations();
         if(cacheEntryListenerConfigurations != null) {
@@ -98,37 +186,175 @@ public class JCache<K, V> implements Cache<K, V> {
     public V get(final K key) {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
+        if(bloomFilter != null && !bloomFilter.mightBeStored(key)) {
+            if(cfg.isReadThrough() && bloomFilter.mightBeLoaded(key)) {
+                return loadUnlessStale(key);
+            }
+            filteredMisses.incrementAndGet();
+            return null;
+        }
         final Element element = getElement(key);
         if (element == null) {
             V value = null;
             if(cfg.isReadThrough()) {
-                value = load(key);
+                value = loadUnlessStale(key);
             }
             return value;
         }
+        if(refresher != null) {
+            refresher.refreshIfDue(key, element);
+        }
         return cfg.getValueType().cast(element.getObjectValue());
     }
 
-    V load(K key) {
-        V value;
-        ehcache.acquireWriteLockOnKey(key);
-        final Element e = ehcache.get(key);
-        if(e != null) {
-            return (V)e.getObjectValue();
+    /**
+     * Returns the stale value {@code key} expired with less than the grace period ago, reloading it in the background,
+     * or else loads it.
+     */
+    private V loadUnlessStale(final K key) {
+        if(refresher != null) {
+            final Element stale = refresher.getStale(key);
+            if(stale != null) {
+                return cfg.getValueType().cast(readValue(stale.getObjectValue()));
+            }
         }
-        try {
+        return load(key);
+    }
+
+    /**
+     * Loads the value of {@code key} through the {@link CacheLoader}, unless it got mapped meanwhile. No lock is held
+     * while the loader runs, and concurrent callers share the load. Misses of other keys may be loaded along with it, as
+     * configured by {@link JCacheConfiguration#setLoadBatchSize(int)}, unless the key is locked by the caller. Keys the
+     * loader recently had no value for aren't loaded again, see {@link JCacheConfiguration#setNegativeCacheTimeToLiveMillis(long)}.
+     */
+    V load(final K key) {
+        if(negativeCache != null && negativeCache.contains(key)) {
+            return null;
+        }
+        final boolean batched = loadBatcher != null && !ehcache.isWriteLockedByCurrentThread(key);
+        return loadOnce(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final V value;
+                if(batched) {
+                    value = loadBatcher.load(key);
+                } else {
+                    try {
+                        value = cacheLoader.load(key);
+                    } catch (Exception e) {
+                        throw new CacheLoaderException(e);
+                    }
+                }
+                if(value == null && negativeCache != null) {
+                    negativeCache.add(key);
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Gets the value of {@code key} or, if it is missing, computes it with {@code function} and puts it, without
+     * calling the {@link CacheWriter}, as a loaded value. No lock is held while {@code function} runs: concurrent
+     * callers missing the same key wait for, and share, a single computation, while other keys are never held up by
+     * it. A value put by another thread meanwhile wins over the computed one.
+     * <br />
+     * Values loaded by the {@link CacheLoader} of a read-through cache go through the same computations.
+     *
+     * @param key the key
+     * @param function computes the value of {@code key}, may return null to leave it unmapped
+     * @return the value of {@code key}, null if it is missing and {@code function} returned null
+     */
+    public V getOrCompute(final K key, final JCacheFunction<? super K, ? extends V> function) {
+        checkNotClosed();
+        if(key == null) throw new NullPointerException();
+        if(function == null) throw new NullPointerException();
+        final Element element = getElement(key);
+        if(element != null) {
+            return cfg.getValueType().cast(element.getObjectValue());
+        }
+        return loadOnce(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return function.apply(key);
+            }
+        });
+    }
+
+    /**
+     * Runs {@code loader} for {@code key} unless a load of the key is in flight already, in which case that one's
+     * outcome is waited for instead. The loaded value is only put if the key is still unmapped by then.
+     *
+     * @return the value of {@code key}, null if there is none
+     */
+    private V loadOnce(final K key, final Callable<V> loader) {
+        final FutureTask<V> load = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final Element e = ehcache.get(key);
+                if(e != null) {
+                    return (V)e.getObjectValue();
+                }
+                final V value = loader.call();
+                return value == null ? null : putLoaded(key, value);
+            }
+        });
+        FutureTask<V> inFlight;
+        if(ehcache.isWriteLockedByCurrentThread(key)) {
+            // as when invoking an entry processor: can't wait for the load of another thread, which needs the lock
+            inFlight = load;
+            load.run();
+        } else {
+            inFlight = loads.putIfAbsent(key, load);
+        }
+        if(inFlight == null) {
+            inFlight = load;
             try {
-                value = cacheLoader.load(key);
-            } catch (Exception ex) {
-                throw new CacheLoaderException(ex);
+                load.run();
+            } finally {
+                loads.remove(key, load);
             }
-            if(value != null) {
-                putWithoutWriter(key, value);
+        }
+        return awaitLoad(inFlight);
+    }
+
+    /**
+     * Waits for {@code load} to complete, rethrowing what it failed with.
+     */
+    private V awaitLoad(final FutureTask<V> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoaderException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if(e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw new CacheLoaderException(e.getCause());
+        }
+    }
+
+    /**
+     * Puts the loaded {@code value} of {@code key} unless the key got mapped while it was loading.
+     *
+     * @return the value of {@code key}
+     */
+    private V putLoaded(final K key, final V value) {
+        ehcache.acquireWriteLockOnKey(key);
+        try {
+            final Element current = ehcache.getQuiet(key);
+            if(current != null) {
+                return (V)current.getObjectValue();
             }
+            putWithoutWriter(key, value);
+            return value;
         } finally {
             ehcache.releaseWriteLockOnKey(key);
         }
-        return value;
     }
 
     private Element getElement(final K key) {
@@ -149,25 +375,236 @@ public class JCache<K, V> implements Cache<K, V> {
             if(key == null) throw new NullPointerException();
         }
         final Map<K, V> result = new HashMap<K, V>();
-        final Map<Object, Element> all = ehcache.getAll(keys);
-        for (Map.Entry<Object, Element> entry : all.entrySet()) {
-            final Element e = entry.getValue();
-            final K key = (K)entry.getKey();
-            if(key != null) {
-                V value = null;
-                if(e != null) {
-                    value = (V)e.getObjectValue();
-                } else if (cfg.isReadThrough()) {
-                    value = load(key);
+        final List<K> misses = new ArrayList<K>();
+        final Collection<? extends K> toGet;
+        if(bloomFilter == null) {
+            toGet = keys;
+        } else {
+            final List<K> mightBeStored = new ArrayList<K>(keys.size());
+            for (K key : keys) {
+                if(bloomFilter.mightBeStored(key)) {
+                    mightBeStored.add(key);
+                } else if(cfg.isReadThrough() && bloomFilter.mightBeLoaded(key)) {
+                    misses.add(key);
+                } else {
+                    filteredMisses.incrementAndGet();
                 }
-                if (value != null) {
-                    result.put(key, value);
+            }
+            toGet = mightBeStored;
+        }
+        final Map<Object, Element> all = ehcache.getAll(toGet);
+        for (K key : toGet) {
+            final Element e = all.get(key);
+            if(e != null) {
+                if(refresher != null) {
+                    refresher.refreshIfDue(key, e);
                 }
+                result.put(key, (V)e.getObjectValue());
+            } else if (cfg.isReadThrough()) {
+                misses.add(key);
             }
         }
+        if(!misses.isEmpty()) {
+            loadMisses(misses, result);
+        }
         return result;
     }
 
+    /**
+     * Loads the values of {@code misses} into {@code result} the way {@link #get(Object)} would, but in bulk: stale
+     * values are served while they get reloaded, the loads of other threads in flight are joined, and the keys left
+     * are loaded together, concurrent callers missing any of them waiting for, and sharing, that load.
+     */
+    private void loadMisses(final List<K> misses, final Map<K, V> result) {
+        final Map<K, FutureTask<V>> joined = new HashMap<K, FutureTask<V>>();
+        final Map<K, FutureTask<V>> owned = new HashMap<K, FutureTask<V>>();
+        final Map<K, V> loaded = new HashMap<K, V>();
+        final RuntimeException[] failure = new RuntimeException[1];
+        for (final K key : misses) {
+            if(refresher != null) {
+                final Element stale = refresher.getStale(key);
+                if(stale != null) {
+                    result.put(key, cfg.getValueType().cast(readValue(stale.getObjectValue())));
+                    continue;
+                }
+            }
+            if(negativeCache != null && negativeCache.contains(key)) {
+                continue;
+            }
+            final FutureTask<V> load = new FutureTask<V>(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    if(failure[0] != null) {
+                        throw failure[0];
+                    }
+                    return loaded.get(key);
+                }
+            });
+            final FutureTask<V> inFlight = loads.putIfAbsent(key, load);
+            if(inFlight == null) {
+                owned.put(key, load);
+            } else {
+                joined.put(key, inFlight);
+            }
+        }
+        try {
+            if(!owned.isEmpty()) {
+                loaded.putAll(loadAll(new ArrayList<K>(owned.keySet())));
+                if(negativeCache != null) {
+                    for (K key : owned.keySet()) {
+                        if(!loaded.containsKey(key)) {
+                            negativeCache.add(key);
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            failure[0] = e;
+        } finally {
+            for (Map.Entry<K, FutureTask<V>> load : owned.entrySet()) {
+                load.getValue().run();
+                loads.remove(load.getKey(), load.getValue());
+            }
+        }
+        if(failure[0] != null) {
+            throw failure[0];
+        }
+        result.putAll(loaded);
+        for (Map.Entry<K, FutureTask<V>> load : joined.entrySet()) {
+            final V value = awaitLoad(load.getValue());
+            if(value != null) {
+                result.put(load.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Loads all of {@code keys}, in concurrent chunks of {@link JCacheConfiguration#getLoadAllChunkSize()}, and puts
+     * the loaded values in bulk, see {@link #putAllLoaded(Map, boolean)}. A key mapped while loading keeps its value.
+     *
+     * @param keys the keys to load, none of which should be mapped
+     * @return the values of the loaded keys, missing the keys the loader had no value for
+     */
+    Map<K, V> loadAll(final List<K> keys) {
+        final List<Callable<Map<K, V>>> chunks = new ArrayList<Callable<Map<K, V>>>();
+        for (final List<K> chunk : partition(keys, 1, cfg.getLoadAllChunkSize())) {
+            chunks.add(new Callable<Map<K, V>>() {
+                @Override
+                public Map<K, V> call() throws Exception {
+                    return loadChunk(chunk);
+                }
+            });
+        }
+        final Map<K, V> loaded = new HashMap<K, V>();
+        try {
+            for (Map<K, V> values : loaderExecutor.invokeAll(chunks)) {
+                loaded.putAll(values);
+            }
+        } catch (CacheLoaderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheLoaderException(e);
+        }
+        putAllLoaded(loaded, false);
+        return loaded;
+    }
+
+    /**
+     * Puts the loaded {@code values} without calling the {@link CacheWriter}: the lock of each stripe they fall in is
+     * taken once, and the keys it guards that are still unmapped are inserted together through
+     * {@link Ehcache#putAll(Collection)}. Mapped keys are updated if {@code replaceExistingValues}, else their mapped
+     * value is set in {@code values} instead of the loaded one.
+     */
+    private void putAllLoaded(final Map<K, V> values, final boolean replaceExistingValues) {
+        final Map<Sync, List<K>> stripes = groupByStripe(values.keySet());
+        if(stripes == null) {
+            for (Map.Entry<K, V> entry : values.entrySet()) {
+                if(replaceExistingValues) {
+                    putWithoutWriter(entry.getKey(), entry.getValue());
+                } else {
+                    entry.setValue(putLoaded(entry.getKey(), entry.getValue()));
+                }
+            }
+            return;
+        }
+        for (Map.Entry<Sync, List<K>> stripe : stripes.entrySet()) {
+            final List<Element> creations = new ArrayList<Element>(stripe.getValue().size());
+            stripe.getKey().lock(LockType.WRITE);
+            try {
+                for (K key : stripe.getValue()) {
+                    final Element current = ehcache.getQuiet(key);
+                    if(current != null && !replaceExistingValues) {
+                        values.put(key, (V)current.getObjectValue());
+                    } else if(current != null) {
+                        putWithoutWriter(key, values.get(key));
+                    } else {
+                        final Element element = new Element(key, values.get(key));
+                        if(setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForCreation(), element)) {
+                            creations.add(element);
+                        }
+                    }
+                }
+                ehcache.putAll(creations);
+            } finally {
+                stripe.getKey().unlock(LockType.WRITE);
+            }
+            bulkPuts.addAndGet(creations.size());
+        }
+    }
+
+    private Map<K, V> loadChunk(final List<K> keys) {
+        final Map<K, V> values;
+        try {
+            values = cacheLoader.loadAll(keys);
+        } catch (UnsupportedOperationException e) {
+            return loadEach(keys);
+        } catch (CacheLoaderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheLoaderException(e);
+        }
+        final Map<K, V> loaded = new HashMap<K, V>();
+        if(values != null) {
+            for (Map.Entry<K, V> entry : values.entrySet()) {
+                if(entry.getKey() != null && entry.getValue() != null) {
+                    loaded.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Fallback for loaders that don't support {@link CacheLoader#loadAll(Iterable)}: loads each key on its own,
+     * concurrently.
+     */
+    private Map<K, V> loadEach(final List<K> keys) {
+        final List<Callable<V>> loads = new ArrayList<Callable<V>>(keys.size());
+        for (final K key : keys) {
+            loads.add(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    return cacheLoader.load(key);
+                }
+            });
+        }
+        final List<V> values;
+        try {
+            values = loaderExecutor.invokeAll(loads);
+        } catch (CacheLoaderException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheLoaderException(e);
+        }
+        final Map<K, V> loaded = new HashMap<K, V>();
+        for (int i = 0; i < keys.size(); i++) {
+            if(values.get(i) != null) {
+                loaded.put(keys.get(i), values.get(i));
+            }
+        }
+        return loaded;
+    }
+
     @Override
     public boolean containsKey(final K key) {
         checkNotClosed();
@@ -190,42 +627,76 @@ public class JCache<K, V> implements Cache<K, V> {
             }
             return;
         }
-        cacheManager.getExecutorService().submit(new Callable<Void>() {
+        loaderExecutor.execute(new Runnable() {
             @Override
-            public Void call() throws Exception {
-                for (K key : keys) {
-                    try {
-                        ehcache.acquireWriteLockOnKey(key);
-                        try {
-                            if (!ehcache.isKeyInCache(key) || replaceExistingValues) {
-                                final V value = cacheLoader.load(key);
-                                if (value != null) {
-                                    JCache.this.putWithoutWriter(key, value);
-                                }
-                            }
-                        } finally {
-                            ehcache.releaseWriteLockOnKey(key);
+            public void run() {
+                final List<Callable<Void>> partitions = new ArrayList<Callable<Void>>();
+                for (final List<K> partition : partition(new ArrayList<K>(keys), loaderExecutor.getParallelism(), cfg.getLoadAllChunkSize())) {
+                    partitions.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            loadAndPut(partition, replaceExistingValues);
+                            return null;
                         }
-                    } catch (Exception e) {
-                        if (completionListener != null) {
-                            completionListener.onException(new CacheLoaderException(e));
-                        }
-                        return null;
+                    });
+                }
+                try {
+                    loaderExecutor.invokeAll(partitions);
+                } catch (Exception e) {
+                    if (completionListener != null) {
+                        completionListener.onException(e instanceof CacheLoaderException ? e : new CacheLoaderException(e));
                     }
+                    return;
                 }
                 if (completionListener != null) {
                     completionListener.onCompletion();
                 }
-                return null;
             }
         });
     }
 
+    private void loadAndPut(final List<K> keys, final boolean replaceExistingValues) {
+        final List<K> toLoad = new ArrayList<K>(keys.size());
+        for (K key : keys) {
+            if (replaceExistingValues || !ehcache.isKeyInCache(key)) {
+                toLoad.add(key);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        putAllLoaded(loadChunk(toLoad), replaceExistingValues);
+    }
+
+    /**
+     * Splits {@code keys} in up to {@code partitions} slices of about the same size, none larger than
+     * {@code maxSize} unless that is 0.
+     */
+    private List<List<K>> partition(final List<K> keys, final int partitions, final int maxSize) {
+        int size = Math.max(1, (keys.size() + partitions - 1) / partitions);
+        if (maxSize > 0) {
+            size = Math.min(size, maxSize);
+        }
+        final List<List<K>> slices = new ArrayList<List<K>>();
+        for (int i = 0; i < keys.size(); i += size) {
+            slices.add(keys.subList(i, Math.min(i + size, keys.size())));
+        }
+        return slices;
+    }
+
     @Override
     public void put(final K key, final V value) {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(value == null) throw new NullPointerException();
+        if(lockFree) {
+            casPut(key, value, false);
+            return;
+        }
+        put(key, value, null);
+    }
+
+    private void put(final K key, final V value, final JCacheWriteBatch<K, V> batch) {
         ehcache.acquireWriteLockOnKey(key);
         try {
             final Duration expiry;
@@ -237,9 +708,9 @@ public class JCache<K, V> implements Cache<K, V> {
             }
             final Element element = new Element(key, value);
             if(setTimeTo(cfg.overrideDefaultExpiry(), expiry, element)) {
-                putAndWriteIfNeeded(element);
+                putAndWriteIfNeeded(element, batch);
             } else if(inCache) {
-                removeAndWriteIfNeeded(key);
+                removeAndWriteIfNeeded(key, batch);
             }
         } finally {
             ehcache.releaseWriteLockOnKey(key);
@@ -270,6 +741,45 @@ public class JCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * Restores {@code element} as it was before a failed write, without firing events.
+     */
+    private void putQuiet(final Element element) {
+        ehcache.putQuiet(element);
+        if(bloomFilter != null) {
+            bloomFilter.add(element.getObjectKey());
+        }
+    }
+
+    /**
+     * Puts the reloaded {@code value} of {@code key}, unless the key got mapped anew since {@code refreshed} was read,
+     * or expired with, or got removed meanwhile.
+     *
+     * @return whether {@code value} got put
+     */
+    boolean putRefreshed(final K key, final Element refreshed, final V value) {
+        ehcache.acquireWriteLockOnKey(key);
+        try {
+            final Element current = ehcache.getQuiet(key);
+            if(!refresher.isRefreshing(key, refreshed, current != null)) {
+                return false;
+            }
+            if(current != null && (current.getCreationTime() != refreshed.getCreationTime()
+                                   || current.getLastUpdateTime() != refreshed.getLastUpdateTime())) {
+                return false;
+            }
+            putWithoutWriter(key, value);
+            return true;
+        } finally {
+            ehcache.releaseWriteLockOnKey(key);
+        }
+    }
+
+    /**
+     * Sets the lifespan {@code duration} on {@code element}, shortened by the configured jitter.
+     *
+     * @return false if {@code duration} is zero, meaning {@code element} mustn't be put
+     */
     private boolean setTimeTo(final boolean overrideDefaults, final Duration duration, final Element element) {
 
         if(!overrideDefaults) {
@@ -283,19 +793,112 @@ public class JCache<K, V> implements Cache<K, V> {
             if (duration.isEternal()) {
                 element.setEternal(true);
             } else {
-                final int d = (int)TimeUnit.SECONDS.convert(duration.getDurationAmount(), duration.getTimeUnit());
-                element.setTimeToLive(d == 0 ? 1 : d);
-                element.setTimeToIdle(d);
+                long d = TimeUnit.SECONDS.convert(duration.getDurationAmount(), duration.getTimeUnit());
+                if(cfg.getExpiryJitter() > 0) {
+                    d -= (long)(d * cfg.getExpiryJitter() * expiryJitter.nextFloat());
+                }
+                element.setTimeToLive((int)Math.min(Integer.MAX_VALUE, d == 0 ? 1 : d));
+                element.setTimeToIdle((int)Math.min(Integer.MAX_VALUE, d));
             }
         }
         return true;
     }
 
+    /**
+     * Puts without taking the key's lock, retrying against whatever mapping is current until one of Ehcache's atomic
+     * operations succeeds.
+     *
+     * @param key the key
+     * @param value the value
+     * @param countGet whether the initial lookup should be accounted as a cache get
+     * @return the element that got replaced or removed, null if there was none
+     */
+    private Element casPut(final K key, final V value, final boolean countGet) {
+        Element current = countGet ? ehcache.get(key) : ehcache.getQuiet(key);
+        while(!casPut(current, key, value)) {
+            current = ehcache.getQuiet(key);
+        }
+        return current;
+    }
+
+    /**
+     * Single compare-and-swap attempt at mapping {@code key} to {@code value}, given {@code current} was read as its
+     * mapping.
+     *
+     * @param current the element expected to be mapped, null if the key is expected to be absent
+     * @param key the key
+     * @param value the value
+     * @return false if the mapping changed since {@code current} was read
+     */
+    private boolean casPut(final Element current, final K key, final V value) {
+        final Element element = new Element(key, value);
+        if(current == null) {
+            if(!setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForCreation(), element)) {
+                return true;
+            }
+            if(ehcache.putIfAbsent(element) == null) {
+                lockFreePuts.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        if(setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForUpdate(), element)) {
+            if(ehcache.replace(current, element)) {
+                lockFreePuts.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        return casRemove(current);
+    }
+
+    /**
+     * Whether the value of {@code current}, as read for {@code key}, is {@code value}. Caches storing serialized values
+     * compare the stored bytes with {@code value}'s serialized form instead of calling {@code equals}.
+     */
+    private boolean valueMatches(final K key, final Element current, final V value) {
+        if(backingStore != null) {
+            final Element stored = backingStore.getQuiet(key);
+            if(stored != null && stored.getObjectValue() instanceof JCacheSerializedValue) {
+                return copyStrategy.matches(stored.getObjectValue(), value);
+            }
+        }
+        return current.getObjectValue().equals(value);
+    }
+
+    /**
+     * Turns a value taken from the store itself, rather than through Ehcache's copying, into a value of this cache.
+     */
+    Object readValue(final Object storedValue) {
+        if(copyStrategy == null) {
+            return storedValue;
+        }
+        return copyStrategy.readValue(storedValue, ehcache.getCacheConfiguration().getClassLoader());
+    }
+
+    /**
+     * Removes {@code current} if it is still the mapped element.
+     *
+     * @param current the element expected to be mapped
+     * @return true if it got removed
+     */
+    private boolean casRemove(final Element current) {
+        if(ehcache.removeElement(current)) {
+            lockFreeRemovals.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public V getAndPut(final K key, final V value) {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(value == null) throw new NullPointerException();
+        if(lockFree) {
+            final Element previousElement = casPut(key, value, true);
+            return previousElement == null ? null : (V) previousElement.getObjectValue();
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             final Element previousElement = ehcache.get(key);
@@ -320,16 +923,28 @@ public class JCache<K, V> implements Cache<K, V> {
     }
 
     private boolean removeAndWriteIfNeeded(final K key) {
+        return removeAndWriteIfNeeded(key, null);
+    }
+
+    private boolean removeAndWriteIfNeeded(final K key, final JCacheWriteBatch<K, V> batch) {
         if (cfg.isWriteThrough()) {
             ehcache.acquireWriteLockOnKey(key);
-            final Element previous = ehcache.getQuiet(key);
             try {
-                return ehcache.removeWithWriter(key);
-            } catch (RuntimeException e) {
-                if(previous != null) {
-                    ehcache.putQuiet(previous);
+                final Element previous = ehcache.getQuiet(key);
+                if(batch != null) {
+                    batch.delete(key, previous);
+                    return previous != null && ehcache.remove(key);
                 }
-                throw new CacheWriterException(e);
+                try {
+                    return ehcache.removeWithWriter(key);
+                } catch (RuntimeException e) {
+                    if(previous != null) {
+                        putQuiet(previous);
+                    }
+                    throw new CacheWriterException(e);
+                }
+            } finally {
+                ehcache.releaseWriteLockOnKey(key);
             }
         } else {
             if (ehcache.isKeyInCache(key)) {
@@ -340,7 +955,14 @@ public class JCache<K, V> implements Cache<K, V> {
     }
 
     private void putAndWriteIfNeeded(final Element element) {
-        if (cfg.isWriteThrough()) {
+        putAndWriteIfNeeded(element, null);
+    }
+
+    private void putAndWriteIfNeeded(final Element element, final JCacheWriteBatch<K, V> batch) {
+        if (batch != null && cfg.isWriteThrough()) {
+            batch.write((K)element.getObjectKey(), ehcache.getQuiet(element.getObjectKey()), element);
+            ehcache.put(element);
+        } else if (cfg.isWriteThrough()) {
             try {
                 ehcache.putWithWriter(element);
             } catch (RuntimeException e) {
@@ -355,27 +977,43 @@ public class JCache<K, V> implements Cache<K, V> {
     @Override
     public void putAll(final Map<? extends K, ? extends V> map) {
         checkNotClosed();
-        final Collection<Element> elements = new HashSet<Element>(map.size(), 1f);
-        final Collection<Entry> entries = new HashSet<Entry>();
+        final List<Element> creations = new ArrayList<Element>(map.size());
+        final List<Element> updates = new ArrayList<Element>();
+        final List<Entry> entries = cfg.isWriteThrough() ? new ArrayList<Entry>(map.size()) : null;
         for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            if(entry.getKey() == null) throw new NullPointerException();
             if(entry.getValue() == null) throw new NullPointerException();
             final Element e = new Element(entry.getKey(), entry.getValue());
+            final boolean inCache = ehcache.isKeyInCache(entry.getKey());
             final Duration expiry;
-            if(ehcache.isKeyInCache(entry.getKey())) {
+            if(inCache) {
                 expiry = cfg.getExpiryPolicy().getExpiryForUpdate();
             } else {
                 expiry = cfg.getExpiryPolicy().getExpiryForCreation();
             }
             if(setTimeTo(cfg.overrideDefaultExpiry(), expiry, e)) {
-                elements.add(e);
-                if (cfg.isWriteThrough()) {
+                if(inCache) {
+                    updates.add(e);
+                } else {
+                    creations.add(e);
+                }
+                if (entries != null) {
                     entries.add(new JCacheEntry(e, cfg.getKeyType(), cfg.getValueType()));
                 }
-            } else {
+            } else if(inCache) {
                 ehcache.remove(entry.getKey());
             }
         }
-        for (Element element : elements) {
+        for (Element lost : putAllCreations(creations)) {
+            // mapped meanwhile: an update after all
+            final Element element = new Element(lost.getObjectKey(), lost.getObjectValue());
+            if(setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForUpdate(), element)) {
+                updates.add(element);
+            } else {
+                ehcache.remove(lost.getObjectKey());
+            }
+        }
+        for (Element element : updates) {
             ehcache.put(element);
         }
         if (cfg.isWriteThrough()) {
@@ -394,11 +1032,68 @@ public class JCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * Inserts new mappings through {@link Ehcache#putIfAbsent(Element)}, which notifies them as created, in concurrent
+     * partitions for large fills.
+     *
+     * @return the elements whose key got mapped since it was probed, which weren't inserted
+     */
+    private List<Element> putAllCreations(final List<Element> creations) {
+        if(creations.size() < PARALLEL_PUT_ALL_THRESHOLD || loaderExecutor.getParallelism() < 2) {
+            return putIfAbsent(creations);
+        }
+        final int partitions = loaderExecutor.getParallelism();
+        final int size = (creations.size() + partitions - 1) / partitions;
+        final List<Callable<List<Element>>> tasks = new ArrayList<Callable<List<Element>>>(partitions);
+        for (int i = 0; i < creations.size(); i += size) {
+            final List<Element> partition = creations.subList(i, Math.min(i + size, creations.size()));
+            tasks.add(new Callable<List<Element>>() {
+                @Override
+                public List<Element> call() throws Exception {
+                    return putIfAbsent(partition);
+                }
+            });
+        }
+        final List<Element> lost = new ArrayList<Element>();
+        try {
+            for (List<Element> partitionLost : loaderExecutor.invokeAll(tasks)) {
+                lost.addAll(partitionLost);
+            }
+        } catch (CacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheException(e);
+        }
+        return lost;
+    }
+
+    private List<Element> putIfAbsent(final List<Element> creations) {
+        final List<Element> lost = new ArrayList<Element>();
+        for (Element element : creations) {
+            if(ehcache.putIfAbsent(element) != null) {
+                lost.add(element);
+            }
+        }
+        bulkPuts.addAndGet(creations.size() - lost.size());
+        return lost;
+    }
+
     @Override
     public boolean putIfAbsent(final K key, final V value) {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(value == null) throw new NullPointerException();
+        if(lockFree) {
+            final Element element = new Element(key, value);
+            if(!setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForCreation(), element)) {
+                return !ehcache.isKeyInCache(key);
+            }
+            if(ehcache.putIfAbsent(element) == null) {
+                lockFreePuts.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             if (!ehcache.isKeyInCache(key)) {
@@ -428,11 +1123,25 @@ public class JCache<K, V> implements Cache<K, V> {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(oldValue == null) throw new NullPointerException();
+        if(lockFree) {
+            final Element current = ehcache.get(key);
+            if(current == null) {
+                return false;
+            }
+            if(valueMatches(key, current, oldValue)) {
+                return casRemove(current);
+            }
+            final Duration expiryForAccess = cfg.getExpiryPolicy().getExpiryForAccess();
+            if(expiryForAccess != null && expiryForAccess.isZero()) {
+                casRemove(current);
+            }
+            return false;
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             if(ehcache.isKeyInCache(key)) {
                 final Element e = ehcache.get(key);
-                if(e != null && e.getObjectValue().equals(oldValue)) {
+                if(e != null && valueMatches(key, e, oldValue)) {
                     removeAndWriteIfNeeded(key);
                     return true;
                 } else if (e != null) {
@@ -454,6 +1163,13 @@ public class JCache<K, V> implements Cache<K, V> {
     public V getAndRemove(final K key) {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
+        if(lockFree) {
+            Element current = ehcache.get(key);
+            while(current != null && !casRemove(current)) {
+                current = ehcache.getQuiet(key);
+            }
+            return current == null ? null : (V) current.getObjectValue();
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             Element previousElement;
@@ -472,11 +1188,33 @@ public class JCache<K, V> implements Cache<K, V> {
         if(oldValue == null) throw new NullPointerException();
         if(newValue == null) throw new NullPointerException();
         final Element element = new Element(key, newValue);
+        if(lockFree) {
+            final Element current = ehcache.get(key);
+            if(current == null) {
+                return false;
+            }
+            if(!valueMatches(key, current, oldValue)) {
+                final Duration expiryForAccess = cfg.getExpiryPolicy().getExpiryForAccess();
+                if(expiryForAccess != null && expiryForAccess.isZero()) {
+                    casRemove(current);
+                }
+                return false;
+            }
+            if(setTimeTo(cfg.overrideDefaultExpiry(), cfg.getExpiryPolicy().getExpiryForUpdate(), element)) {
+                if(ehcache.replace(current, element)) {
+                    lockFreePuts.incrementAndGet();
+                    return true;
+                }
+            } else {
+                casRemove(current);
+            }
+            return false;
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             final Element current = ehcache.get(key);
             if(current != null) {
-                if(!current.getObjectValue().equals(oldValue)) {
+                if(!valueMatches(key, current, oldValue)) {
                     final Duration expiryForAccess = cfg.getExpiryPolicy().getExpiryForAccess();
                     if(expiryForAccess != null && expiryForAccess.isZero()) {
                         ehcache.remove(key);
@@ -502,6 +1240,9 @@ public class JCache<K, V> implements Cache<K, V> {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(value == null) throw new NullPointerException();
+        if(lockFree) {
+            return casReplace(key, value) != null;
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             final Element element = new Element(key, value);
@@ -530,6 +1271,10 @@ public class JCache<K, V> implements Cache<K, V> {
         checkNotClosed();
         if(key == null) throw new NullPointerException();
         if(value == null) throw new NullPointerException();
+        if(lockFree) {
+            final Element previous = casReplace(key, value);
+            return previous == null ? null : (V) previous.getObjectValue();
+        }
         ehcache.acquireWriteLockOnKey(key);
         try {
             Duration expiry;
@@ -548,6 +1293,21 @@ public class JCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * Replaces the mapping of {@code key}, if there is one, without taking the key's lock.
+     *
+     * @param key the key
+     * @param value the new value
+     * @return the element that got replaced or removed, null if the key wasn't mapped
+     */
+    private Element casReplace(final K key, final V value) {
+        Element current = ehcache.get(key);
+        while(current != null && !casPut(current, key, value)) {
+            current = ehcache.getQuiet(key);
+        }
+        return current;
+    }
+
     @Override
     public void removeAll(final Set<? extends K> keys) {
         checkNotClosed();
@@ -557,7 +1317,9 @@ public class JCache<K, V> implements Cache<K, V> {
                 throw new NullPointerException();
         }
         checkNotClosed();
-        if(cfg.isWriteThrough()) {
+        if(isWriteBatching()) {
+            removeAllInBatches(keys);
+        } else if(cfg.isWriteThrough()) {
             for (K key : keys) {
                 ehcache.acquireWriteLockOnKey(key);
                 try {
@@ -566,7 +1328,7 @@ public class JCache<K, V> implements Cache<K, V> {
                         ehcache.removeWithWriter(key);
                     } catch (RuntimeException e) {
                         if(previous != null) {
-                            ehcache.putQuiet(previous);
+                            putQuiet(previous);
                         }
                         throw new CacheWriterException(e);
                     }
@@ -590,7 +1352,9 @@ public class JCache<K, V> implements Cache<K, V> {
     @Override
     public void removeAll() {
         checkNotClosed();
-        if (cfg.isWriteThrough()) {
+        if (isWriteBatching()) {
+            removeAllInBatches((List<K>)ehcache.getKeys());
+        } else if (cfg.isWriteThrough()) {
             for (Object key : ehcache.getKeys()) {
                 ehcache.acquireWriteLockOnKey(key);
                 final Element previous = ehcache.getQuiet(key);
@@ -599,7 +1363,7 @@ public class JCache<K, V> implements Cache<K, V> {
                         ehcache.removeWithWriter(key);
                     } catch (RuntimeException e) {
                         if(previous != null) {
-                            ehcache.putQuiet(previous);
+                            putQuiet(previous);
                         }
                         throw new CacheWriterException(e);
                     }
@@ -625,6 +1389,32 @@ public class JCache<K, V> implements Cache<K, V> {
         }
     }
 
+    private boolean isWriteBatching() {
+        return cfg.isWriteThrough() && cacheWriter != null && cfg.getWriteBatchSize() > 0;
+    }
+
+    private JCacheWriteBatch<K, V> newWriteBatch() {
+        return new JCacheWriteBatch<K, V>(ehcache, cacheWriter, cfg.getKeyType(), cfg.getValueType());
+    }
+
+    private void removeAllInBatches(final Collection<? extends K> keys) {
+        final JCacheWriteBatch<K, V> batch = newWriteBatch();
+        for (K key : keys) {
+            removeAndWriteIfNeeded(key, batch);
+            if(batch.size() >= cfg.getWriteBatchSize()) {
+                flushRemovals(batch);
+            }
+        }
+        flushRemovals(batch);
+    }
+
+    private void flushRemovals(final JCacheWriteBatch<K, V> batch) {
+        final Map<K, CacheWriterException> failures = batch.flush();
+        if(!failures.isEmpty()) {
+            throw failures.values().iterator().next();
+        }
+    }
+
     @Override
     public void clear() {
         checkNotClosed();
@@ -648,6 +1438,13 @@ public class JCache<K, V> implements Cache<K, V> {
         if(entryProcessor == null) {
             throw new NullPointerException();
         }
+        if(lockFree) {
+            return casInvoke(key, entryProcessor, arguments);
+        }
+        return invoke(key, null, entryProcessor, arguments);
+    }
+
+    private <T> T invoke(final K key, final JCacheWriteBatch<K, V> batch, final EntryProcessor<K, V, T> entryProcessor, final Object... arguments) {
         final T outcome;
         ehcache.acquireWriteLockOnKey(key);
         try {
@@ -662,7 +1459,7 @@ public class JCache<K, V> implements Cache<K, V> {
                 }
                 final JMutableEntry<K, V> entry = new JMutableEntry<K, V>(this, element, key, fromLoader);
                 outcome = entryProcessor.process(entry, arguments);
-                entry.apply(this);
+                entry.apply(this, batch);
             } catch (RuntimeException t) {
                 if(t instanceof CacheException) {
                     throw t;
@@ -675,27 +1472,250 @@ public class JCache<K, V> implements Cache<K, V> {
         return outcome;
     }
 
+    /**
+     * Runs {@code entryProcessor} optimistically against the current mapping and only applies its outcome if the
+     * mapping didn't change meanwhile, running it again otherwise.
+     */
+    private <T> T casInvoke(final K key, final EntryProcessor<K, V, T> entryProcessor, final Object... arguments) {
+        Element element = ehcache.get(key);
+        while(true) {
+            try {
+                boolean fromLoader = false;
+                if(element == null) {
+                    if(cfg.isReadThrough() && load(key) != null) {
+                        element = ehcache.get(key);
+                        fromLoader = true;
+                    }
+                }
+                final JMutableEntry<K, V> entry = new JMutableEntry<K, V>(this, element, key, fromLoader);
+                final T outcome = entryProcessor.process(entry, arguments);
+                if(entry.applyIfUnchanged(this, element)) {
+                    return outcome;
+                }
+            } catch (RuntimeException t) {
+                if(t instanceof CacheException) {
+                    throw t;
+                }
+                throw new EntryProcessorException(t);
+            }
+            element = ehcache.getQuiet(key);
+        }
+    }
+
     @Override
     public <T> Map<K, EntryProcessorResult<T>> invokeAll(final Set<? extends K> keys, final EntryProcessor<K, V, T> entryProcessor, final Object... arguments) {
         checkNotClosed();
         if(entryProcessor == null) {
             throw new NullPointerException();
         }
+        for (K key : keys) {
+            if(key == null) throw new NullPointerException();
+        }
+        if(!cfg.isParallelInvokeAll() || keys.size() < 2) {
+            return invokeEach(keys, entryProcessor, arguments);
+        }
+        final List<Callable<Map<K, EntryProcessorResult<T>>>> tasks = new ArrayList<Callable<Map<K, EntryProcessorResult<T>>>>();
+        for (final List<K> partition : partitionByStripe(keys, loaderExecutor.getParallelism())) {
+            tasks.add(new Callable<Map<K, EntryProcessorResult<T>>>() {
+                @Override
+                public Map<K, EntryProcessorResult<T>> call() throws Exception {
+                    return invokeEach(partition, entryProcessor, arguments);
+                }
+            });
+        }
+        final Map<K, EntryProcessorResult<T>> results = new HashMap<K, EntryProcessorResult<T>>();
+        try {
+            for (Map<K, EntryProcessorResult<T>> partitionResults : loaderExecutor.invokeAll(tasks)) {
+                results.putAll(partitionResults);
+            }
+        } catch (CacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheException(e);
+        }
+        return results;
+    }
+
+    private <T> Map<K, EntryProcessorResult<T>> invokeEach(final Collection<? extends K> keys, final EntryProcessor<K, V, T> entryProcessor, final Object... arguments) {
         final Map<K, EntryProcessorResult<T>> results = new HashMap<K, EntryProcessorResult<T>>();
+        final JCacheWriteBatch<K, V> batch = isWriteBatching() ? newWriteBatch() : null;
         for (K key : keys) {
-            final T result = invoke(key, entryProcessor, arguments);
-            if(result != null) {
+            try {
+                final T result = batch == null ? invoke(key, entryProcessor, arguments) : invoke(key, batch, entryProcessor, arguments);
+                if(result != null) {
+                    results.put(key, new EntryProcessorResult<T>() {
+                        @Override
+                        public T get() throws EntryProcessorException {
+                            return result;
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                final EntryProcessorException failure = e instanceof EntryProcessorException
+                    ? (EntryProcessorException)e : new EntryProcessorException(e);
                 results.put(key, new EntryProcessorResult<T>() {
                     @Override
                     public T get() throws EntryProcessorException {
-                        return result;
+                        throw failure;
                     }
                 });
             }
+            if(batch != null && batch.size() >= cfg.getWriteBatchSize()) {
+                recordWriteFailures(batch, results);
+            }
+        }
+        if(batch != null) {
+            recordWriteFailures(batch, results);
         }
         return results;
     }
 
+    private <T> void recordWriteFailures(final JCacheWriteBatch<K, V> batch, final Map<K, EntryProcessorResult<T>> results) {
+        for (Map.Entry<K, CacheWriterException> failed : batch.flush().entrySet()) {
+            final EntryProcessorException failure = new EntryProcessorException(failed.getValue());
+            results.put(failed.getKey(), new EntryProcessorResult<T>() {
+                @Override
+                public T get() throws EntryProcessorException {
+                    throw failure;
+                }
+            });
+        }
+    }
+
+    /**
+     * Groups {@code keys} by the lock stripe guarding them and deals the groups out to up to {@code partitions}
+     * partitions, so that no two partitions ever contend on the same lock. Without lock stripes, keys are split by
+     * hash code.
+     */
+    private List<List<K>> partitionByStripe(final Collection<? extends K> keys, final int partitions) {
+        final List<List<K>> result = new ArrayList<List<K>>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            result.add(new ArrayList<K>());
+        }
+        final Map<Sync, List<K>> stripes = groupByStripe(keys);
+        if(stripes == null) {
+            for (K key : keys) {
+                result.get(Math.abs(key.hashCode() % partitions)).add(key);
+            }
+            return result;
+        }
+        int next = 0;
+        for (List<K> stripeKeys : stripes.values()) {
+            result.get(next++ % partitions).addAll(stripeKeys);
+        }
+        return result;
+    }
+
+    /**
+     * Groups {@code keys} by the lock stripe guarding them.
+     *
+     * @return the keys of each stripe, null if the cache's store doesn't expose its lock stripes
+     */
+    private Map<Sync, List<K>> groupByStripe(final Collection<? extends K> keys) {
+        final Object context = ehcache.getInternalContext();
+        if(!(context instanceof CacheLockProvider)) {
+            return null;
+        }
+        final Map<Sync, List<K>> stripes = new IdentityHashMap<Sync, List<K>>();
+        for (K key : keys) {
+            final Sync stripe = ((CacheLockProvider)context).getSyncForKey(key);
+            List<K> stripeKeys = stripes.get(stripe);
+            if(stripeKeys == null) {
+                stripeKeys = new ArrayList<K>();
+                stripes.put(stripe, stripeKeys);
+            }
+            stripeKeys.add(key);
+        }
+        return stripes;
+    }
+
+    /**
+     * Maps the entries of {@code keys}, or of the whole cache, with {@code mapper} and combines the outcomes into one,
+     * concurrently across lock stripes on the cache's loader pool. Only the outcome is handed back, no entry is copied
+     * out of the cache.
+     * <br />
+     * The whole cache is aggregated by walking its keys weakly, in chunks handed to the pool a few at a time, rather than
+     * copying them all first: entries put or removed meanwhile may or may not be aggregated.
+     * <br />
+     * The mapper sees the stored values themselves when it can, so it must not modify them; nor can it modify the
+     * entries it is passed. Reading entries this way doesn't count as an access of them.
+     *
+     * @param keys the keys of the entries to aggregate, null for all entries
+     * @param mapper maps an entry to its contribution, null for none
+     * @param combiner combines contributions
+     * @param <R> the type of the outcome
+     * @return the combined contributions, null if there were none
+     */
+    public <R> R aggregate(final Set<? extends K> keys, final EntryProcessor<K, V, R> mapper, final JCacheCombiner<R> combiner) {
+        checkNotClosed();
+        if(mapper == null) throw new NullPointerException();
+        if(combiner == null) throw new NullPointerException();
+        final Store store = JCacheStoreAccess.backingStore(ehcache);
+        final List<Callable<R>> tasks = new ArrayList<Callable<R>>();
+        R outcome = null;
+        if(keys != null) {
+            for (List<K> partition : partitionByStripe(keys, loaderExecutor.getParallelism())) {
+                tasks.add(aggregation(store, partition, mapper, combiner));
+            }
+        } else {
+            final Iterator<?> iterator = JCacheStoreAccess.keys(ehcache);
+            List<K> chunk = new ArrayList<K>(AGGREGATE_CHUNK_SIZE);
+            while(iterator.hasNext()) {
+                chunk.add((K)iterator.next());
+                if(chunk.size() == AGGREGATE_CHUNK_SIZE) {
+                    tasks.add(aggregation(store, chunk, mapper, combiner));
+                    chunk = new ArrayList<K>(AGGREGATE_CHUNK_SIZE);
+                    if(tasks.size() >= loaderExecutor.getParallelism()) {
+                        outcome = aggregate(tasks, outcome, combiner);
+                    }
+                }
+            }
+            tasks.add(aggregation(store, chunk, mapper, combiner));
+        }
+        return aggregate(tasks, outcome, combiner);
+    }
+
+    private <R> Callable<R> aggregation(final Store store, final List<K> keys, final EntryProcessor<K, V, R> mapper,
+                                        final JCacheCombiner<R> combiner) {
+        return new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                R outcome = null;
+                for (K key : keys) {
+                    final Element element = store == null ? ehcache.getQuiet(key) : store.getQuiet(key);
+                    if(element == null || element.isExpired()) {
+                        continue;
+                    }
+                    final R contribution = mapper.process(new JReadOnlyEntry<K, V>(key, (V)readValue(element.getObjectValue())));
+                    if(contribution != null) {
+                        outcome = outcome == null ? contribution : combiner.combine(outcome, contribution);
+                    }
+                }
+                return outcome;
+            }
+        };
+    }
+
+    /**
+     * Runs the aggregations {@code tasks} on the loader pool and combines their outcomes into {@code outcome}.
+     */
+    private <R> R aggregate(final List<Callable<R>> tasks, R outcome, final JCacheCombiner<R> combiner) {
+        try {
+            for (R partial : loaderExecutor.invokeAll(tasks)) {
+                if(partial != null) {
+                    outcome = outcome == null ? partial : combiner.combine(outcome, partial);
+                }
+            }
+        } catch (CacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EntryProcessorException(e);
+        } finally {
+            tasks.clear();
+        }
+        return outcome;
+    }
+
     @Override
     public String getName() {
         return ehcache.getName();
@@ -714,6 +1734,12 @@ public class JCache<K, V> implements Cache<K, V> {
 
     void shutdown() {
         closed = true;
+        if (journal != null) {
+            journal.close();
+        }
+        if (ownLoaderExecutor) {
+            loaderExecutor.shutdown();
+        }
         ehcache.dispose();
     }
 
@@ -730,6 +1756,12 @@ public class JCache<K, V> implements Cache<K, V> {
         if(clazz.isAssignableFrom(getClass())) {
             return clazz.cast(this);
         }
+        if(clazz == JCacheBytes.class) {
+            if(!cfg.getValueType().isAssignableFrom(byte[].class)) {
+                throw new IllegalArgumentException("Values of " + getName() + " aren't byte arrays");
+            }
+            return clazz.cast(new JCacheBytes<K>((JCache<K, byte[]>)this));
+        }
         return null;
     }
 
@@ -756,22 +1788,220 @@ public class JCache<K, V> implements Cache<K, V> {
     @Override
     public Iterator<Entry<K, V>> iterator() {
         checkNotClosed();
-        return new JEntryIterator<K, V>(this);
+        return new JEntryIterator<K, V>(this, cfg.isQuietIteration());
+    }
+
+    /**
+     * Starts a traversal of this cache that can be split, to scan it from several threads.
+     *
+     * @return a spliterator over all entries of this cache
+     */
+    public JCacheSpliterator<K, V> entrySpliterator() {
+        checkNotClosed();
+        final Object[] keys = ehcache.getKeys().toArray();
+        return new JCacheSpliterator<K, V>(this, keys, 0, keys.length);
+    }
+
+    /**
+     * Writes all entries of this cache to {@code file}, with what remains of their lifespan, while the cache keeps
+     * serving. Entries mutated meanwhile may be written as they were before or after the mutation, or be missing.
+     * Keys and values are written by the serializers of the cache, the default ones if it has none configured.
+     *
+     * @param file the snapshot file, replaced once the snapshot is complete
+     * @return the number of entries written
+     */
+    public long snapshot(final File file) {
+        checkNotClosed();
+        if(file == null) throw new NullPointerException();
+        return JCacheSnapshot.write(this, file);
+    }
+
+    /**
+     * Puts the entries of the snapshot {@code file} in this cache, unless they expired since, or their key is mapped
+     * already. No {@link CacheWriter} is called.
+     *
+     * @param file a snapshot written by {@link #snapshot(File)}
+     * @return the number of entries put
+     */
+    public long restore(final File file) {
+        checkNotClosed();
+        if(file == null) throw new NullPointerException();
+        return JCacheSnapshot.read(this, file);
+    }
+
+    /**
+     * Writes a snapshot of this journaled cache next to its journal, which then only needs to be replayed from there.
+     * This happens on its own as the journal grows, see {@link JCacheConfiguration#setJournaled(boolean)}.
+     *
+     * @return the number of entries in the snapshot
+     * @throws IllegalStateException if this cache isn't journaled
+     */
+    public long checkpoint() {
+        checkNotClosed();
+        if(journal == null) {
+            throw new IllegalStateException("Cache " + getName() + " isn't journaled");
+        }
+        return journal.checkpoint();
+    }
+
+    Element readForIteration(final K key) {
+        return cfg.isQuietIteration() ? ehcache.getQuiet(key) : getElement(key);
+    }
+
+    JCacheEntry<K, V> toEntry(final Element element) {
+        return new JCacheEntry<K, V>(element, cfg.getKeyType(), cfg.getValueType());
     }
 
     private void checkNotClosed() {
         if(closed) throw new IllegalStateException();
     }
 
+    JCacheBloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    JCacheNegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    JCacheRefresher<K, V> getRefresher() {
+        return refresher;
+    }
+
+    JCacheLoadBatcher<K, V> getLoadBatcher() {
+        return loadBatcher;
+    }
+
+    JCacheLoaderExecutor getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    /**
+     * A read-only view of the {@code byte[]} value of {@code key}, without copying it when it is stored as is. The read
+     * is quiet, neither counting in statistics nor as an access of the entry.
+     *
+     * @return the view, null if there is no value for key
+     */
+    ByteBuffer byteView(final K key) {
+        checkNotClosed();
+        if(key == null) throw new NullPointerException();
+        final Element element = getStoredElement(key);
+        if(element == null || element.isExpired()) {
+            return null;
+        }
+        if(copyStrategy == null) {
+            return ByteBuffer.wrap((byte[])element.getObjectValue()).asReadOnlyBuffer();
+        }
+        return copyStrategy.byteView(element.getObjectValue(), ehcache.getCacheConfiguration().getClassLoader());
+    }
+
+    /**
+     * Reads the element of {@code key} quietly, as held by the store, whose value is therefore neither copied nor
+     * deserialized.
+     */
+    Element getStoredElement(final Object key) {
+        return backingStore == null ? ehcache.getQuiet(key) : backingStore.getQuiet(key);
+    }
+
+    /**
+     * Serializes a value taken from the store itself with the value serializer of this cache, reusing its bytes if it
+     * is stored serialized already.
+     */
+    byte[] serializeStoredValue(final Object storedValue) {
+        if(copyStrategy == null) {
+            return getValueSerializer().serialize(storedValue);
+        }
+        return copyStrategy.serializeValue(storedValue);
+    }
+
+    JCacheSerializer<Object> getKeySerializer() {
+        return cfg.getKeySerializer() == null ? JCacheSerializers.DEFAULT : (JCacheSerializer<Object>)cfg.getKeySerializer();
+    }
+
+    JCacheSerializer<Object> getValueSerializer() {
+        return cfg.getValueSerializer() == null ? JCacheSerializers.DEFAULT : (JCacheSerializer<Object>)cfg.getValueSerializer();
+    }
+
+    /**
+     * Puts {@code element} unless its key is mapped already, bypassing the writer and the expiry policy, the element's
+     * lifespan being set already.
+     *
+     * @return true if it got put
+     */
+    boolean restoreEntry(final Element element) {
+        checkNotClosed();
+        return ehcache.putIfAbsent(element) == null;
+    }
+
+    /**
+     * Puts {@code bytes} as the value of {@code key}, storing the array itself rather than a copy of it.
+     */
+    void putHandedOver(final K key, final V bytes) {
+        if(copyStrategy == null) {
+            put(key, bytes);
+            return;
+        }
+        copyStrategy.handOver(bytes);
+        try {
+            put(key, bytes);
+        } finally {
+            copyStrategy.handedOver();
+        }
+    }
+
+    /**
+     * @return the journal of this cache, null if it isn't journaled
+     */
+    JCacheJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the strategy copying entries of this store-by-value cache, null if it stores by reference
+     */
+    JCacheCopyOnWriteStrategy getCopyStrategy() {
+        return copyStrategy;
+    }
+
+    /**
+     * @return the number of gets the Bloom filter answered, which Ehcache didn't see
+     */
+    long getUncountedMissCount() {
+        return filteredMisses.get();
+    }
+
+    /**
+     * @return the number of puts Ehcache's own statistics don't account for
+     */
+    long getUncountedPutCount() {
+        return lockFreePuts.get() + bulkPuts.get();
+    }
+
+    /**
+     * @return the number of removals Ehcache's own statistics don't account for
+     */
+    long getUncountedRemovalCount() {
+        return lockFreeRemovals.get();
+    }
+
     private static class JEntryIterator<K, V> implements Iterator<Entry<K, V>> {
-        private final Iterator<K> keyIterator;
+        private static final int QUIET_CHUNK_SIZE = 256;
+
+        private final Iterator<?> keyIterator;
         private final JCache<K, V> jCache;
+        private final boolean quiet;
+        private final Queue<Element> chunk = new ArrayDeque<Element>(QUIET_CHUNK_SIZE);
         private Entry<K, V> next;
         private Entry<K, V> current;
 
-        public JEntryIterator(final JCache jCache) {
+        public JEntryIterator(final JCache jCache, final boolean quiet) {
             this.jCache = jCache;
-            this.keyIterator = jCache.ehcache.getKeys().iterator();
+            this.quiet = quiet;
+            if(quiet) {
+                this.keyIterator = JCacheStoreAccess.keys(jCache.ehcache);
+            } else {
+                this.keyIterator = jCache.ehcache.getKeys().iterator();
+            }
             advance();
         }
 
@@ -786,8 +2016,11 @@ public class JCache<K, V> implements Cache<K, V> {
                 throw new NoSuchElementException();
             }
             current = next;
-            final Duration expiryForAccess = jCache.cfg.getExpiryPolicy().getExpiryForAccess();
             advance();
+            if(quiet) {
+                return current;
+            }
+            final Duration expiryForAccess = jCache.cfg.getExpiryPolicy().getExpiryForAccess();
             if(expiryForAccess != null && expiryForAccess.isZero()) {
                 remove();
             }
@@ -802,7 +2035,7 @@ public class JCache<K, V> implements Cache<K, V> {
             jCache.ehcache.acquireWriteLockOnKey(current.getKey());
             try {
                 final Element element = jCache.ehcache.getQuiet(current.getKey());
-                if(element != null && element.getObjectValue().equals(current.getValue())) {
+                if(element != null && jCache.valueMatches(current.getKey(), element, current.getValue())) {
                     jCache.removeAndWriteIfNeeded(current.getKey());
                 }
             } finally {
@@ -812,13 +2045,76 @@ public class JCache<K, V> implements Cache<K, V> {
 
         private void advance() {
             next = null;
+            if(quiet) {
+                if(chunk.isEmpty()) {
+                    readChunk();
+                }
+                final Element e = chunk.poll();
+                if(e != null) {
+                    next = new JCacheEntry<K, V>(e, jCache.cfg.getKeyType(), jCache.cfg.getValueType());
+                }
+                return;
+            }
             while(keyIterator.hasNext() && next == null) {
-                Element e = jCache.getElement(keyIterator.next());
+                Element e = jCache.getElement((K)keyIterator.next());
                 if(e != null) {
                     next = new JCacheEntry<K, V>(e, jCache.cfg.getKeyType(), jCache.cfg.getValueType());
                 }
             }
         }
+
+        /**
+         * Reads the next few entries without it counting as an access, so that neither eviction order, statistics
+         * nor expiry are affected.
+         */
+        private void readChunk() {
+            while(chunk.size() < QUIET_CHUNK_SIZE && keyIterator.hasNext()) {
+                final Element e = jCache.ehcache.getQuiet(keyIterator.next());
+                if(e != null) {
+                    chunk.add(e);
+                }
+            }
+        }
+    }
+
+    private static class JReadOnlyEntry<K, V> implements MutableEntry<K, V> {
+        private final K key;
+        private final V value;
+
+        JReadOnlyEntry(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Aggregated entries are read-only");
+        }
+
+        @Override
+        public void setValue(final V value) {
+            throw new UnsupportedOperationException("Aggregated entries are read-only");
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public <T> T unwrap(final Class<T> clazz) {
+            throw new IllegalArgumentException();
+        }
     }
 
     private static class JMutableEntry<K, V> implements MutableEntry<K, V> {
@@ -873,7 +2169,7 @@ public class JCache<K, V> implements Cache<K, V> {
 
         @Override
         public V getValue() {
-            if(newValue != initialValue) return newValue;
+            if(updated || newValue != initialValue) return newValue;
             if (initialValue != null && !fromLoader) {
                 final Duration expiryForAccess = jCache.cfg.getExpiryPolicy().getExpiryForAccess();
                 if (expiryForAccess != null && expiryForAccess.isZero()) {
@@ -888,13 +2184,23 @@ public class JCache<K, V> implements Cache<K, V> {
             throw new UnsupportedOperationException("Implement me!");
         }
 
-        void apply(final JCache<K, V> jCache) {
+        void apply(final JCache<K, V> jCache, final JCacheWriteBatch<K, V> batch) {
             if(deleted && !skipDelete) {
-                jCache.remove(key);
+                jCache.removeAndWriteIfNeeded(key, batch);
             }
             if(updated && newValue != null) {
-                jCache.put(key, newValue);
+                jCache.put(key, newValue, batch);
             }
         }
+
+        boolean applyIfUnchanged(final JCache<K, V> jCache, final Element current) {
+            if(deleted && !skipDelete) {
+                return current == null || jCache.casRemove(current);
+            }
+            if(updated && newValue != null) {
+                return jCache.casPut(current, key, newValue);
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,332 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the keys a cache definitely doesn't map, without looking them up, from a counting Bloom filter of its keys kept
+ * up to date by its events. A cache whose {@link javax.cache.integration.CacheLoader} is a {@link JCacheKeyUniverse}
+ * also gets a Bloom filter of the keys the loader has values for.<br />
+ * The filters never miss a key, but grow less accurate as keys come and go: they are rebuilt from the store and the
+ * key universe on the loader pool once as many changes as the expected entries happened, or the cache got cleared.
+ * Keys the universe gains are only known from the next rebuild on. The first build runs on the loader pool too; until
+ * it is done, every key might be stored.
+ */
+final class JCacheBloomFilter implements CacheEventListener {
+
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final Ehcache ehcache;
+    private final JCacheKeyUniverse<?> universe;
+    private final JCacheLoaderExecutor executor;
+    private final int expectedEntries;
+    private final double falsePositiveRate;
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong absentKeys = new AtomicLong();
+    private final AtomicLong absentLoads = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private volatile Counters keys;
+    private volatile Counters universeKeys;
+    private volatile Counters rebuilding;
+    private volatile boolean built;
+
+    JCacheBloomFilter(final Ehcache ehcache, final JCacheKeyUniverse<?> universe, final JCacheLoaderExecutor executor,
+                      final int expectedEntries, final double falsePositiveRate) {
+        this.ehcache = ehcache;
+        this.universe = universe;
+        this.executor = executor;
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        this.keys = new Counters(expectedEntries, falsePositiveRate);
+    }
+
+    /**
+     * @return false if the cache definitely doesn't map {@code key}, true if it might or the filter isn't built yet
+     */
+    boolean mightBeStored(final Object key) {
+        if(!built || keys.mightContain(key)) {
+            return true;
+        }
+        absentKeys.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return false if the loader definitely has no value for {@code key}, true if it might or can't tell
+     */
+    boolean mightBeLoaded(final Object key) {
+        final Counters universeKeys = this.universeKeys;
+        if(universe == null || universeKeys == null || universeKeys.mightContain(key)) {
+            return true;
+        }
+        absentLoads.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Builds the filters anew from the keys of the store and the key universe. Keys put meanwhile go to both the
+     * current and the new filter, while keys removed are only forgotten from the current one, so that the new filter
+     * misses none.
+     */
+    private synchronized void rebuild() {
+        try {
+            final Counters fresh = new Counters(expectedEntries, falsePositiveRate);
+            rebuilding = fresh;
+            try {
+                final Iterator<?> iterator = JCacheStoreAccess.keys(ehcache);
+                while(iterator.hasNext()) {
+                    fresh.add(iterator.next());
+                }
+                if(universe != null) {
+                    final Counters freshUniverse = new Counters(expectedEntries, falsePositiveRate);
+                    for (Object key : universe.keys()) {
+                        freshUniverse.add(key);
+                    }
+                    universeKeys = freshUniverse;
+                }
+                changes.set(0);
+                keys = fresh;
+                built = true;
+            } finally {
+                rebuilding = null;
+            }
+            rebuilds.incrementAndGet();
+        } finally {
+            rebuildScheduled.set(false);
+        }
+    }
+
+    /**
+     * Has {@link #rebuild()} run on the loader pool, unless it is already scheduled or the pool is saturated.
+     */
+    void scheduleRebuild() {
+        if(rebuildScheduled.compareAndSet(false, true) && !executor.tryExecute(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        })) {
+            rebuildScheduled.set(false);
+        }
+    }
+
+    private void changed() {
+        if(changes.incrementAndGet() >= expectedEntries || !built) {
+            scheduleRebuild();
+        }
+    }
+
+    @Override
+    public void notifyElementPut(final Ehcache cache, final Element element) {
+        add(element.getObjectKey());
+    }
+
+    /**
+     * Counts {@code key} in, as put without an event being fired.
+     */
+    void add(final Object key) {
+        // the filter being rebuilt is read first: once it is null, keys is the rebuilt one
+        final Counters rebuilding = this.rebuilding;
+        final Counters keys = this.keys;
+        keys.add(key);
+        if(rebuilding != null && rebuilding != keys) {
+            rebuilding.add(key);
+        }
+        changed();
+    }
+
+    @Override
+    public void notifyElementUpdated(final Ehcache cache, final Element element) {
+        // counted in already
+    }
+
+    @Override
+    public void notifyElementRemoved(final Ehcache cache, final Element element) {
+        remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementExpired(final Ehcache cache, final Element element) {
+        remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementEvicted(final Ehcache cache, final Element element) {
+        remove(element.getObjectKey());
+    }
+
+    private void remove(final Object key) {
+        final Counters rebuilding = this.rebuilding;
+        final Counters keys = this.keys;
+        if(keys != rebuilding) {
+            // the rebuilt filter may never have counted the key
+            keys.remove(key);
+        }
+        changed();
+    }
+
+    @Override
+    public void notifyRemoveAll(final Ehcache cache) {
+        scheduleRebuild();
+    }
+
+    @Override
+    public void dispose() {
+        // nothing held but memory
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    int getCounters() {
+        return keys.size;
+    }
+
+    /**
+     * @return the memory the counters of both filters take
+     */
+    long getSizeInBytes() {
+        final Counters universeKeys = this.universeKeys;
+        return keys.counters.length() * 4L + (universeKeys == null ? 0 : universeKeys.counters.length() * 4L);
+    }
+
+    int getHashFunctions() {
+        return keys.hashes;
+    }
+
+    int getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    double getConfiguredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    long getEntries() {
+        return keys.entries.get();
+    }
+
+    /**
+     * @return the false positive rate of the filter of the store's keys, given how many it counts
+     */
+    double getFalsePositiveRate() {
+        return keys.falsePositiveRate();
+    }
+
+    long getUniverseEntries() {
+        final Counters universeKeys = this.universeKeys;
+        return universeKeys == null ? 0 : universeKeys.entries.get();
+    }
+
+    long getAbsentKeys() {
+        return absentKeys.get();
+    }
+
+    long getAbsentLoads() {
+        return absentLoads.get();
+    }
+
+    long getRebuilds() {
+        return rebuilds.get();
+    }
+
+    /**
+     * Counting Bloom filter of 8 bit counters, packed four to an int. Saturated counters stick, as they can't tell
+     * how many keys they count anymore.
+     */
+    private static final class Counters {
+
+        private static final int MAX = 0xff;
+
+        private final int size;
+        private final int hashes;
+        private final AtomicIntegerArray counters;
+        private final AtomicLong entries = new AtomicLong();
+
+        private Counters(final int expectedEntries, final double falsePositiveRate) {
+            final double bits = -expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            this.size = (int)Math.max(64, Math.min(Integer.MAX_VALUE - 3, Math.ceil(bits)));
+            this.hashes = (int)Math.max(1, Math.round(size / (double)expectedEntries * Math.log(2)));
+            this.counters = new AtomicIntegerArray((size + 3) / 4);
+        }
+
+        private boolean mightContain(final Object key) {
+            final int h1 = JCacheCompactStore.hash(key);
+            final int h2 = (Integer.rotateLeft(h1, 16) * 0x9e3779b9) | 1;
+            for (int i = 0; i < hashes; i++) {
+                if(get(index(h1, h2, i)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(final Object key) {
+            final int h1 = JCacheCompactStore.hash(key);
+            final int h2 = (Integer.rotateLeft(h1, 16) * 0x9e3779b9) | 1;
+            for (int i = 0; i < hashes; i++) {
+                update(index(h1, h2, i), 1);
+            }
+            entries.incrementAndGet();
+        }
+
+        private void remove(final Object key) {
+            final int h1 = JCacheCompactStore.hash(key);
+            final int h2 = (Integer.rotateLeft(h1, 16) * 0x9e3779b9) | 1;
+            for (int i = 0; i < hashes; i++) {
+                update(index(h1, h2, i), -1);
+            }
+            entries.decrementAndGet();
+        }
+
+        private double falsePositiveRate() {
+            return Math.pow(1 - Math.exp(-hashes * (double)Math.max(0, entries.get()) / size), hashes);
+        }
+
+        private int index(final int h1, final int h2, final int i) {
+            return (int)(((h1 + i * h2) & 0xffffffffL) % size);
+        }
+
+        private int get(final int index) {
+            return (counters.get(index >> 2) >>> ((index & 3) << 3)) & MAX;
+        }
+
+        private void update(final int index, final int delta) {
+            final int shift = (index & 3) << 3;
+            while(true) {
+                final int packed = counters.get(index >> 2);
+                final int counter = (packed >>> shift) & MAX;
+                if(counter == MAX || counter + delta < 0) {
+                    return;
+                }
+                if(counters.compareAndSet(index >> 2, packed, (packed & ~(MAX << shift)) | ((counter + delta) << shift))) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Exposes the Bloom filter of a cache, next to its {@link JCacheStatMXBean}.
+ */
+public class JCacheBloomFilterMXBean extends JCacheMXBean implements CacheBloomFilterStatisticsMXBean {
+
+    public JCacheBloomFilterMXBean(final JCache jCache) {
+        super(jCache, "org.ehcache.jcache", "BloomFilterStatistics");
+    }
+
+    @Override
+    public int getExpectedEntries() {
+        return jCache.getBloomFilter().getExpectedEntries();
+    }
+
+    @Override
+    public long getEntries() {
+        return jCache.getBloomFilter().getEntries();
+    }
+
+    @Override
+    public int getCounters() {
+        return jCache.getBloomFilter().getCounters();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return jCache.getBloomFilter().getSizeInBytes();
+    }
+
+    @Override
+    public int getHashFunctions() {
+        return jCache.getBloomFilter().getHashFunctions();
+    }
+
+    @Override
+    public double getConfiguredFalsePositiveRate() {
+        return jCache.getBloomFilter().getConfiguredFalsePositiveRate();
+    }
+
+    @Override
+    public double getFalsePositiveRate() {
+        return jCache.getBloomFilter().getFalsePositiveRate();
+    }
+
+    @Override
+    public long getUniverseEntries() {
+        return jCache.getBloomFilter().getUniverseEntries();
+    }
+
+    @Override
+    public long getStoreLookupsAvoided() {
+        return jCache.getBloomFilter().getAbsentKeys();
+    }
+
+    @Override
+    public long getLoadsAvoided() {
+        return jCache.getBloomFilter().getAbsentLoads();
+    }
+
+    @Override
+    public long getRebuilds() {
+        return jCache.getBloomFilter().getRebuilds();
+    }
+}
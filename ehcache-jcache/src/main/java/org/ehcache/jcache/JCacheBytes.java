@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Byte oriented access to a cache of {@code byte[]} values, for payloads that are serialized already. Get one with
+ * {@code cache.unwrap(JCacheBytes.class)}.
+ * <br />
+ * Bytes are copied once at most: into a new array on put, out of the stored one on get, and not at all for views. A
+ * store-by-value cache storing serialized values copies once more on put.
+ * <br />
+ * Puts go through the cache like {@link javax.cache.Cache#put(Object, Object)} does. Reads are quiet: they neither
+ * count in the statistics nor as accesses of the entries, and don't read through.
+ *
+ * @param <K> the type of keys
+ */
+public class JCacheBytes<K> {
+
+    private final JCache<K, byte[]> jCache;
+
+    JCacheBytes(final JCache<K, byte[]> jCache) {
+        this.jCache = jCache;
+    }
+
+    /**
+     * Copies the value of {@code key} into {@code dst}, from its position on.
+     *
+     * @param key the key
+     * @param dst the buffer to copy into
+     * @return the number of bytes copied, -1 if there is no value for key
+     * @throws java.nio.BufferOverflowException if {@code dst} has less room than the value needs, nothing is copied then
+     */
+    public int getBytes(final K key, final ByteBuffer dst) {
+        final ByteBuffer view = jCache.byteView(key);
+        if (view == null) {
+            return -1;
+        }
+        final int length = view.remaining();
+        dst.put(view);
+        return length;
+    }
+
+    /**
+     * Puts the remaining bytes of {@code src} as the value of {@code key}, consuming them.
+     *
+     * @param key the key
+     * @param src the bytes of the value
+     */
+    public void putBytes(final K key, final ByteBuffer src) {
+        if (key == null) throw new NullPointerException();
+        final byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        jCache.putHandedOver(key, bytes);
+    }
+
+    /**
+     * A read-only view of the value of {@code key}, sharing the bytes stored when it can. The view reflects the value
+     * read, not later updates of the entry.
+     *
+     * @param key the key
+     * @return the view, null if there is no value for key
+     */
+    public ByteBuffer getView(final K key) {
+        return jCache.byteView(key);
+    }
+}
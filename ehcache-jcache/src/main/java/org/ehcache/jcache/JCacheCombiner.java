@@ -0,0 +1,32 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Folds two partial outcomes of {@link JCache#aggregate(java.util.Set, javax.cache.processor.EntryProcessor, JCacheCombiner)}
+ * into one. Partial outcomes are combined in no particular order, so combining needs to be associative and commutative.
+ *
+ * @param <R> the type of the outcome
+ */
+public interface JCacheCombiner<R> {
+
+    /**
+     * @param left a partial outcome, never null
+     * @param right another partial outcome, never null
+     * @return the outcome of both
+     */
+    R combine(R left, R right);
+}
@@ -0,0 +1,889 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheOperationOutcomes;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.concurrent.CacheLockProvider;
+import net.sf.ehcache.concurrent.ReadWriteLockSync;
+import net.sf.ehcache.concurrent.Sync;
+import net.sf.ehcache.config.SizeOfPolicyConfiguration;
+import net.sf.ehcache.pool.SizeOfEngine;
+import net.sf.ehcache.pool.SizeOfEngineLoader;
+import net.sf.ehcache.store.AbstractStore;
+import net.sf.ehcache.store.ElementValueComparator;
+import net.sf.ehcache.store.LruPolicy;
+import net.sf.ehcache.store.Policy;
+import net.sf.ehcache.store.disk.StoreUpdateException;
+import net.sf.ehcache.writer.CacheWriterManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The store of {@link JCacheStoreEngine#COMPACT} caches, keeping a small record per entry rather than an
+ * {@link Element}. Elements are built from the records when read, so changing them doesn't change the store, except
+ * for the access time {@link #get(Object)} records.
+ * <br />
+ * Records are spread over segments, hash tables read without locking and written holding the segment's lock, which is
+ * also the lock Ehcache takes on the keys of the segment. Past the cache's maxEntriesLocalHeap, the least recently used
+ * record of a sample gets evicted. Expired records stay until met by a read, an eviction or {@link #expireElements()}.
+ * <br />
+ * Subclasses may keep values elsewhere than in the records, see {@link #store(Element, int)}.
+ */
+class JCacheCompactStore extends AbstractStore {
+
+    private static final int SEGMENTS = 128;
+    private static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final int SAMPLE_SIZE = 30;
+    private static final int SAMPLE_SIZE_PER_SEGMENT = 8;
+    private static final int MAX_EVICTIONS_PER_PUT = 5;
+    private static final Policy POLICY = new LruPolicy();
+
+    /**
+     * What {@link #store(Element, int)} returns for elements it can't keep.
+     */
+    static final Object NOT_STORED = new Object();
+
+    private final Ehcache cache;
+    private final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicInteger size = new AtomicInteger();
+    private final CacheLockProvider lockProvider = new CacheLockProvider() {
+        @Override
+        public Sync getSyncForKey(final Object key) {
+            return segmentFor(hash(key)).sync;
+        }
+    };
+    private volatile Status status = Status.STATUS_ALIVE;
+
+    /**
+     * @param cache the cache this store holds the entries of
+     * @param evictionObserver where evictions get accounted, null not to account them
+     */
+    JCacheCompactStore(final Ehcache cache, final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver) {
+        this.cache = cache;
+        this.evictionObserver = evictionObserver;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public boolean put(final Element element) throws CacheException {
+        return putWithWriter(element, null);
+    }
+
+    @Override
+    public boolean putWithWriter(final Element element, final CacheWriterManager writerManager) throws CacheException {
+        if(element == null) {
+            return false;
+        }
+        final Object key = element.getObjectKey();
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        final Record current;
+        final boolean stored;
+        segment.writeLock().lock();
+        try {
+            current = segment.get(key, hash);
+            stored = map(segment, element, hash, current);
+            if(writerManager != null) {
+                try {
+                    writerManager.put(element);
+                } catch (RuntimeException e) {
+                    throw new StoreUpdateException(e, current != null);
+                }
+            }
+        } finally {
+            segment.writeLock().unlock();
+        }
+        if(!stored) {
+            notifyEvicted(element);
+        } else if(current == null) {
+            checkCapacity(key);
+        }
+        return current == null;
+    }
+
+    @Override
+    public Element get(final Object key) {
+        return get(key, true);
+    }
+
+    @Override
+    public Element getQuiet(final Object key) {
+        return get(key, false);
+    }
+
+    private Element get(final Object key, final boolean access) {
+        if(key == null) {
+            return null;
+        }
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        Record record;
+        Element element;
+        do {
+            record = segment.get(key, hash);
+            if(record == null) {
+                return null;
+            }
+            element = toElement(record);
+        } while(element == null);
+        if(access && !element.isExpired(cache.getCacheConfiguration())) {
+            record.lastAccessTime = System.currentTimeMillis();
+        }
+        return element;
+    }
+
+    @Override
+    public List getKeys() {
+        final List<Object> keys = new ArrayList<Object>(size.get());
+        for (Iterator<Object> iterator = keyIterator(); iterator.hasNext(); ) {
+            keys.add(iterator.next());
+        }
+        return keys;
+    }
+
+    /**
+     * @return a weakly consistent iterator over the keys of this store, not copying them
+     */
+    Iterator<Object> keyIterator() {
+        return new KeyIterator();
+    }
+
+    @Override
+    public Element remove(final Object key) {
+        return removeWithWriter(key, null);
+    }
+
+    @Override
+    public Element removeWithWriter(final Object key, final CacheWriterManager writerManager) throws CacheException {
+        if(key == null) {
+            return null;
+        }
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(key, hash);
+            final Element element = current == null ? null : toElement(current);
+            if(current != null) {
+                unmap(segment, current);
+            }
+            if(writerManager != null) {
+                writerManager.remove(new CacheEntry(key, element));
+            }
+            return element;
+        } finally {
+            segment.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() throws CacheException {
+        for (Segment segment : segments) {
+            segment.writeLock().lock();
+            try {
+                final AtomicReferenceArray<Record> table = segment.table;
+                size.addAndGet(-segment.clear());
+                for (int i = 0; i < table.length(); i++) {
+                    for (Record record = table.get(i); record != null; record = record.next) {
+                        release(record.value);
+                    }
+                }
+            } finally {
+                segment.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public Element putIfAbsent(final Element element) throws NullPointerException {
+        if(element == null) {
+            return null;
+        }
+        final Object key = element.getObjectKey();
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        final boolean stored;
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(key, hash);
+            if(current != null) {
+                return toElement(current);
+            }
+            stored = map(segment, element, hash, null);
+        } finally {
+            segment.writeLock().unlock();
+        }
+        if(stored) {
+            checkCapacity(key);
+        } else {
+            notifyEvicted(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Element removeElement(final Element element, final ElementValueComparator comparator) throws NullPointerException {
+        if(element == null || element.getObjectKey() == null) {
+            return null;
+        }
+        final Object key = element.getObjectKey();
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(key, hash);
+            if(current == null) {
+                return null;
+            }
+            final Element removed = toElement(current);
+            if(!comparator.equals(element, removed)) {
+                return null;
+            }
+            unmap(segment, current);
+            return removed;
+        } finally {
+            segment.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(final Element old, final Element element, final ElementValueComparator comparator) throws NullPointerException, IllegalArgumentException {
+        if(element == null || element.getObjectKey() == null) {
+            return false;
+        }
+        final Object key = element.getObjectKey();
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        final boolean stored;
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(key, hash);
+            if(current == null || !comparator.equals(old, toElement(current))) {
+                return false;
+            }
+            stored = map(segment, element, hash, current);
+        } finally {
+            segment.writeLock().unlock();
+        }
+        if(!stored) {
+            notifyEvicted(element);
+        }
+        return true;
+    }
+
+    @Override
+    public Element replace(final Element element) throws NullPointerException {
+        if(element == null || element.getObjectKey() == null) {
+            return null;
+        }
+        final Object key = element.getObjectKey();
+        final int hash = hash(key);
+        final Segment segment = segmentFor(hash);
+        final Element replaced;
+        final boolean stored;
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(key, hash);
+            if(current == null) {
+                return null;
+            }
+            replaced = toElement(current);
+            stored = map(segment, element, hash, current);
+        } finally {
+            segment.writeLock().unlock();
+        }
+        if(!stored) {
+            notifyEvicted(element);
+        }
+        return replaced;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if(status == Status.STATUS_SHUTDOWN) {
+            return;
+        }
+        status = Status.STATUS_SHUTDOWN;
+        flush();
+    }
+
+    @Override
+    public int getSize() {
+        return size.get();
+    }
+
+    @Override
+    public int getInMemorySize() {
+        return getSize();
+    }
+
+    @Override
+    public int getOffHeapSize() {
+        return 0;
+    }
+
+    @Override
+    public int getOnDiskSize() {
+        return 0;
+    }
+
+    @Override
+    public int getTerracottaClusteredSize() {
+        return 0;
+    }
+
+    @Override
+    public long getInMemorySizeInBytes() {
+        final SizeOfEngine sizeOfEngine = SizeOfEngineLoader.newSizeOfEngine(SizeOfPolicyConfiguration.resolveMaxDepth(cache),
+            SizeOfPolicyConfiguration.resolveBehavior(cache).equals(SizeOfPolicyConfiguration.MaxDepthExceededBehavior.ABORT), true);
+        long sizeInBytes = 0;
+        for (Segment segment : segments) {
+            final AtomicReferenceArray<Record> table = segment.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Record record = table.get(i); record != null; record = record.next) {
+                    sizeInBytes += sizeOfEngine.sizeOf(record.key, record.value, new Record(record, null)).getCalculated();
+                }
+            }
+        }
+        return sizeInBytes;
+    }
+
+    @Override
+    public long getOffHeapSizeInBytes() {
+        return 0;
+    }
+
+    @Override
+    public long getOnDiskSizeInBytes() {
+        return 0;
+    }
+
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final int hash = hash(key);
+        return segmentFor(hash).get(key, hash) != null;
+    }
+
+    @Override
+    public boolean containsKeyOnDisk(final Object key) {
+        return false;
+    }
+
+    @Override
+    public boolean containsKeyOffHeap(final Object key) {
+        return false;
+    }
+
+    @Override
+    public boolean containsKeyInMemory(final Object key) {
+        return containsKey(key);
+    }
+
+    @Override
+    public void expireElements() {
+        for (Segment segment : segments) {
+            final AtomicReferenceArray<Record> table = segment.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Record record = table.get(i); record != null; record = record.next) {
+                    final Element element = toElement(record);
+                    if(element != null && element.isExpired(cache.getCacheConfiguration())) {
+                        final Element expired = remove(segment, record);
+                        if(expired != null) {
+                            cache.getCacheEventNotificationService().notifyElementExpiry(expired, false);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        if(cache.getCacheConfiguration().isClearOnFlush()) {
+            removeAll();
+        }
+    }
+
+    @Override
+    public boolean bufferFull() {
+        return false;
+    }
+
+    @Override
+    public Policy getInMemoryEvictionPolicy() {
+        return POLICY;
+    }
+
+    @Override
+    public void setInMemoryEvictionPolicy(final Policy policy) {
+        throw new UnsupportedOperationException("Compact stores only evict least recently used entries");
+    }
+
+    @Override
+    public Object getInternalContext() {
+        return lockProvider;
+    }
+
+    @Override
+    public Object getMBean() {
+        return null;
+    }
+
+    /**
+     * Keeps the value of {@code element}, which the store is about to map its key, of hash {@code hash}, to.
+     * <br />
+     * This one keeps the value itself in the record.
+     *
+     * @return what the record is to hold, which {@link #toElement(Record)} will read the value from, or
+     * {@link #NOT_STORED} if the element can't be kept, in which case it is reported evicted
+     */
+    Object store(final Element element, final int hash) {
+        return element.getObjectValue();
+    }
+
+    /**
+     * Called once the record holding {@code stored}, as returned by {@link #store(Element, int)}, no longer is mapped to.
+     * Readers that found the record before may still read it.
+     */
+    void release(final Object stored) {
+        // nothing to release
+    }
+
+    /**
+     * Builds the element {@code record} holds.
+     *
+     * @return the element, or null if the value of {@code record} is gone, which only happens when it no longer is
+     * mapped to
+     */
+    Element toElement(final Record record) {
+        return record.toElement(record.value);
+    }
+
+    /**
+     * Maps the key of {@code element} to a record holding {@code stored}, without calling {@link #store(Element, int)},
+     * for subclasses restoring entries they kept elsewhere before the store was built.
+     */
+    void restore(final Element element, final Object stored) {
+        final int hash = hash(element.getObjectKey());
+        final Segment segment = segmentFor(hash);
+        segment.writeLock().lock();
+        try {
+            final Record current = segment.get(element.getObjectKey(), hash);
+            segment.put(element, stored, hash, current);
+            if(current == null) {
+                size.incrementAndGet();
+            } else {
+                release(current.value);
+            }
+        } finally {
+            segment.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts the record holding {@code stored}, if its segment's lock is free, and not held by the calling thread, which
+     * may be changing the segment. Unlike the other evictions, its
+     * listeners aren't notified, the caller is to do it with {@link #notifyEvicted(Element)}.
+     *
+     * @param hash the hash of the record's key
+     * @return the element evicted, null if there was none or the lock was taken
+     */
+    Element tryEvict(final int hash, final Object stored) {
+        final Segment segment = segmentFor(hash);
+        if(segment.isWriteLockedByCurrentThread() || !segment.writeLock().tryLock()) {
+            return null;
+        }
+        try {
+            final AtomicReferenceArray<Record> table = segment.table;
+            for (Record record = table.get(hash & (table.length() - 1)); record != null; record = record.next) {
+                if(record.value == stored) {
+                    final Element element = toElement(record);
+                    unmap(segment, record);
+                    return element;
+                }
+            }
+            return null;
+        } finally {
+            segment.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tells listeners and statistics about {@code evicted}, reported expired instead if it is.
+     */
+    void notifyEvicted(final Element evicted) {
+        if(evicted.isExpired(cache.getCacheConfiguration())) {
+            cache.getCacheEventNotificationService().notifyElementExpiry(evicted, false);
+        } else {
+            if(evictionObserver != null) {
+                evictionObserver.begin();
+                evictionObserver.end(CacheOperationOutcomes.EvictionOutcome.SUCCESS);
+            }
+            cache.getCacheEventNotificationService().notifyElementEvicted(evicted, false);
+        }
+    }
+
+    /**
+     * Maps the key of {@code element} to it, holding the lock of {@code segment}. If the element can't be stored, the
+     * key is unmapped instead.
+     *
+     * @param current the record the key is mapped to, null if it isn't
+     * @return false if the element couldn't be stored
+     */
+    private boolean map(final Segment segment, final Element element, final int hash, final Record current) {
+        final Object stored = store(element, hash);
+        if(stored == NOT_STORED) {
+            if(current != null) {
+                unmap(segment, current);
+            }
+            return false;
+        }
+        segment.put(element, stored, hash, current);
+        if(current == null) {
+            size.incrementAndGet();
+        } else {
+            release(current.value);
+        }
+        return true;
+    }
+
+    /**
+     * Unmaps {@code current}, holding the lock of {@code segment}.
+     */
+    private void unmap(final Segment segment, final Record current) {
+        segment.remove(current);
+        size.decrementAndGet();
+        release(current.value);
+    }
+
+    /**
+     * Evicts records while there are more than the cache's maxEntriesLocalHeap, at most a few per call so that no single
+     * put pays for a cache that shrank.
+     *
+     * @param justAdded the key just added, which is never evicted
+     */
+    private void checkCapacity(final Object justAdded) {
+        final long maxEntries = cache.getCacheConfiguration().getMaxEntriesLocalHeap();
+        if(maxEntries > 0) {
+            final long excess = Math.min(size.get() - maxEntries, MAX_EVICTIONS_PER_PUT);
+            for (int i = 0; i < excess && evict(justAdded); i++) {
+                // evicted one
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used record of a sample taken from a few segments. The segment of the chosen record is
+     * only tried for its lock, as the calling thread may already hold another segment's.
+     *
+     * @return false if nothing could be evicted
+     */
+    private boolean evict(final Object justAdded) {
+        final int seed = hash(justAdded) ^ (int)System.nanoTime();
+        Record victim = null;
+        Segment victimSegment = null;
+        int sampled = 0;
+        for (int s = 0; s < SEGMENTS && sampled < SAMPLE_SIZE; s++) {
+            final Segment segment = segments[(seed + s) & (SEGMENTS - 1)];
+            final AtomicReferenceArray<Record> table = segment.table;
+            final int start = seed >>> 7;
+            int sampledInSegment = 0;
+            for (int i = 0; i < table.length() && sampledInSegment < SAMPLE_SIZE_PER_SEGMENT; i++) {
+                for (Record record = table.get((start + i) & (table.length() - 1)); record != null; record = record.next) {
+                    if(record.key.equals(justAdded)) {
+                        continue;
+                    }
+                    sampledInSegment++;
+                    if(victim == null || record.lastUsed() < victim.lastUsed()) {
+                        victim = record;
+                        victimSegment = segment;
+                    }
+                }
+            }
+            sampled += sampledInSegment;
+        }
+        if(victim == null || !victimSegment.writeLock().tryLock()) {
+            return false;
+        }
+        final Element evicted;
+        try {
+            evicted = remove(victimSegment, victim);
+        } finally {
+            victimSegment.writeLock().unlock();
+        }
+        if(evicted == null) {
+            return false;
+        }
+        notifyEvicted(evicted);
+        return true;
+    }
+
+    /**
+     * Removes {@code record} from {@code segment}, unless the key got mapped to another record meanwhile.
+     *
+     * @return the element removed, null if there was none
+     */
+    private Element remove(final Segment segment, final Record record) {
+        segment.writeLock().lock();
+        try {
+            if(segment.get(record.key, record.hash) != record) {
+                return null;
+            }
+            final Element element = toElement(record);
+            unmap(segment, record);
+            return element;
+        } finally {
+            segment.writeLock().unlock();
+        }
+    }
+
+    private Segment segmentFor(final int hash) {
+        return segments[(hash >>> SEGMENT_SHIFT) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Spreads the bits of {@code key}'s hash code, as {@link java.util.concurrent.ConcurrentHashMap} does, so that both
+     * the segment, from the upper bits, and the bucket, from the lower ones, are well distributed.
+     */
+    static int hash(final Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * An entry, holding what an {@link Element} needs to be rebuilt except for its version, hit count and update time.
+     * The lifespan fields hold {@link Integer#MIN_VALUE} when not set, as {@link Element}'s do. The value field holds
+     * what {@link #store(Element, int)} returned.
+     */
+    static final class Record {
+
+        final Object key;
+        final int hash;
+        final Object value;
+        final long creationTime;
+        volatile long lastAccessTime;
+        final int timeToLive;
+        final int timeToIdle;
+        final boolean cacheDefaultLifespan;
+        final Record next;
+
+        Record(final Element element, final Object value, final int hash, final Record next) {
+            this.key = element.getObjectKey();
+            this.hash = hash;
+            this.value = value;
+            this.creationTime = element.getCreationTime();
+            this.lastAccessTime = element.getLastAccessTime();
+            this.cacheDefaultLifespan = element.usesCacheDefaultLifespan();
+            this.next = next;
+            this.timeToLive = timeToLive(element);
+            this.timeToIdle = timeToIdle(element);
+        }
+
+        Record(final Record record, final Record next) {
+            this.key = record.key;
+            this.hash = record.hash;
+            this.value = record.value;
+            this.creationTime = record.creationTime;
+            this.lastAccessTime = record.lastAccessTime;
+            this.timeToLive = record.timeToLive;
+            this.timeToIdle = record.timeToIdle;
+            this.cacheDefaultLifespan = record.cacheDefaultLifespan;
+            this.next = next;
+        }
+
+        static int timeToLive(final Element element) {
+            return element.isLifespanSet() ? element.getTimeToLive() : Integer.MIN_VALUE;
+        }
+
+        static int timeToIdle(final Element element) {
+            if(!element.isLifespanSet()) {
+                return Integer.MIN_VALUE;
+            }
+            if(!element.isEternal() && element.getTimeToLive() == 0 && element.getTimeToIdle() == 0) {
+                // one of them is set to 0, the other isn't set
+                return Integer.MIN_VALUE;
+            }
+            return element.getTimeToIdle();
+        }
+
+        long lastUsed() {
+            return Math.max(creationTime, lastAccessTime);
+        }
+
+        Element toElement(final Object value) {
+            return new Element(key, value, 1L, creationTime, lastAccessTime, 0L, cacheDefaultLifespan, timeToLive,
+                timeToIdle, creationTime);
+        }
+    }
+
+    /**
+     * A hash table of records, whose chains are never changed but replaced, so that they can be walked without locking.
+     * Writes hold the write lock.
+     */
+    private static final class Segment extends ReentrantReadWriteLock {
+
+        final Sync sync = new ReadWriteLockSync(this);
+        volatile AtomicReferenceArray<Record> table = new AtomicReferenceArray<Record>(INITIAL_SEGMENT_CAPACITY);
+        private int count;
+
+        Record get(final Object key, final int hash) {
+            final AtomicReferenceArray<Record> tab = table;
+            for (Record record = tab.get(hash & (tab.length() - 1)); record != null; record = record.next) {
+                if(record.hash == hash && (record.key == key || record.key.equals(key))) {
+                    return record;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Maps the key of {@code element} to it, the record holding {@code value} for its value.
+         *
+         * @param current the record the key is mapped to, null if it isn't
+         */
+        void put(final Element element, final Object value, final int hash, final Record current) {
+            if(current != null) {
+                replace(current, new Record(element, value, hash, current.next));
+                return;
+            }
+            if(++count > table.length() - (table.length() >>> 2)) {
+                resize();
+            }
+            final AtomicReferenceArray<Record> tab = table;
+            final int index = hash & (tab.length() - 1);
+            tab.set(index, new Record(element, value, hash, tab.get(index)));
+        }
+
+        void remove(final Record current) {
+            count--;
+            replace(current, current.next);
+        }
+
+        /**
+         * @return how many records were removed
+         */
+        int clear() {
+            final int removed = count;
+            table = new AtomicReferenceArray<Record>(INITIAL_SEGMENT_CAPACITY);
+            count = 0;
+            return removed;
+        }
+
+        /**
+         * Replaces {@code current} and the records ahead of it in its chain, copying the latter ahead of
+         * {@code replacement}.
+         */
+        private void replace(final Record current, final Record replacement) {
+            final AtomicReferenceArray<Record> tab = table;
+            final int index = current.hash & (tab.length() - 1);
+            Record head = replacement;
+            for (Record record = tab.get(index); record != current; record = record.next) {
+                head = new Record(record, head);
+            }
+            tab.set(index, head);
+        }
+
+        private void resize() {
+            final AtomicReferenceArray<Record> tab = table;
+            final AtomicReferenceArray<Record> resized = new AtomicReferenceArray<Record>(tab.length() << 1);
+            for (int i = 0; i < tab.length(); i++) {
+                for (Record record = tab.get(i); record != null; record = record.next) {
+                    final int index = record.hash & (resized.length() - 1);
+                    resized.set(index, new Record(record, resized.get(index)));
+                }
+            }
+            table = resized;
+        }
+    }
+
+    /**
+     * Walks the chains of each segment's table as they were when reaching the segment.
+     */
+    private final class KeyIterator implements Iterator<Object> {
+
+        private int segment = -1;
+        private AtomicReferenceArray<Record> table;
+        private int index;
+        private Record next;
+
+        KeyIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            final Object key = next.key;
+            advance();
+            return key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            if(next != null) {
+                next = next.next;
+            }
+            while(next == null) {
+                if(table == null || index == table.length()) {
+                    if(++segment == SEGMENTS) {
+                        return;
+                    }
+                    table = segments[segment].table;
+                    index = 0;
+                } else {
+                    next = table.get(index++);
+                }
+            }
+        }
+    }
+}
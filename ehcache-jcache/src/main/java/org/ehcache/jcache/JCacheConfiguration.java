@@ -58,6 +58,32 @@ public class JCacheConfiguration<K, V> implements javax.cache.configuration.Comp
 
     private boolean statisticsEnabled;
     private boolean managementEnabled;
+    private boolean lockFreeMutations;
+    private int loadAllChunkSize;
+    private int loaderThreads;
+    private boolean parallelInvokeAll;
+    private int writeBatchSize;
+    private boolean quietIteration;
+    private JCacheSerializer<K> keySerializer;
+    private JCacheSerializer<V> valueSerializer;
+    private boolean storeSerializedValues;
+    private JCacheCopier<K> keyCopier;
+    private JCacheCopier<V> valueCopier;
+    private int valueCompressionThreshold;
+    private JCacheStoreEngine storeEngine;
+    private long maxBytesOffHeap;
+    private boolean journaled;
+    private int journalSegmentSize;
+    private int loaderQueueSize = JCacheLoaderExecutor.DEFAULT_QUEUE_SIZE;
+    private int loadBatchSize;
+    private int loadBatchWindowMicros;
+    private float refreshAheadFactor;
+    private int staleWhileRevalidateSeconds;
+    private float expiryJitter;
+    private long negativeCacheTimeToLiveMillis;
+    private int negativeCacheSize;
+    private int bloomFilterExpectedEntries;
+    private double bloomFilterFalsePositiveRate;
 
     public JCacheConfiguration(final CacheConfiguration cacheConfiguration, final Configuration<K, V> configuration, final Class<K> keyType, final Class<V> valueType) {
         this.keyType = keyType;
@@ -123,6 +149,35 @@ public class JCacheConfiguration<K, V> implements javax.cache.configuration.Comp
                 initialCacheEntryListenerConfigurations = new HashSet<CacheEntryListenerConfiguration<K, V>>();
             }
         }
+        if (configuration instanceof JCacheConfiguration) {
+            final JCacheConfiguration<K, V> other = (JCacheConfiguration<K, V>) configuration;
+            lockFreeMutations = other.lockFreeMutations;
+            loadAllChunkSize = other.loadAllChunkSize;
+            loaderThreads = other.loaderThreads;
+            loaderQueueSize = other.loaderQueueSize;
+            loadBatchSize = other.loadBatchSize;
+            loadBatchWindowMicros = other.loadBatchWindowMicros;
+            refreshAheadFactor = other.refreshAheadFactor;
+            staleWhileRevalidateSeconds = other.staleWhileRevalidateSeconds;
+            expiryJitter = other.expiryJitter;
+            negativeCacheTimeToLiveMillis = other.negativeCacheTimeToLiveMillis;
+            negativeCacheSize = other.negativeCacheSize;
+            bloomFilterExpectedEntries = other.bloomFilterExpectedEntries;
+            bloomFilterFalsePositiveRate = other.bloomFilterFalsePositiveRate;
+            parallelInvokeAll = other.parallelInvokeAll;
+            writeBatchSize = other.writeBatchSize;
+            quietIteration = other.quietIteration;
+            keySerializer = other.keySerializer;
+            valueSerializer = other.valueSerializer;
+            storeSerializedValues = other.storeSerializedValues;
+            keyCopier = other.keyCopier;
+            valueCopier = other.valueCopier;
+            valueCompressionThreshold = other.valueCompressionThreshold;
+            storeEngine = other.storeEngine;
+            maxBytesOffHeap = other.maxBytesOffHeap;
+            journaled = other.journaled;
+            journalSegmentSize = other.journalSegmentSize;
+        }
     }
 
     public JCacheConfiguration(final CacheConfiguration cacheConfiguration) {
@@ -215,4 +270,513 @@ public class JCacheConfiguration<K, V> implements javax.cache.configuration.Comp
     public boolean overrideDefaultExpiry() {
         return useJCacheExpiry;
     }
+
+    public boolean isLockFreeMutations() {
+        return lockFreeMutations && !writeThrough;
+    }
+
+    /**
+     * Lets mutations of caches that are not write-through use Ehcache's atomic
+     * {@code putIfAbsent}/{@code replace}/{@code removeElement} operations instead of taking the key's write lock.
+     * Ignored for write-through caches. Journaled caches can't mutate lock-free, as their journal then could record
+     * racing mutations of a key in another order than they got applied.
+     *
+     * @param lockFreeMutations whether to use compare-and-swap mutations
+     * @return this configuration
+     * @throws IllegalArgumentException if the cache is journaled
+     */
+    public JCacheConfiguration<K, V> setLockFreeMutations(final boolean lockFreeMutations) {
+        if (lockFreeMutations && journaled) {
+            throw new IllegalArgumentException("A journaled cache can't use lock-free mutations");
+        }
+        this.lockFreeMutations = lockFreeMutations;
+        return this;
+    }
+
+    public int getLoadAllChunkSize() {
+        return loadAllChunkSize;
+    }
+
+    /**
+     * Caps how many keys a single {@link CacheLoader#loadAll(Iterable)} call made by a read-through
+     * {@link javax.cache.Cache#getAll(Set)} is passed. Misses beyond that are loaded in further calls.
+     *
+     * @param loadAllChunkSize the maximum keys per call, 0 (the default) for no limit
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setLoadAllChunkSize(final int loadAllChunkSize) {
+        if (loadAllChunkSize < 0) {
+            throw new IllegalArgumentException("loadAllChunkSize can't be negative: " + loadAllChunkSize);
+        }
+        this.loadAllChunkSize = loadAllChunkSize;
+        return this;
+    }
+
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /**
+     * Gives this cache its own pool of {@code loaderThreads} threads to run its {@link CacheLoader} on, rather than
+     * sharing the one of its {@link javax.cache.CacheManager}.
+     *
+     * @param loaderThreads the pool's size, 0 (the default) to use the cache manager's pool
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setLoaderThreads(final int loaderThreads) {
+        if (loaderThreads < 0) {
+            throw new IllegalArgumentException("loaderThreads can't be negative: " + loaderThreads);
+        }
+        this.loaderThreads = loaderThreads;
+        return this;
+    }
+
+    public int getLoaderQueueSize() {
+        return loaderQueueSize;
+    }
+
+    /**
+     * Bounds how many load tasks wait for a thread of this cache's own loader pool. Once full, the thread submitting
+     * more runs them itself.
+     *
+     * @param loaderQueueSize the queue's capacity
+     * @return this configuration
+     * @see #setLoaderThreads(int)
+     */
+    public JCacheConfiguration<K, V> setLoaderQueueSize(final int loaderQueueSize) {
+        if (loaderQueueSize < 1) {
+            throw new IllegalArgumentException("loaderQueueSize needs to be positive: " + loaderQueueSize);
+        }
+        this.loaderQueueSize = loaderQueueSize;
+        return this;
+    }
+
+    public int getLoadBatchSize() {
+        return loadBatchSize;
+    }
+
+    /**
+     * Coalesces the read-through misses of concurrent {@link JCache#get(Object)} calls on different keys into
+     * {@link CacheLoader#loadAll(Iterable)} calls of up to {@code loadBatchSize} keys. A miss is loaded right away while
+     * no other batch loads; otherwise it waits for more, until that load is done or for up to
+     * {@link #getLoadBatchWindowMicros()}, before its batch is loaded. Each caller then gets the value of its own key.
+     * <br />
+     * Loads triggered by entry processors aren't batched.
+     *
+     * @param loadBatchSize the most keys loaded at once, 0 (the default) or 1 to load each miss on its own
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setLoadBatchSize(final int loadBatchSize) {
+        if (loadBatchSize < 0) {
+            throw new IllegalArgumentException("loadBatchSize can't be negative: " + loadBatchSize);
+        }
+        this.loadBatchSize = loadBatchSize;
+        return this;
+    }
+
+    public int getLoadBatchWindowMicros() {
+        return loadBatchWindowMicros;
+    }
+
+    /**
+     * Sets how long the first miss of a batch waits at most for others to join it while another batch loads, unless the
+     * batch fills up before.
+     *
+     * @param loadBatchWindowMicros the wait in microseconds, 0 for 1 millisecond
+     * @return this configuration
+     * @see #setLoadBatchSize(int)
+     */
+    public JCacheConfiguration<K, V> setLoadBatchWindowMicros(final int loadBatchWindowMicros) {
+        if (loadBatchWindowMicros < 0) {
+            throw new IllegalArgumentException("loadBatchWindowMicros can't be negative: " + loadBatchWindowMicros);
+        }
+        this.loadBatchWindowMicros = loadBatchWindowMicros;
+        return this;
+    }
+
+    public float getRefreshAheadFactor() {
+        return refreshAheadFactor;
+    }
+
+    /**
+     * Has {@link JCache#get(Object)} reload an entry of a read-through cache in the background once it lived for this
+     * fraction of its time to live, the current value being served meanwhile. Hot entries then get refreshed before
+     * they expire, rather than having their next reader wait on the {@link CacheLoader}.
+     *
+     * @param refreshAheadFactor the fraction of the time to live, 0 (the default) not to refresh ahead
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setRefreshAheadFactor(final float refreshAheadFactor) {
+        if (!(refreshAheadFactor >= 0 && refreshAheadFactor < 1)) {
+            throw new IllegalArgumentException("refreshAheadFactor needs to be at least 0 and less than 1: " + refreshAheadFactor);
+        }
+        this.refreshAheadFactor = refreshAheadFactor;
+        return this;
+    }
+
+    public int getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    /**
+     * Keeps the expired entries of a read-through cache for a grace period, during which {@link JCache#get(Object)}
+     * still returns their stale value while reloading them in the background.
+     * <br />
+     * Stale entries are kept apart from the cache: other operations, and the statistics of gets, see them as expired.
+     *
+     * @param staleWhileRevalidateSeconds the grace period in seconds, 0 (the default) for none
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setStaleWhileRevalidateSeconds(final int staleWhileRevalidateSeconds) {
+        if (staleWhileRevalidateSeconds < 0) {
+            throw new IllegalArgumentException("staleWhileRevalidateSeconds can't be negative: " + staleWhileRevalidateSeconds);
+        }
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+        return this;
+    }
+
+    public float getExpiryJitter() {
+        return expiryJitter;
+    }
+
+    /**
+     * Shortens the time to live the {@link javax.cache.expiry.ExpiryPolicy} gives each entry by a random part of up to
+     * this fraction, so that entries put at once, as by {@link JCache#loadAll(java.util.Set, boolean, javax.cache.integration.CompletionListener)},
+     * don't all expire at once either.
+     *
+     * @param expiryJitter the largest fraction of the time to live taken off, 0 (the default) for none
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setExpiryJitter(final float expiryJitter) {
+        if (!(expiryJitter >= 0 && expiryJitter < 1)) {
+            throw new IllegalArgumentException("expiryJitter needs to be at least 0 and less than 1: " + expiryJitter);
+        }
+        this.expiryJitter = expiryJitter;
+        return this;
+    }
+
+    public long getNegativeCacheTimeToLiveMillis() {
+        return negativeCacheTimeToLiveMillis;
+    }
+
+    /**
+     * Has a read-through cache remember the keys its {@link CacheLoader} had no value for, so that {@link JCache#get(Object)},
+     * {@link JCache#getAll(java.util.Set)} and {@link JCache#invoke(Object, javax.cache.processor.EntryProcessor, Object...)}
+     * don't load them again for a while. Such keys are held apart from the entries of the cache, and forgotten once
+     * the cache maps them.
+     * <br />
+     * Lookups answered this way are reported as negative hits by {@link ExtendedCacheStatisticsMXBean}, and remain
+     * misses for the standard statistics.
+     *
+     * @param negativeCacheTimeToLiveMillis how long keys are remembered, 0 (the default) not to remember them
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setNegativeCacheTimeToLiveMillis(final long negativeCacheTimeToLiveMillis) {
+        if (negativeCacheTimeToLiveMillis < 0) {
+            throw new IllegalArgumentException("negativeCacheTimeToLiveMillis can't be negative: " + negativeCacheTimeToLiveMillis);
+        }
+        this.negativeCacheTimeToLiveMillis = negativeCacheTimeToLiveMillis;
+        return this;
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    /**
+     * Bounds how many keys without a value are remembered, the oldest ones being forgotten first.
+     *
+     * @param negativeCacheSize the most keys remembered, 0 for 10000
+     * @return this configuration
+     * @see #setNegativeCacheTimeToLiveMillis(long)
+     */
+    public JCacheConfiguration<K, V> setNegativeCacheSize(final int negativeCacheSize) {
+        if (negativeCacheSize < 0) {
+            throw new IllegalArgumentException("negativeCacheSize can't be negative: " + negativeCacheSize);
+        }
+        this.negativeCacheSize = negativeCacheSize;
+        return this;
+    }
+
+    public int getBloomFilterExpectedEntries() {
+        return bloomFilterExpectedEntries;
+    }
+
+    /**
+     * Gives the cache a counting Bloom filter of its keys, sized for {@code bloomFilterExpectedEntries}, which
+     * {@link JCache#get(Object)} checks first: keys the filter doesn't know are missing without the store being looked
+     * up. If the cache is read-through, and its {@link CacheLoader} a {@link JCacheKeyUniverse}, keys the loader
+     * doesn't have either are missing without the loader being called.
+     * <br />
+     * How large and accurate the filter is, and how many lookups it answered, is reported by
+     * {@link CacheBloomFilterStatisticsMXBean}.
+     *
+     * @param bloomFilterExpectedEntries the number of keys the filter is sized for, 0 (the default) for no filter
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setBloomFilterExpectedEntries(final int bloomFilterExpectedEntries) {
+        if (bloomFilterExpectedEntries < 0) {
+            throw new IllegalArgumentException("bloomFilterExpectedEntries can't be negative: " + bloomFilterExpectedEntries);
+        }
+        this.bloomFilterExpectedEntries = bloomFilterExpectedEntries;
+        return this;
+    }
+
+    public double getBloomFilterFalsePositiveRate() {
+        return bloomFilterFalsePositiveRate;
+    }
+
+    /**
+     * Sets the rate at which the Bloom filter of the cache mistakes missing keys for present ones, once it holds its
+     * expected entries. Lower rates take more memory.
+     *
+     * @param bloomFilterFalsePositiveRate the rate, 0 for 1%
+     * @return this configuration
+     * @see #setBloomFilterExpectedEntries(int)
+     */
+    public JCacheConfiguration<K, V> setBloomFilterFalsePositiveRate(final double bloomFilterFalsePositiveRate) {
+        if (!(bloomFilterFalsePositiveRate >= 0 && bloomFilterFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException("bloomFilterFalsePositiveRate needs to be at least 0 and less than 1: " + bloomFilterFalsePositiveRate);
+        }
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+        return this;
+    }
+
+    public boolean isParallelInvokeAll() {
+        return parallelInvokeAll;
+    }
+
+    /**
+     * Has {@link javax.cache.Cache#invokeAll(Set, javax.cache.processor.EntryProcessor, Object...)} group its keys by
+     * lock stripe and process the groups concurrently on the cache's loader pool. Each entry is still processed
+     * atomically, but entries are no longer processed in the set's iteration order.
+     *
+     * @param parallelInvokeAll true to process invokeAll keys concurrently
+     * @return this configuration
+     * @see #setLoaderThreads(int)
+     */
+    public JCacheConfiguration<K, V> setParallelInvokeAll(final boolean parallelInvokeAll) {
+        this.parallelInvokeAll = parallelInvokeAll;
+        return this;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Has removeAll and invokeAll hand their write-through work to the {@link CacheWriter} as
+     * {@link CacheWriter#writeAll(java.util.Collection)} and {@link CacheWriter#deleteAll(java.util.Collection)} calls
+     * of up to {@code writeBatchSize} keys, rather than one call per key. The keys the writer reports as failed get
+     * their previous mapping back.
+     *
+     * @param writeBatchSize the maximum keys per writer call, 0 (the default) for one call per key
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setWriteBatchSize(final int writeBatchSize) {
+        if (writeBatchSize < 0) {
+            throw new IllegalArgumentException("writeBatchSize can't be negative: " + writeBatchSize);
+        }
+        this.writeBatchSize = writeBatchSize;
+        return this;
+    }
+
+    public boolean isQuietIteration() {
+        return quietIteration;
+    }
+
+    /**
+     * Has the cache's iterator walk the store in small chunks of quiet reads. Iterating then neither counts as an
+     * access of the entries, so eviction order, statistics and access expiry are left alone, nor copies all the keys
+     * of the cache up front.
+     *
+     * @param quietIteration true for quiet iteration
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setQuietIteration(final boolean quietIteration) {
+        this.quietIteration = quietIteration;
+        return this;
+    }
+
+    public JCacheSerializer<K> getKeySerializer() {
+        return keySerializer;
+    }
+
+    /**
+     * Sets how a store-by-value cache copies its keys, rather than with {@link JCacheSerializers#DEFAULT}.
+     *
+     * @param keySerializer the serializer for keys, null for the default one
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setKeySerializer(final JCacheSerializer<K> keySerializer) {
+        this.keySerializer = keySerializer;
+        return this;
+    }
+
+    public JCacheSerializer<V> getValueSerializer() {
+        return valueSerializer;
+    }
+
+    /**
+     * Sets how a store-by-value cache copies its values, rather than with {@link JCacheSerializers#DEFAULT}.
+     *
+     * @param valueSerializer the serializer for values, null for the default one
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setValueSerializer(final JCacheSerializer<V> valueSerializer) {
+        this.valueSerializer = valueSerializer;
+        return this;
+    }
+
+    public boolean isStoreSerializedValues() {
+        return storeSerializedValues;
+    }
+
+    /**
+     * Has a store-by-value cache keep its values in their serialized form, deserializing them only when read. Writes
+     * then serialize a value once, reads deserialize it once, and {@link javax.cache.Cache#replace(Object, Object, Object)}
+     * and {@link javax.cache.Cache#remove(Object, Object)} compare serialized forms rather than calling {@code equals}.
+     * <br />
+     * The value serializer must therefore serialize equal values to the same bytes. Keys are still copied as objects, and
+     * values that aren't serialized to be copied, being immutable or having a copier, are kept as they are.
+     *
+     * @param storeSerializedValues true to store values serialized
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setStoreSerializedValues(final boolean storeSerializedValues) {
+        this.storeSerializedValues = storeSerializedValues;
+        return this;
+    }
+
+    public JCacheCopier<K> getKeyCopier() {
+        return keyCopier;
+    }
+
+    /**
+     * Has a store-by-value cache copy its keys with {@code keyCopier} rather than by serializing them. Keys of the
+     * types {@link JCacheCopiers#isImmutable(Object)} knows are never copied.
+     *
+     * @param keyCopier the copier for keys, null to serialize them
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setKeyCopier(final JCacheCopier<K> keyCopier) {
+        this.keyCopier = keyCopier;
+        return this;
+    }
+
+    public JCacheCopier<V> getValueCopier() {
+        return valueCopier;
+    }
+
+    /**
+     * Has a store-by-value cache copy its values with {@code valueCopier} rather than by serializing them. Values of
+     * the types {@link JCacheCopiers#isImmutable(Object)} knows are never copied.
+     *
+     * @param valueCopier the copier for values, null to serialize them
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setValueCopier(final JCacheCopier<V> valueCopier) {
+        this.valueCopier = valueCopier;
+        return this;
+    }
+
+    public int getValueCompressionThreshold() {
+        return valueCompressionThreshold;
+    }
+
+    /**
+     * Has a store-by-value cache deflate the serialized form of values of at least {@code valueCompressionThreshold}
+     * bytes, and inflate them on read. Values then are stored serialized, as with {@link #setStoreSerializedValues(boolean)}.
+     * <br />
+     * How well values compress and what it costs are reported by {@link ExtendedCacheStatisticsMXBean}.
+     *
+     * @param valueCompressionThreshold the size in bytes from which values are compressed, 0 not to compress them
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setValueCompressionThreshold(final int valueCompressionThreshold) {
+        if (valueCompressionThreshold < 0) {
+            throw new IllegalArgumentException("valueCompressionThreshold can't be negative: " + valueCompressionThreshold);
+        }
+        this.valueCompressionThreshold = valueCompressionThreshold;
+        return this;
+    }
+
+    public JCacheStoreEngine getStoreEngine() {
+        return storeEngine;
+    }
+
+    /**
+     * Sets the store holding the entries of the cache, rather than the one of its manager's
+     * {@link JCacheManager#STORE_ENGINE_PROPERTY} property.
+     *
+     * @param storeEngine the store engine, null for the manager's
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setStoreEngine(final JCacheStoreEngine storeEngine) {
+        this.storeEngine = storeEngine;
+        return this;
+    }
+
+    public long getMaxBytesOffHeap() {
+        return maxBytesOffHeap;
+    }
+
+    /**
+     * Sets how much direct memory a cache of the {@link JCacheStoreEngine#OFF_HEAP} store engine may keep its values in.
+     * The memory is allocated as the values need it, a slab at a time.
+     *
+     * @param maxBytesOffHeap the budget in bytes, 0 for 64 MB
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setMaxBytesOffHeap(final long maxBytesOffHeap) {
+        if (maxBytesOffHeap < 0) {
+            throw new IllegalArgumentException("maxBytesOffHeap can't be negative: " + maxBytesOffHeap);
+        }
+        this.maxBytesOffHeap = maxBytesOffHeap;
+        return this;
+    }
+
+    public boolean isJournaled() {
+        return journaled;
+    }
+
+    /**
+     * Has the cache append its mutations to a journal in its manager's {@link JCacheManager#PERSISTENCE_DIRECTORY_PROPERTY}
+     * directory, replayed on top of its latest checkpoint when the cache gets created again, as after a restart.
+     * Mutations are made durable in groups, every few milliseconds, rather than one by one.
+     * <br />
+     * What journaling costs writes is reported by {@link CacheJournalStatisticsMXBean}. Journaled caches can't use
+     * {@link #setLockFreeMutations(boolean)}.
+     *
+     * @param journaled true to journal the mutations of the cache
+     * @return this configuration
+     * @throws IllegalArgumentException if the cache uses lock-free mutations
+     * @see JCache#checkpoint()
+     */
+    public JCacheConfiguration<K, V> setJournaled(final boolean journaled) {
+        if (journaled && lockFreeMutations) {
+            throw new IllegalArgumentException("A journaled cache can't use lock-free mutations");
+        }
+        this.journaled = journaled;
+        return this;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * Sets the size of the files the journal of the cache is mapped from, a checkpoint being taken once a few of them
+     * filled up.
+     *
+     * @param journalSegmentSize the size in bytes, 0 for 16 MB
+     * @return this configuration
+     */
+    public JCacheConfiguration<K, V> setJournalSegmentSize(final int journalSegmentSize) {
+        if (journalSegmentSize < 0) {
+            throw new IllegalArgumentException("journalSegmentSize can't be negative: " + journalSegmentSize);
+        }
+        this.journalSegmentSize = journalSegmentSize;
+        return this;
+    }
 }
@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Copies keys or values of a store-by-value cache, for types that can be copied more cheaply than by serializing them,
+ * with a copy constructor or {@code clone()} say. Set one with {@link JCacheConfiguration#setKeyCopier(JCacheCopier)}
+ * or {@link JCacheConfiguration#setValueCopier(JCacheCopier)}; the cache's {@link JCacheSerializer} is used otherwise.
+ * <br />
+ * Instances of the types {@link JCacheCopiers#isImmutable(Object)} knows aren't copied at all. Implementations are
+ * shared by all threads using the cache, so need to be thread-safe.
+ *
+ * @param <T> the type of objects copied
+ */
+public interface JCacheCopier<T> {
+
+    /**
+     * @param object the object to copy, never null
+     * @return a copy of it, sharing no mutable state with it
+     */
+    T copy(T object);
+}
@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The copiers shipped with this implementation, and the types store-by-value caches know not to copy.
+ */
+public final class JCacheCopiers {
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>();
+
+    static {
+        IMMUTABLE_TYPES.add(String.class);
+        IMMUTABLE_TYPES.add(Boolean.class);
+        IMMUTABLE_TYPES.add(Byte.class);
+        IMMUTABLE_TYPES.add(Character.class);
+        IMMUTABLE_TYPES.add(Short.class);
+        IMMUTABLE_TYPES.add(Integer.class);
+        IMMUTABLE_TYPES.add(Long.class);
+        IMMUTABLE_TYPES.add(Float.class);
+        IMMUTABLE_TYPES.add(Double.class);
+        IMMUTABLE_TYPES.add(BigInteger.class);
+        IMMUTABLE_TYPES.add(BigDecimal.class);
+        IMMUTABLE_TYPES.add(UUID.class);
+        IMMUTABLE_TYPES.add(Locale.class);
+        IMMUTABLE_TYPES.add(URI.class);
+    }
+
+    /**
+     * Hands back the object itself, for types the application knows to be immutable.
+     */
+    public static final JCacheCopier<Object> IDENTITY = new JCacheCopier<Object>() {
+        @Override
+        public Object copy(final Object object) {
+            return object;
+        }
+    };
+
+    private JCacheCopiers() {
+    }
+
+    /**
+     * Whether {@code object} is of a type known to be immutable: strings, boxed primitives, {@link BigInteger}s and
+     * {@link BigDecimal}s (but not subclasses of these), {@link UUID}s, {@link Locale}s, {@link URI}s, enums and the
+     * {@code java.time} types.
+     *
+     * @param object the object
+     * @return true if copying it is pointless
+     */
+    public static boolean isImmutable(final Object object) {
+        final Class<?> type = object.getClass();
+        return IMMUTABLE_TYPES.contains(type)
+               || object instanceof Enum
+               || type.getClassLoader() == null && type.getName().startsWith("java.time.");
+    }
+}
@@ -20,13 +20,12 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.store.compound.ReadWriteCopyStrategy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * This class provides a copy strategy that is compatible with JSR107's requirement that
@@ -47,6 +46,60 @@ import java.io.ObjectStreamClass;
  */
 class JCacheCopyOnWriteStrategy implements ReadWriteCopyStrategy<Element> {
 
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final JCacheSerializer<Object> keySerializer;
+    private final JCacheSerializer<Object> valueSerializer;
+    private final JCacheCopier<Object> keyCopier;
+    private final JCacheCopier<Object> valueCopier;
+    private final boolean serializedValues;
+    private final int compressionThreshold;
+    private final AtomicLong compressions = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong decompressions = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+    private final ThreadLocal<Object> handedOver = new ThreadLocal<Object>();
+
+    JCacheCopyOnWriteStrategy(final JCacheSerializer<?> keySerializer, final JCacheSerializer<?> valueSerializer) {
+        this(keySerializer, valueSerializer, null, null, false, 0);
+    }
+
+    /**
+     * @param keyCopier copies keys, null to copy them with {@code keySerializer}
+     * @param valueCopier copies values, null to copy them with {@code valueSerializer}
+     * @param serializedValues true to store values as {@link JCacheSerializedValue}s, deserialized on read only
+     * @param compressionThreshold the size from which serialized values are deflated, 0 not to; implies
+     *                             {@code serializedValues} when set
+     */
+    JCacheCopyOnWriteStrategy(final JCacheSerializer<?> keySerializer, final JCacheSerializer<?> valueSerializer,
+                              final JCacheCopier<?> keyCopier, final JCacheCopier<?> valueCopier,
+                              final boolean serializedValues, final int compressionThreshold) {
+        this.keySerializer = (JCacheSerializer<Object>)keySerializer;
+        this.valueSerializer = (JCacheSerializer<Object>)valueSerializer;
+        this.keyCopier = (JCacheCopier<Object>)keyCopier;
+        this.valueCopier = (JCacheCopier<Object>)valueCopier;
+        this.serializedValues = serializedValues || compressionThreshold > 0;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    boolean isSerializedValues() {
+        return serializedValues;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -57,38 +110,20 @@ class JCacheCopyOnWriteStrategy implements ReadWriteCopyStrategy<Element> {
         if (value == null) {
             return null;
         } else {
-            Object elementValue = value.getObjectValue();
-            Object elementKey = value.getObjectKey();
-
-            Object newKey = toObject(toByteArray(elementKey), classLoader);
-            Object serializedValue = toObject(toByteArray(elementValue), classLoader);
+            Object newKey = copy(keyCopier, keySerializer, value.getObjectKey(), classLoader);
+            Object serializedValue;
+            if (serializedValues) {
+                serializedValue = serialize(value.getObjectValue());
+            } else if (value.getObjectValue() != null && value.getObjectValue() == handedOver.get()) {
+                serializedValue = value.getObjectValue();
+            } else {
+                serializedValue = copy(valueCopier, valueSerializer, value.getObjectValue(), classLoader);
+            }
 
             return duplicateElementWithNewValue(value, newKey, serializedValue);
         }
     }
 
-    byte[] toByteArray(Object elementValue) {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        ObjectOutputStream oos = null;
-
-        try {
-            oos = new ObjectOutputStream(bout);
-            oos.writeObject(elementValue);
-        } catch (Exception e) {
-            throw new CacheException("When configured copyOnRead or copyOnWrite, a Store will only accept Serializable values", e);
-        } finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                }
-            } catch (Exception e) {
-                //
-            }
-        }
-        return bout.toByteArray();
-    }
-
-
     /**
      * {@inheritDoc}
      *
@@ -99,34 +134,196 @@ class JCacheCopyOnWriteStrategy implements ReadWriteCopyStrategy<Element> {
         if (storedValue == null) {
             return null;
         } else {
-            Object newKey = toObject(toByteArray(storedValue.getObjectKey()), classLoader);
-            Object deserializedValue = toObject(toByteArray(storedValue.getObjectValue()), classLoader);
+            Object newKey = copy(keyCopier, keySerializer, storedValue.getObjectKey(), classLoader);
+            Object deserializedValue = storedValue.getObjectValue() instanceof JCacheSerializedValue
+                ? readValue(storedValue.getObjectValue(), classLoader)
+                : copy(valueCopier, valueSerializer, storedValue.getObjectValue(), classLoader);
             return duplicateElementWithNewValue(storedValue, newKey, deserializedValue);
         }
     }
 
-    Object toObject(byte[] bytes, ClassLoader loader) {
-        if (bytes == null) {
-            return null;
+    /**
+     * Has this thread's writes store {@code value} itself rather than a copy, until {@link #handedOver()}. The caller
+     * gives the value up, and nothing else holds on to it.
+     */
+    void handOver(final Object value) {
+        handedOver.set(value);
+    }
+
+    void handedOver() {
+        handedOver.remove();
+    }
+
+    /**
+     * A read-only view of a {@code byte[]} value as held by the store, sharing its bytes when they are stored as they
+     * are, or as serialized by {@link JCacheSerializers#DEFAULT} and not compressed.
+     *
+     * @param storedValue the value of a stored element
+     * @param classLoader the loader to resolve classes with
+     * @return the view
+     * @throws ClassCastException if the value isn't a {@code byte[]}
+     */
+    ByteBuffer byteView(final Object storedValue, final ClassLoader classLoader) {
+        if (storedValue instanceof JCacheSerializedValue && !(storedValue instanceof JCacheCompressedValue)
+            && valueSerializer == JCacheSerializers.DEFAULT) {
+            final ByteBuffer view = JCacheSerializers.bytesView(((JCacheSerializedValue)storedValue).getBytes());
+            if (view != null) {
+                return view;
+            }
+        }
+        return ByteBuffer.wrap((byte[])readValue(storedValue, classLoader)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Turns a value as held by the store back into the value it stands for.
+     *
+     * @param storedValue the value of a stored element
+     * @param classLoader the loader to resolve classes with
+     * @return the deserialized value, or {@code storedValue} if it isn't serialized
+     */
+    Object readValue(final Object storedValue, final ClassLoader classLoader) {
+        if (storedValue instanceof JCacheSerializedValue) {
+            return valueSerializer.deserialize(bytesOf((JCacheSerializedValue)storedValue), classLoader);
+        }
+        return storedValue;
+    }
+
+    /**
+     * Serializes a value as held by the store, without going through its deserialized form when it is stored
+     * serialized.
+     *
+     * @param storedValue the value of a stored element
+     * @return the bytes {@code valueSerializer} serializes the value it stands for to
+     */
+    byte[] serializeValue(final Object storedValue) {
+        if (storedValue instanceof JCacheSerializedValue) {
+            return bytesOf((JCacheSerializedValue)storedValue);
+        }
+        return valueSerializer.serialize(storedValue);
+    }
+
+    /**
+     * Whether a value as held by the store is the serialized form of {@code value}, comparing bytes.
+     *
+     * @param storedValue the value of a stored element
+     * @param value the value to compare it with
+     * @return true if {@code value} serializes to {@code storedValue}
+     */
+    boolean matches(final Object storedValue, final Object value) {
+        if (storedValue instanceof JCacheCompressedValue) {
+            final byte[] bytes = value == null ? null : valueSerializer.serialize(value);
+            return bytes != null && bytes.length == ((JCacheCompressedValue)storedValue).getLength()
+                   && Arrays.equals(bytesOf((JCacheSerializedValue)storedValue), bytes);
         }
-        ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-        ObjectInputStream ois = null;
-        Object deserializedElement;
+        if (storedValue instanceof JCacheSerializedValue) {
+            return value != null && ((JCacheSerializedValue)storedValue).matches(valueSerializer.serialize(value));
+        }
+        return storedValue == null ? value == null : storedValue.equals(value);
+    }
+
+    /**
+     * Values that needn't be copied, or have a copier, are stored as they are; only the others are serialized.
+     */
+    private Object serialize(final Object value) {
+        if (value == null || value instanceof JCacheSerializedValue || JCacheCopiers.isImmutable(value)) {
+            return value;
+        }
+        if (valueCopier != null) {
+            return valueCopier.copy(value);
+        }
+        final byte[] bytes = valueSerializer.serialize(value);
+        if (compressionThreshold > 0 && bytes.length >= compressionThreshold) {
+            return compress(bytes);
+        }
+        return new JCacheSerializedValue(bytes);
+    }
+
+    /**
+     * Deflates {@code bytes}, keeping them as they are if that doesn't make them smaller.
+     */
+    private JCacheSerializedValue compress(final byte[] bytes) {
+        final long start = System.nanoTime();
+        final Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        final byte[] buffer = new byte[bytes.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        final JCacheSerializedValue value = deflater.finished()
+            ? new JCacheCompressedValue(Arrays.copyOf(buffer, length), bytes.length)
+            : new JCacheSerializedValue(bytes);
+        compressionNanos.addAndGet(System.nanoTime() - start);
+        compressions.incrementAndGet();
+        uncompressedBytes.addAndGet(bytes.length);
+        compressedBytes.addAndGet(value.getBytes().length);
+        return value;
+    }
+
+    private byte[] bytesOf(final JCacheSerializedValue value) {
+        if (!(value instanceof JCacheCompressedValue)) {
+            return value.getBytes();
+        }
+        final long start = System.nanoTime();
+        final Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(value.getBytes());
+        final byte[] bytes = new byte[((JCacheCompressedValue)value).getLength()];
         try {
-            ois = new PreferredClassLoaderObjectInputSteam(bin, loader);
-            deserializedElement = ois.readObject();
-        } catch (Exception e) {
-            throw new CacheException("When configured copyOnRead or copyOnWrite, a Store will only accept Serializable values", e);
-        } finally {
-            try {
-                if (ois != null) {
-                    ois.close();
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                final int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed value");
                 }
-            } catch (Exception e) {
-                //
+                length += inflated;
             }
+        } catch (DataFormatException e) {
+            throw new CacheException("Couldn't inflate a stored value", e);
+        }
+        decompressionNanos.addAndGet(System.nanoTime() - start);
+        decompressions.incrementAndGet();
+        return bytes;
+    }
+
+    long getCompressions() {
+        return compressions.get();
+    }
+
+    long getCompressionNanos() {
+        return compressionNanos.get();
+    }
+
+    long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    long getDecompressions() {
+        return decompressions.get();
+    }
+
+    long getDecompressionNanos() {
+        return decompressionNanos.get();
+    }
+
+    private static Object copy(final JCacheCopier<Object> copier, final JCacheSerializer<Object> serializer,
+                               final Object object, final ClassLoader classLoader) {
+        if (object == null || JCacheCopiers.isImmutable(object)) {
+            return object;
         }
-        return deserializedElement;
+        if (copier != null) {
+            return copier.copy(object);
+        }
+        if (object instanceof byte[]) {
+            return ((byte[])object).clone();
+        }
+        return serializer.deserialize(serializer.serialize(object), classLoader);
     }
 
     /**
@@ -134,41 +331,17 @@ class JCacheCopyOnWriteStrategy implements ReadWriteCopyStrategy<Element> {
      *
      * @param element  the element to duplicate
      * @param newValue the new element's value
-     * @return the duplicated element
+     * @return the duplicated element, or {@code element} itself if neither its key nor its value was copied
      * @see net.sf.ehcache.store.compound.ReadWriteSerializationCopyStrategy#duplicateElementWithNewValue(net.sf.ehcache.Element, Object)
      * @since 1.4.0-beta1
      */
     Element duplicateElementWithNewValue(final Element element, final Object newKey, final Object newValue) {
+        if (newKey == element.getObjectKey() && newValue == element.getObjectValue()) {
+            return element;
+        }
         return new Element(newKey, newValue, element.getVersion(),
                 element.getCreationTime(), element.getLastAccessTime(), element.getHitCount(), element.usesCacheDefaultLifespan(),
                 element.getTimeToLive(), element.getTimeToIdle(), element.getLastUpdateTime());
     }
 
-    /**
-     * This class provides a way to satisfy the requirements of JSR107 in being able to specify a classloader to deserialize
-     * objects with
-     */
-    private static class PreferredClassLoaderObjectInputSteam extends ObjectInputStream {
-        private ClassLoader classLoader;
-
-        /**
-         * Constructor
-         *
-         * @param in the input stream
-         * @throws IOException if the constructor of ObjectInputStream throws an exception
-         */
-        public PreferredClassLoaderObjectInputSteam(InputStream in, ClassLoader classLoader) throws IOException {
-            super(in);
-            this.classLoader = classLoader;
-        }
-
-        @Override
-        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-
-            return Class.forName(desc.getName(), false, classLoader);
-
-        }
-
-    }
-
 }
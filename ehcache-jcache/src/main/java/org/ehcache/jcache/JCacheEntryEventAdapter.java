@@ -28,6 +28,7 @@ import javax.cache.event.EventType;
  * @since 1.4.0-beta1
  */
 class JCacheEntryEventAdapter<K, V> extends CacheEntryEvent<K, V> {
+    private final JCache<K, V> source;
     private final Element element;
     private final Class<K> keyType;
     private final Class<V> valueType;
@@ -41,6 +42,7 @@ class JCacheEntryEventAdapter<K, V> extends CacheEntryEvent<K, V> {
      */
     public JCacheEntryEventAdapter(JCache<K, V> source, Element element, final EventType eventType) {
         super(source, eventType);
+        this.source = source;
         this.element = element;
         final CompleteConfiguration<K, V> cfg = source.getConfiguration(CompleteConfiguration.class);
         this.keyType = cfg.getKeyType();
@@ -56,7 +58,7 @@ class JCacheEntryEventAdapter<K, V> extends CacheEntryEvent<K, V> {
     /** {@inheritDoc} */
     @Override
     public V getValue() {
-        return valueType.cast(element.getObjectValue());
+        return valueType.cast(source.readValue(element.getObjectValue()));
     }
 
     @Override
@@ -0,0 +1,31 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Computes the value of a key missing from a cache, see {@link JCache#getOrCompute(Object, JCacheFunction)}.
+ *
+ * @param <K> the type of the key
+ * @param <V> the type of the value
+ */
+public interface JCacheFunction<K, V> {
+
+    /**
+     * @param key the key missing from the cache
+     * @return the value of {@code key}, null to leave it unmapped
+     */
+    V apply(K key);
+}
@@ -0,0 +1,579 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.cache.CacheException;
+
+/**
+ * Write-ahead journal of the mutations of a {@link JCache}, appended to memory-mapped segment files as Ehcache notifies
+ * them. Writers only copy their record into the current segment; a background thread makes all records appended since
+ * its last pass durable at once, every {@link #COMMIT_INTERVAL_MILLIS} milliseconds. A crash therefore loses at most
+ * the writes of that window.<br />
+ * A full segment is sealed and handed to that thread too, to be forced and unmapped, while writers carry on in the
+ * next segment, mapped ahead of time.<br />
+ * A checkpoint starts a new segment, writes a {@link JCacheSnapshot} of the cache and then deletes the segments it
+ * covers, which happens on its own once {@link #CHECKPOINT_SEGMENTS} segments piled up. Recovery restores the latest
+ * snapshot and replays the segments written since, up to the first torn record: the segments following one that
+ * didn't get sealed are dropped.<br />
+ * A record is its length (int), the CRC32 of what follows it (int), then the operation (byte), the expiration time
+ * (long) and time to idle (int) of the entry as in a snapshot, the length of the key (int), the key and the value. A
+ * seal is a length of {@value #SEAL}. Evictions aren't journaled, so entries evicted before a restart may come back.
+ */
+final class JCacheJournal implements CacheEventListener {
+
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final long COMMIT_INTERVAL_MILLIS = 10;
+    static final int CHECKPOINT_SEGMENTS = 4;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_ALL = 3;
+    private static final int HEADER_SIZE = 8;
+    private static final int SEAL = -1;
+    private static final int SEAL_SIZE = 4;
+    private static final int BODY_HEADER_SIZE = 17;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final JCache<?, ?> jCache;
+    private final Ehcache ehcache;
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final JCacheSerializer<Object> keySerializer;
+    private final JCacheSerializer<Object> valueSerializer;
+    private final ScheduledExecutorService executor;
+    private final Object checkpointLock = new Object();
+    private final Object commitLock = new Object();
+    private final List<MappedByteBuffer> retired = new ArrayList<MappedByteBuffer>();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong appendNanos = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committedAppends = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    private MappedByteBuffer segment;
+    private MappedByteBuffer next;
+    private long sequence;
+    private long firstSequence;
+    private long uncommitted;
+    private long retiredUncommitted;
+    private boolean closed;
+
+    /**
+     * Recovers {@code jCache} from the snapshot and journal segments in {@code directory}, then journals its mutations
+     * to a new segment. Recovery doesn't call the writer of the cache.
+     *
+     * @param name the name the files of the journal start with
+     * @param segmentSize the size of a segment, records larger than that getting a segment their size
+     */
+    JCacheJournal(final JCache<?, ?> jCache, final File directory, final String name, final int segmentSize) {
+        this.jCache = jCache;
+        this.ehcache = jCache.unwrap(Ehcache.class);
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.keySerializer = jCache.getKeySerializer();
+        this.valueSerializer = jCache.getValueSerializer();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new CacheException("Can't create directory " + directory);
+        }
+        final File checkpoint = JCacheSnapshot.current(getCheckpointFile());
+        if(checkpoint.isFile()) {
+            replayed.addAndGet(JCacheSnapshot.read(jCache, checkpoint));
+        }
+        final List<Long> sequences = getSegmentSequences();
+        long last = 0;
+        long end = -1;
+        for (Long s : sequences) {
+            if(end >= 0) {
+                // follows a torn segment
+                delete(getSegmentFile(s));
+            } else {
+                end = replay(getSegmentFile(s));
+                last = s;
+            }
+        }
+        if(end >= 0) {
+            seal(getSegmentFile(last), end);
+        }
+        this.firstSequence = sequences.isEmpty() ? 1 : sequences.get(0);
+        this.sequence = last;
+        this.executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, ehcache.getName() + "-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            synchronized (this) {
+                rotate(0);
+            }
+        } catch (RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, COMMIT_INTERVAL_MILLIS, COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void notifyElementPut(final Ehcache cache, final Element element) {
+        append(PUT, element);
+    }
+
+    @Override
+    public void notifyElementUpdated(final Ehcache cache, final Element element) {
+        append(PUT, element);
+    }
+
+    @Override
+    public void notifyElementRemoved(final Ehcache cache, final Element element) {
+        append(REMOVE, element);
+    }
+
+    @Override
+    public void notifyRemoveAll(final Ehcache cache) {
+        append(REMOVE_ALL, null);
+    }
+
+    @Override
+    public void notifyElementExpired(final Ehcache cache, final Element element) {
+        // replay drops expired entries
+    }
+
+    @Override
+    public void notifyElementEvicted(final Ehcache cache, final Element element) {
+        // an evicted entry is still a valid one
+    }
+
+    @Override
+    public void dispose() {
+        // closed with its cache
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Starts a new segment, writes a snapshot of the cache and deletes the segments it makes obsolete. Mutations
+     * carry on meanwhile, journaled to the new segment.
+     *
+     * @return the number of entries in the snapshot
+     */
+    long checkpoint() {
+        synchronized (checkpointLock) {
+            final long retained;
+            synchronized (this) {
+                if(closed) {
+                    throw new IllegalStateException();
+                }
+                rotate(0);
+                retained = sequence;
+            }
+            final long entries = JCacheSnapshot.write(jCache, getCheckpointFile());
+            // unmaps the segments retired meanwhile, which can't be deleted before
+            commit();
+            synchronized (this) {
+                while(firstSequence < retained) {
+                    // stops at the first one left, so that the segments kept still follow each other
+                    delete(getSegmentFile(firstSequence));
+                    firstSequence++;
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Makes the appended records durable and stops journaling, waiting for a running checkpoint to complete first.
+     */
+    void close() {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+            }
+        }
+        executor.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commit();
+        synchronized (this) {
+            if(terminated) {
+                // no background task can touch the buffers anymore
+                unmap(segment);
+                if(next != null) {
+                    unmap(next);
+                    delete(getSegmentFile(sequence + 1));
+                }
+            }
+            segment = null;
+            next = null;
+        }
+    }
+
+    private void append(final byte operation, final Element element) {
+        final long start = System.nanoTime();
+        final byte[] key = operation == REMOVE_ALL ? EMPTY : keySerializer.serialize(element.getObjectKey());
+        final byte[] value = operation == PUT ? valueSerializer.serialize(element.getObjectValue()) : EMPTY;
+        final byte[] body = new byte[BODY_HEADER_SIZE + key.length + value.length];
+        ByteBuffer.wrap(body)
+            .put(operation)
+            .putLong(operation == PUT ? JCacheSnapshot.expirationTime(element) : 0)
+            .putInt(operation == PUT ? element.getTimeToIdle() : 0)
+            .putInt(key.length).put(key).put(value);
+        final CRC32 checksum = new CRC32();
+        checksum.update(body);
+        final boolean rotated;
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+            rotated = segment.remaining() < HEADER_SIZE + body.length + SEAL_SIZE;
+            if(rotated) {
+                rotate(HEADER_SIZE + body.length + SEAL_SIZE);
+            }
+            segment.putInt(body.length).putInt((int)checksum.getValue()).put(body);
+            uncommitted++;
+        }
+        appends.incrementAndGet();
+        appendedBytes.addAndGet(HEADER_SIZE + body.length);
+        appendNanos.addAndGet(System.nanoTime() - start);
+        if(rotated) {
+            scheduleCheckpointIfDue();
+        }
+    }
+
+    /**
+     * Forces the records appended since the last commit to disk, all at once, retired segments first, which are then
+     * unmapped.
+     */
+    private void commit() {
+        synchronized (commitLock) {
+            final List<MappedByteBuffer> forced;
+            final MappedByteBuffer committed;
+            final long records;
+            synchronized (this) {
+                if(segment == null || retired.isEmpty() && uncommitted == 0) {
+                    return;
+                }
+                forced = new ArrayList<MappedByteBuffer>(retired);
+                retired.clear();
+                committed = uncommitted == 0 ? null : segment;
+                records = retiredUncommitted + uncommitted;
+                retiredUncommitted = 0;
+                uncommitted = 0;
+            }
+            final long start = System.nanoTime();
+            for (MappedByteBuffer buffer : forced) {
+                buffer.force();
+                unmap(buffer);
+            }
+            if(committed != null) {
+                committed.force();
+            }
+            commitNanos.addAndGet(System.nanoTime() - start);
+            commits.incrementAndGet();
+            committedAppends.addAndGet(records);
+        }
+    }
+
+    private void scheduleCheckpointIfDue() {
+        synchronized (this) {
+            if(closed || sequence - firstSequence < CHECKPOINT_SEGMENTS) {
+                return;
+            }
+        }
+        if(checkpointScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        checkpoint();
+                    } catch (IllegalStateException e) {
+                        // closed meanwhile
+                    } finally {
+                        checkpointScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Seals the current segment and retires it, to be forced to disk by the next commit, then moves on to the segment
+     * mapped ahead of time, mapping it only if that didn't happen yet or it is too small. The mapping of the one after
+     * is then started in the background.
+     *
+     * @param minimum the room the new segment needs at least
+     */
+    private void rotate(final int minimum) {
+        if(segment != null) {
+            segment.putInt(SEAL);
+            retired.add(segment);
+            retiredUncommitted += uncommitted;
+            uncommitted = 0;
+        }
+        if(next != null && next.capacity() < minimum) {
+            unmap(next);
+            next = null;
+        }
+        segment = next != null ? next : map(getSegmentFile(sequence + 1), Math.max(segmentSize, minimum));
+        next = null;
+        sequence++;
+        final long following = sequence + 1;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MappedByteBuffer mapped;
+                try {
+                    mapped = map(getSegmentFile(following), segmentSize);
+                } catch (CacheException e) {
+                    // mapped when rotating instead
+                    return;
+                }
+                synchronized (JCacheJournal.this) {
+                    if(!closed && next == null && sequence + 1 == following) {
+                        next = mapped;
+                        return;
+                    }
+                }
+                unmap(mapped);
+            }
+        });
+    }
+
+    private static MappedByteBuffer map(final File file, final int size) {
+        try {
+            final RandomAccessFile segment = new RandomAccessFile(file, "rw");
+            try {
+                return segment.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Couldn't start journal segment " + file, e);
+        }
+    }
+
+    /**
+     * Releases the mapping of {@code buffer} right away rather than once it gets garbage collected, where the JVM
+     * allows it, so that its file can be deleted. {@code buffer} mustn't be used anymore.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            final Object clean = cleaner.invoke(buffer);
+            if(clean != null) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (Exception e) {
+            // left to the garbage collector
+        }
+    }
+
+    private static void delete(final File file) {
+        if(!file.delete() && file.exists()) {
+            throw new CacheException("Couldn't delete journal segment " + file);
+        }
+    }
+
+    /**
+     * Seals a torn segment where its replay stopped, so that the segments written after it get replayed.
+     */
+    private static void seal(final File file, final long position) {
+        try {
+            final RandomAccessFile segment = new RandomAccessFile(file, "rw");
+            try {
+                segment.seek(position);
+                segment.writeInt(SEAL);
+                segment.getFD().sync();
+            } finally {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Couldn't seal journal segment " + file, e);
+        }
+    }
+
+    /**
+     * Applies the records of a segment to the cache, up to its seal or the first torn record.
+     *
+     * @return the position of the first torn record, or of the end of the segment, -1 if it is sealed
+     */
+    private long replay(final File file) {
+        final ClassLoader classLoader = ehcache.getCacheConfiguration().getClassLoader();
+        try {
+            final RandomAccessFile log = new RandomAccessFile(file, "r");
+            try {
+                final MappedByteBuffer buffer = log.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, log.length());
+                try {
+                    while(buffer.remaining() >= SEAL_SIZE) {
+                        final int start = buffer.position();
+                        final int length = buffer.getInt();
+                        if(length == SEAL) {
+                            return -1;
+                        }
+                        if(length < BODY_HEADER_SIZE || buffer.remaining() < HEADER_SIZE - SEAL_SIZE + length) {
+                            return start;
+                        }
+                        final int checksum = buffer.getInt();
+                        final byte[] body = new byte[length];
+                        buffer.get(body);
+                        final CRC32 crc = new CRC32();
+                        crc.update(body);
+                        if((int)crc.getValue() != checksum) {
+                            return start;
+                        }
+                        apply(ByteBuffer.wrap(body), classLoader);
+                        replayed.incrementAndGet();
+                    }
+                    return buffer.position();
+                } finally {
+                    unmap(buffer);
+                }
+            } finally {
+                log.close();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Couldn't replay journal segment " + file, e);
+        }
+    }
+
+    private void apply(final ByteBuffer body, final ClassLoader classLoader) {
+        final byte operation = body.get();
+        final long expirationTime = body.getLong();
+        final int timeToIdle = body.getInt();
+        final byte[] key = new byte[body.getInt()];
+        body.get(key);
+        if(operation == REMOVE_ALL) {
+            ehcache.removeAll();
+            return;
+        }
+        final Object k = keySerializer.deserialize(key, classLoader);
+        if(operation == REMOVE) {
+            ehcache.remove(k);
+            return;
+        }
+        final byte[] value = new byte[body.remaining()];
+        body.get(value);
+        final Element element = JCacheSnapshot.toElement(k, valueSerializer.deserialize(value, classLoader), expirationTime, timeToIdle);
+        if(element == null) {
+            ehcache.remove(k);
+        } else {
+            ehcache.put(element);
+        }
+    }
+
+    private List<Long> getSegmentSequences() {
+        final String prefix = name + ".journal.";
+        final List<Long> sequences = new ArrayList<Long>();
+        final String[] files = directory.list();
+        if(files != null) {
+            for (String file : files) {
+                if(file.startsWith(prefix)) {
+                    try {
+                        sequences.add(Long.parseLong(file.substring(prefix.length())));
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private File getSegmentFile(final long sequence) {
+        return new File(directory, name + ".journal." + sequence);
+    }
+
+    private File getCheckpointFile() {
+        return new File(directory, name + ".checkpoint");
+    }
+
+    long getAppends() {
+        return appends.get();
+    }
+
+    long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    long getAppendNanos() {
+        return appendNanos.get();
+    }
+
+    long getCommits() {
+        return commits.get();
+    }
+
+    long getCommittedAppends() {
+        return committedAppends.get();
+    }
+
+    long getCommitNanos() {
+        return commitNanos.get();
+    }
+
+    long getReplayed() {
+        return replayed.get();
+    }
+
+    synchronized long getSegments() {
+        return sequence - firstSequence + 1;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Exposes the journal of a cache, next to its {@link JCacheStatMXBean}.
+ */
+public class JCacheJournalMXBean extends JCacheMXBean implements CacheJournalStatisticsMXBean {
+
+    public JCacheJournalMXBean(final JCache jCache) {
+        super(jCache, "org.ehcache.jcache", "JournalStatistics");
+    }
+
+    @Override
+    public long getJournalAppends() {
+        return jCache.getJournal().getAppends();
+    }
+
+    @Override
+    public long getJournalBytes() {
+        return jCache.getJournal().getAppendedBytes();
+    }
+
+    @Override
+    public long getJournalCommits() {
+        return jCache.getJournal().getCommits();
+    }
+
+    @Override
+    public float getAverageCommitSize() {
+        final long commits = jCache.getJournal().getCommits();
+        return commits == 0 ? 0 : (float)jCache.getJournal().getCommittedAppends() / commits;
+    }
+
+    @Override
+    public float getAverageAppendTime() {
+        return averageMicros(jCache.getJournal().getAppendNanos(), jCache.getJournal().getAppends());
+    }
+
+    @Override
+    public float getAverageCommitTime() {
+        return averageMicros(jCache.getJournal().getCommitNanos(), jCache.getJournal().getCommits());
+    }
+
+    @Override
+    public long getJournalSegments() {
+        return jCache.getJournal().getSegments();
+    }
+
+    @Override
+    public long getReplayedEntries() {
+        return jCache.getJournal().getReplayed();
+    }
+
+    private static float averageMicros(final long nanos, final long count) {
+        return count == 0 ? 0f : nanos / 1000f / count;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Implemented by a {@link javax.cache.integration.CacheLoader} that can tell all the keys it has a value for, so that a
+ * cache with a Bloom filter doesn't call it for any other key.
+ *
+ * @param <K> the type of keys
+ * @see JCacheConfiguration#setBloomFilterExpectedEntries(int)
+ */
+public interface JCacheKeyUniverse<K> {
+
+    /**
+     * @return all the keys the loader has a value for, walked each time the Bloom filter of the cache gets rebuilt
+     */
+    Iterable<K> keys();
+}
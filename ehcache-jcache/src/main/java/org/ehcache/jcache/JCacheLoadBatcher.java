@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+
+/**
+ * Coalesces the single-key misses of concurrent callers into {@link CacheLoader#loadAll(Iterable)} calls.<br />
+ * The first miss opens a batch and leads it. A miss arriving while no other batch loads is loaded right away, alone
+ * or along with the misses that joined meanwhile. Otherwise, the misses arriving until that load completed, the batch
+ * is full or its window passed, join the batch, which the leader then loads for all the callers waiting on it, each of
+ * them getting the value of its own key. No thread of its own is involved. A failed batch fails all its callers.
+ */
+final class JCacheLoadBatcher<K, V> {
+
+    static final int DEFAULT_WINDOW_MICROS = 1000;
+
+    private final CacheLoader<K, V> cacheLoader;
+    private final int batchSize;
+    private final long windowNanos;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedLoads = new AtomicLong();
+    private Batch<K, V> open;
+    private int loading;
+
+    JCacheLoadBatcher(final CacheLoader<K, V> cacheLoader, final int batchSize, final int windowMicros) {
+        this.cacheLoader = cacheLoader;
+        this.batchSize = batchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros > 0 ? windowMicros : DEFAULT_WINDOW_MICROS);
+    }
+
+    /**
+     * Loads {@code key} along with the misses of other callers. Keys mustn't be loaded twice concurrently.
+     *
+     * @return the value the loader had for {@code key}, null if none
+     */
+    V load(final K key) {
+        final Batch<K, V> batch;
+        final boolean leader;
+        synchronized (this) {
+            leader = open == null;
+            if(leader) {
+                open = new Batch<K, V>(batchSize);
+            }
+            batch = open;
+            batch.keys.add(key);
+            if(batch.keys.size() >= batchSize) {
+                open = null;
+                notifyAll();
+            }
+        }
+        if(leader) {
+            awaitClosing(batch);
+            batches.incrementAndGet();
+            batchedLoads.addAndGet(batch.keys.size());
+            try {
+                batch.load(cacheLoader);
+            } finally {
+                loaded();
+            }
+        }
+        return batch.get(key);
+    }
+
+    /**
+     * Waits for {@code batch} to fill up, for the batches being loaded to be done or for the window to pass, and
+     * closes it.
+     */
+    private synchronized void awaitClosing(final Batch<K, V> batch) {
+        final long deadline = System.nanoTime() + windowNanos;
+        boolean interrupted = false;
+        long remaining = windowNanos;
+        while(open == batch && loading > 0 && remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                // others wait on this batch: load it all the same
+                interrupted = true;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        if(open == batch) {
+            open = null;
+        }
+        loading++;
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void loaded() {
+        loading--;
+        notifyAll();
+    }
+
+    long getBatches() {
+        return batches.get();
+    }
+
+    long getBatchedLoads() {
+        return batchedLoads.get();
+    }
+
+    private static final class Batch<K, V> {
+
+        private final List<K> keys;
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private Map<K, V> values;
+        private RuntimeException failure;
+
+        private Batch(final int batchSize) {
+            this.keys = new ArrayList<K>(batchSize);
+        }
+
+        private void load(final CacheLoader<K, V> cacheLoader) {
+            try {
+                values = loadAll(cacheLoader);
+            } catch (CacheLoaderException e) {
+                failure = e;
+            } catch (Exception e) {
+                failure = new CacheLoaderException(e);
+            } catch (Error e) {
+                failure = new CacheLoaderException(e);
+                throw e;
+            } finally {
+                loaded.countDown();
+            }
+        }
+
+        private Map<K, V> loadAll(final CacheLoader<K, V> cacheLoader) {
+            if(keys.size() > 1) {
+                try {
+                    final Map<K, V> all = cacheLoader.loadAll(keys);
+                    return all == null ? Collections.<K, V>emptyMap() : all;
+                } catch (UnsupportedOperationException e) {
+                    // loads each key below
+                }
+            }
+            final Map<K, V> each = new HashMap<K, V>(keys.size() * 2);
+            for (K key : keys) {
+                each.put(key, cacheLoader.load(key));
+            }
+            return each;
+        }
+
+        private V get(final K key) {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheLoaderException(e);
+            }
+            if(failure != null) {
+                throw failure;
+            }
+            return values.get(key);
+        }
+    }
+}
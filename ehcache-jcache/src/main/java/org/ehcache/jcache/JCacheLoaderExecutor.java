@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.cache.CacheException;
+
+/**
+ * Bounded pool running {@link javax.cache.integration.CacheLoader} calls. When its queue is full, work is run by the
+ * submitting thread instead, which throttles whoever is producing it.
+ */
+class JCacheLoaderExecutor {
+
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    JCacheLoaderExecutor(final String name, final int threads, final int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Loader pool needs at least one thread, was " + threads);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Loader queue needs room for at least one task, was " + queueSize);
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new LoaderThreadFactory(name), new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code task} on the pool, or right away on the calling thread if the pool can't take it.
+     */
+    void execute(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs {@code task} on the pool, unless the pool can't take it.
+     *
+     * @return false if {@code task} got turned down and won't run
+     */
+    boolean tryExecute(final Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs all {@code tasks} on the pool, with the calling thread running those no worker picked up yet, so that this
+     * never waits on a saturated pool and may be called from within a task.
+     *
+     * @return the tasks' results, in order
+     * @throws Exception the first failure of a task
+     */
+    <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) throws Exception {
+        final List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            final FutureTask<T> future = new FutureTask<T>(task);
+            futures.add(future);
+            if (futures.size() > 1) {
+                try {
+                    executor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    // run by the calling thread below
+                }
+            }
+        }
+        for (FutureTask<T> future : futures) {
+            future.run();
+        }
+        final List<T> results = new ArrayList<T>(futures.size());
+        for (FutureTask<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheException(e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                }
+                throw (Error)cause;
+            }
+        }
+        return results;
+    }
+
+    int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getQueueRemainingCapacity() {
+        return executor.getQueue().remainingCapacity();
+    }
+
+    int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    long getRejectedTaskCount() {
+        return rejected.get();
+    }
+
+    ExecutorService getExecutorService() {
+        return executor;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LoaderThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, name + "-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Exposes the loader pool of a cache, next to its {@link JCacheStatMXBean}. It isn't in the {@code javax.cache} domain
+ * which only holds the beans the specification defines.
+ */
+public class JCacheLoaderMXBean extends JCacheMXBean implements CacheLoaderStatisticsMXBean {
+
+    public JCacheLoaderMXBean(final JCache jCache) {
+        super(jCache, "org.ehcache.jcache", "LoaderStatistics");
+    }
+
+    @Override
+    public int getLoaderThreads() {
+        return jCache.getLoaderExecutor().getParallelism();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return jCache.getLoaderExecutor().getActiveWorkers();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return jCache.getLoaderExecutor().getQueueDepth();
+    }
+
+    @Override
+    public int getQueueRemainingCapacity() {
+        return jCache.getLoaderExecutor().getQueueRemainingCapacity();
+    }
+
+    @Override
+    public long getCompletedTasks() {
+        return jCache.getLoaderExecutor().getCompletedTaskCount();
+    }
+
+    @Override
+    public long getRejectedTasks() {
+        return jCache.getLoaderExecutor().getRejectedTaskCount();
+    }
+
+    @Override
+    public long getLoadBatches() {
+        final JCacheLoadBatcher loadBatcher = jCache.getLoadBatcher();
+        return loadBatcher == null ? 0 : loadBatcher.getBatches();
+    }
+
+    @Override
+    public long getBatchedLoads() {
+        final JCacheLoadBatcher loadBatcher = jCache.getLoadBatcher();
+        return loadBatcher == null ? 0 : loadBatcher.getBatchedLoads();
+    }
+}
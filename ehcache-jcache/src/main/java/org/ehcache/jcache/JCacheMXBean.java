@@ -7,10 +7,16 @@ import net.sf.ehcache.Ehcache;
  */
 public class JCacheMXBean {
     protected final JCache jCache;
+    private final String domain;
     private final String name;
 
     public JCacheMXBean(final JCache jCache, final String name) {
+        this(jCache, "javax.cache", name);
+    }
+
+    protected JCacheMXBean(final JCache jCache, final String domain, final String name) {
         this.jCache = jCache;
+        this.domain = domain;
         this.name = name;
     }
 
@@ -22,7 +28,7 @@ public class JCacheMXBean {
         String cacheManagerName = sanitize(jCache.getCacheManager().getURI().toString());
         String cacheName = sanitize(jCache.getName());
 
-        return "javax.cache:type=Cache" + name + ",CacheManager="
+        return domain + ":type=Cache" + name + ",CacheManager="
                               + cacheManagerName + ",Cache=" + cacheName;
     }
 
@@ -23,15 +23,18 @@ import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.CacheWriterConfiguration;
 import net.sf.ehcache.config.CopyStrategyConfiguration;
 
+import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.cache.Cache;
 import javax.cache.CacheException;
@@ -55,6 +58,27 @@ public class JCacheManager implements javax.cache.CacheManager {
 
     private static MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
     private static final int DEFAULT_SIZE = 1000;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /**
+     * Property setting how many threads the pool running the loaders of this manager's caches has.
+     */
+    public static final String LOADER_THREADS_PROPERTY = "org.ehcache.jcache.loaderThreads";
+    /**
+     * Property bounding how many load tasks may wait for a thread of this manager's loader pool.
+     */
+    public static final String LOADER_QUEUE_SIZE_PROPERTY = "org.ehcache.jcache.loaderQueueSize";
+    /**
+     * Property naming the {@link JCacheStoreEngine} of this manager's caches that don't set one in their
+     * {@link JCacheConfiguration}, falling back to the system property of the same name.
+     */
+    public static final String STORE_ENGINE_PROPERTY = "org.ehcache.jcache.storeEngine";
+    /**
+     * Property naming the directory {@link JCacheStoreEngine#PERSISTENT} and journaled caches of this manager keep their
+     * files in, falling back to the system property of the same name, then to Ehcache's diskStore path, then to
+     * {@code ehcache-jcache} in the temporary directory.
+     */
+    public static final String PERSISTENCE_DIRECTORY_PROPERTY = "org.ehcache.jcache.persistenceDirectory";
 
     private final JCacheCachingProvider jCacheCachingProvider;
     private final CacheManager cacheManager;
@@ -62,15 +86,21 @@ public class JCacheManager implements javax.cache.CacheManager {
     private final Properties props;
     private final ConcurrentHashMap<String, JCache> allCaches = new ConcurrentHashMap<String, JCache>();
     private volatile boolean closed = false;
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final JCacheLoaderExecutor loaderExecutor;
     private final ConcurrentMap<JCache, JCacheManagementMXBean> cfgMXBeans = new ConcurrentHashMap<JCache, JCacheManagementMXBean>();
     private final ConcurrentMap<JCache, JCacheStatMXBean> statMXBeans = new ConcurrentHashMap<JCache, JCacheStatMXBean>();
+    private final ConcurrentMap<JCache, JCacheLoaderMXBean> loaderMXBeans = new ConcurrentHashMap<JCache, JCacheLoaderMXBean>();
+    private final ConcurrentMap<JCache, JCacheJournalMXBean> journalMXBeans = new ConcurrentHashMap<JCache, JCacheJournalMXBean>();
+    private final ConcurrentMap<JCache, JCacheBloomFilterMXBean> bloomFilterMXBeans = new ConcurrentHashMap<JCache, JCacheBloomFilterMXBean>();
 
     public JCacheManager(final JCacheCachingProvider jCacheCachingProvider, final CacheManager cacheManager, final URI uri, final Properties props) {
         this.jCacheCachingProvider = jCacheCachingProvider;
         this.cacheManager = cacheManager;
         this.uri = uri;
         this.props = props;
+        this.loaderExecutor = new JCacheLoaderExecutor(cacheManager.getName(),
+            getIntProperty(LOADER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+            getIntProperty(LOADER_QUEUE_SIZE_PROPERTY, JCacheLoaderExecutor.DEFAULT_QUEUE_SIZE));
         refreshAllCaches();
     }
 
@@ -105,7 +135,11 @@ public class JCacheManager implements javax.cache.CacheManager {
         if (jCache != null) {
             throw new CacheException();
         }
-        cacheManager.addCacheIfAbsent(new net.sf.ehcache.Cache(toEhcacheConfig(cacheName, configuration)));
+        final JCacheStoreEngine storeEngine = getStoreEngine(configuration);
+        final net.sf.ehcache.Cache cache = new net.sf.ehcache.Cache(toEhcacheConfig(cacheName, configuration, storeEngine));
+        if(cacheManager.addCacheIfAbsent(cache) == cache) {
+            installStore(cache, configuration, storeEngine);
+        }
         Ehcache ehcache = cacheManager.getEhcache(cacheName);
         final JCacheConfiguration<K, V> cfg = new JCacheConfiguration<K, V>(configuration);
         jCache = new JCache<K, V>(this, cfg, ehcache);
@@ -181,6 +215,10 @@ public class JCacheManager implements javax.cache.CacheManager {
         checkNotClosed();
         final JCache jCache = allCaches.get(cacheName);
         if (jCache != null) {
+            if(jCache.getJournal() != null
+               || JCacheStoreAccess.backingStore(cacheManager.getEhcache(cacheName)) instanceof JCachePersistentStore) {
+                jCache.clear();
+            }
             jCache.close();
         }
     }
@@ -232,8 +270,18 @@ public class JCacheManager implements javax.cache.CacheManager {
         try {
             if(enabled) {
                 registerObject(getOrCreateStatObject(jCache));
+                registerObject(getOrCreateLoaderObject(jCache));
+                if(jCache.getJournal() != null) {
+                    registerObject(getOrCreateJournalObject(jCache));
+                }
+                if(jCache.getBloomFilter() != null) {
+                    registerObject(getOrCreateBloomFilterObject(jCache));
+                }
             } else {
                 unregisterObject(statMXBeans.remove(jCache));
+                unregisterObject(loaderMXBeans.remove(jCache));
+                unregisterObject(journalMXBeans.remove(jCache));
+                unregisterObject(bloomFilterMXBeans.remove(jCache));
             }
             ((JCacheConfiguration)jCache.getConfiguration(JCacheConfiguration.class)).setStatisticsEnabled(enabled);
         } catch (NotCompliantMBeanException e) {
@@ -291,6 +339,79 @@ public class JCacheManager implements javax.cache.CacheManager {
         return cacheMXBean;
     }
 
+    private JCacheLoaderMXBean getOrCreateLoaderObject(final JCache jCache) {
+        JCacheLoaderMXBean cacheMXBean = loaderMXBeans.get(jCache);
+        if(cacheMXBean == null) {
+            cacheMXBean = new JCacheLoaderMXBean(jCache);
+            final JCacheLoaderMXBean previous = loaderMXBeans.putIfAbsent(jCache, cacheMXBean);
+            if(previous != null) {
+                cacheMXBean = previous;
+            }
+        }
+        return cacheMXBean;
+    }
+
+    private JCacheJournalMXBean getOrCreateJournalObject(final JCache jCache) {
+        JCacheJournalMXBean cacheMXBean = journalMXBeans.get(jCache);
+        if(cacheMXBean == null) {
+            cacheMXBean = new JCacheJournalMXBean(jCache);
+            final JCacheJournalMXBean previous = journalMXBeans.putIfAbsent(jCache, cacheMXBean);
+            if(previous != null) {
+                cacheMXBean = previous;
+            }
+        }
+        return cacheMXBean;
+    }
+
+    private JCacheBloomFilterMXBean getOrCreateBloomFilterObject(final JCache jCache) {
+        JCacheBloomFilterMXBean cacheMXBean = bloomFilterMXBeans.get(jCache);
+        if(cacheMXBean == null) {
+            cacheMXBean = new JCacheBloomFilterMXBean(jCache);
+            final JCacheBloomFilterMXBean previous = bloomFilterMXBeans.putIfAbsent(jCache, cacheMXBean);
+            if(previous != null) {
+                cacheMXBean = previous;
+            }
+        }
+        return cacheMXBean;
+    }
+
+    /**
+     * Writes a snapshot of each cache of this manager to {@code directory}, as {@link JCache#snapshot(File)} does, in a
+     * file named after the cache.
+     *
+     * @param directory the directory to write the snapshots to, created if missing
+     * @return the number of entries written, over all caches
+     */
+    public long snapshot(final File directory) {
+        checkNotClosed();
+        if(directory == null) throw new NullPointerException();
+        long entries = 0;
+        for (JCache jCache : allCaches.values()) {
+            entries += jCache.snapshot(getCacheFile(directory, jCache.getName(), SNAPSHOT_SUFFIX));
+        }
+        return entries;
+    }
+
+    /**
+     * Restores each cache of this manager from its snapshot in {@code directory}, as {@link JCache#restore(File)} does.
+     * Caches without a snapshot there are left as they are.
+     *
+     * @param directory a directory {@link #snapshot(File)} wrote to
+     * @return the number of entries put, over all caches
+     */
+    public long restore(final File directory) {
+        checkNotClosed();
+        if(directory == null) throw new NullPointerException();
+        long entries = 0;
+        for (JCache jCache : allCaches.values()) {
+            final File file = getCacheFile(directory, jCache.getName(), SNAPSHOT_SUFFIX);
+            if(JCacheSnapshot.current(file).isFile()) {
+                entries += jCache.restore(file);
+            }
+        }
+        return entries;
+    }
+
     @Override
     public void close() {
         jCacheCachingProvider.shutdown(this);
@@ -302,6 +423,7 @@ public class JCacheManager implements javax.cache.CacheManager {
             jCache.close();
         }
         cacheManager.shutdown();
+        loaderExecutor.shutdown();
         allCaches.clear();
     }
 
@@ -330,13 +452,15 @@ public class JCacheManager implements javax.cache.CacheManager {
         }
     }
 
-    private CacheConfiguration toEhcacheConfig(final String name, final Configuration configuration) {
-        final int maxSize = cacheManager.getConfiguration().isMaxBytesLocalHeapSet() ? 0 : DEFAULT_SIZE;
+    private CacheConfiguration toEhcacheConfig(final String name, final Configuration configuration, final JCacheStoreEngine storeEngine) {
+        final boolean offHeap = (storeEngine == JCacheStoreEngine.OFF_HEAP || storeEngine == JCacheStoreEngine.PERSISTENT)
+                                && configuration.isStoreByValue();
+        final int maxSize = offHeap || cacheManager.getConfiguration().isMaxBytesLocalHeapSet() ? 0 : DEFAULT_SIZE;
         CacheConfiguration cfg = new CacheConfiguration(name, maxSize);
         cfg.setClassLoader(cacheManager.getConfiguration().getClassLoader());
         if(configuration.isStoreByValue()) {
             final CopyStrategyConfiguration copyStrategyConfiguration = new CopyStrategyConfiguration();
-            copyStrategyConfiguration.setCopyStrategyInstance(new JCacheCopyOnWriteStrategy());
+            copyStrategyConfiguration.setCopyStrategyInstance(newCopyStrategy(configuration, offHeap));
             cfg.copyOnRead(true).copyOnWrite(true)
                 .addCopyStrategy(copyStrategyConfiguration);
         }
@@ -348,6 +472,110 @@ public class JCacheManager implements javax.cache.CacheManager {
         return cfg;
     }
 
+    private JCacheStoreEngine getStoreEngine(final Configuration configuration) {
+        if(configuration instanceof JCacheConfiguration && ((JCacheConfiguration)configuration).getStoreEngine() != null) {
+            return ((JCacheConfiguration)configuration).getStoreEngine();
+        }
+        String value = props == null ? null : props.getProperty(STORE_ENGINE_PROPERTY);
+        if(value == null) {
+            value = System.getProperty(STORE_ENGINE_PROPERTY);
+        }
+        if(value == null || value.trim().length() == 0) {
+            return JCacheStoreEngine.STANDARD;
+        }
+        try {
+            return JCacheStoreEngine.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new CacheException("Property " + STORE_ENGINE_PROPERTY + " isn't a store engine: " + value, e);
+        }
+    }
+
+    /**
+     * Moves the entries of the freshly added {@code cache} to the store of {@code storeEngine}. Caches sized in bytes
+     * keep Ehcache's own store, the only one Ehcache's pools can size, unless their values go off heap, where the pools
+     * don't reach.
+     */
+    private void installStore(final net.sf.ehcache.Cache cache, final Configuration configuration, final JCacheStoreEngine storeEngine) {
+        long maxBytes = JCacheOffHeapStore.DEFAULT_MAX_BYTES;
+        JCacheSerializer keySerializer = JCacheSerializers.DEFAULT;
+        if(configuration instanceof JCacheConfiguration) {
+            if(((JCacheConfiguration)configuration).getMaxBytesOffHeap() > 0) {
+                maxBytes = ((JCacheConfiguration)configuration).getMaxBytesOffHeap();
+            }
+            if(((JCacheConfiguration)configuration).getKeySerializer() != null) {
+                keySerializer = ((JCacheConfiguration)configuration).getKeySerializer();
+            }
+        }
+        if(storeEngine == JCacheStoreEngine.PERSISTENT && configuration.isStoreByValue()) {
+            JCacheStoreAccess.replaceStore(cache, new JCachePersistentStore(cache, JCacheStoreAccess.evictionObserver(cache),
+                maxBytes, getPersistenceFile(cache.getName()), keySerializer));
+        } else if(storeEngine == JCacheStoreEngine.OFF_HEAP && configuration.isStoreByValue()) {
+            JCacheStoreAccess.replaceStore(cache, new JCacheOffHeapStore(cache, JCacheStoreAccess.evictionObserver(cache),
+                maxBytes));
+        } else if(storeEngine != JCacheStoreEngine.STANDARD && !cacheManager.getConfiguration().isMaxBytesLocalHeapSet()) {
+            JCacheStoreAccess.replaceStore(cache, new JCacheCompactStore(cache, JCacheStoreAccess.evictionObserver(cache)));
+        }
+    }
+
+    private File getPersistenceFile(final String cacheName) {
+        return getCacheFile(getPersistenceDirectory(), cacheName, ".jcache");
+    }
+
+    /**
+     * @return the directory the files of {@link JCacheStoreEngine#PERSISTENT} and journaled caches are kept in
+     */
+    File getPersistenceDirectory() {
+        String directory = props == null ? null : props.getProperty(PERSISTENCE_DIRECTORY_PROPERTY);
+        if(directory == null) {
+            directory = System.getProperty(PERSISTENCE_DIRECTORY_PROPERTY);
+        }
+        if(directory == null && cacheManager.getConfiguration().getDiskStoreConfiguration() != null) {
+            directory = cacheManager.getConfiguration().getDiskStoreConfiguration().getPath();
+        }
+        if(directory == null) {
+            directory = new File(System.getProperty("java.io.tmpdir"), "ehcache-jcache").getPath();
+        }
+        return new File(directory);
+    }
+
+    private static File getCacheFile(final File directory, final String cacheName, final String suffix) {
+        return new File(directory, getFileName(cacheName) + suffix);
+    }
+
+    /**
+     * @return the name the files of cache {@code cacheName} start with, which any file system takes
+     */
+    static String getFileName(final String cacheName) {
+        try {
+            return URLEncoder.encode(cacheName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    /**
+     * @param offHeap whether values are kept off heap, and so are to be stored serialized whatever the configuration
+     */
+    private JCacheCopyOnWriteStrategy newCopyStrategy(final Configuration configuration, final boolean offHeap) {
+        JCacheSerializer<?> keySerializer = null;
+        JCacheSerializer<?> valueSerializer = null;
+        JCacheCopier<?> keyCopier = null;
+        JCacheCopier<?> valueCopier = null;
+        boolean serializedValues = offHeap;
+        int compressionThreshold = 0;
+        if(configuration instanceof JCacheConfiguration) {
+            keySerializer = ((JCacheConfiguration)configuration).getKeySerializer();
+            valueSerializer = ((JCacheConfiguration)configuration).getValueSerializer();
+            keyCopier = ((JCacheConfiguration)configuration).getKeyCopier();
+            valueCopier = ((JCacheConfiguration)configuration).getValueCopier();
+            serializedValues |= ((JCacheConfiguration)configuration).isStoreSerializedValues();
+            compressionThreshold = ((JCacheConfiguration)configuration).getValueCompressionThreshold();
+        }
+        return new JCacheCopyOnWriteStrategy(keySerializer == null ? JCacheSerializers.DEFAULT : keySerializer,
+            valueSerializer == null ? JCacheSerializers.DEFAULT : valueSerializer, keyCopier, valueCopier, serializedValues,
+            compressionThreshold);
+    }
+
     private void checkNotClosed() {
         if(closed) throw new IllegalStateException();
     }
@@ -363,7 +591,23 @@ public class JCacheManager implements javax.cache.CacheManager {
     }
 
     public ExecutorService getExecutorService() {
-        return executorService;
+        return loaderExecutor.getExecutorService();
+    }
+
+    JCacheLoaderExecutor getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    private int getIntProperty(final String name, final int defaultValue) {
+        final String value = props == null ? null : props.getProperty(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new CacheException("Property " + name + " isn't a number: " + value, e);
+        }
     }
 
 }
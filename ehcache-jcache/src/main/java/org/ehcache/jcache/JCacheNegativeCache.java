@@ -0,0 +1,171 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the keys a {@link javax.cache.integration.CacheLoader} had no value for, for a short while, so that looking
+ * them up again doesn't hit the loader each time.<br />
+ * Keys are kept apart from the entries of the cache, in segments of bounded size dropping their oldest keys first, and
+ * are forgotten as soon as the cache maps them or gets cleared.
+ */
+final class JCacheNegativeCache implements CacheEventListener {
+
+    static final int DEFAULT_SIZE = 10000;
+
+    private static final int SEGMENTS = 16;
+
+    private final long timeToLiveMillis;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+
+    JCacheNegativeCache(final long timeToLiveMillis, final int size) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, size / SEGMENTS));
+        }
+    }
+
+    /**
+     * @return true if the loader had no value for {@code key} a moment ago
+     */
+    boolean contains(final Object key) {
+        final Segment segment = segmentFor(key);
+        final long now = System.currentTimeMillis();
+        synchronized (segment) {
+            final Long expiration = segment.get(key);
+            if(expiration == null) {
+                return false;
+            }
+            if(expiration <= now) {
+                segment.remove(key);
+                return false;
+            }
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers the loader had no value for {@code key}.
+     */
+    void add(final Object key) {
+        final Segment segment = segmentFor(key);
+        final long expiration = System.currentTimeMillis() + timeToLiveMillis;
+        synchronized (segment) {
+            segment.remove(key);
+            segment.put(key, expiration);
+        }
+    }
+
+    void remove(final Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    private Segment segmentFor(final Object key) {
+        return segments[(JCacheCompactStore.hash(key) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public void notifyElementPut(final Ehcache cache, final Element element) {
+        remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementUpdated(final Ehcache cache, final Element element) {
+        remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementRemoved(final Ehcache cache, final Element element) {
+        // the key was mapped, hence forgotten already
+    }
+
+    @Override
+    public void notifyElementExpired(final Ehcache cache, final Element element) {
+        // same
+    }
+
+    @Override
+    public void notifyElementEvicted(final Ehcache cache, final Element element) {
+        // same
+    }
+
+    @Override
+    public void notifyRemoveAll(final Ehcache cache) {
+        clear();
+    }
+
+    @Override
+    public void dispose() {
+        clear();
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Keys in the order they were added, each with when it is to be forgotten.
+     */
+    private static final class Segment extends LinkedHashMap<Object, Long> {
+
+        private final int capacity;
+
+        private Segment(final int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Object, Long> eldest) {
+            return size() > capacity;
+        }
+    }
+}
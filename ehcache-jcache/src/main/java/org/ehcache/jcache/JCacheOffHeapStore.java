@@ -0,0 +1,474 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.CacheOperationOutcomes;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The store of {@link JCacheStoreEngine#OFF_HEAP} caches: a {@link JCacheCompactStore} whose records only hold a
+ * handle on their value, kept serialized in direct {@link ByteBuffer} slabs.
+ * <br />
+ * Slabs are written one after the other, values appended to the current one. Values replaced or removed leave dead
+ * bytes behind, which are only reclaimed with their whole slab, once all slabs of the budget are in use: the sealed slab
+ * with the most dead bytes gets its live values moved to a spare slab, which then takes over as the current one. When no
+ * slab has many dead bytes, the oldest one is reclaimed instead, evicting those of its values that weren't read since
+ * they were last moved, a second chance as a clock gives. Readers find the slab of a value through its handle, holding
+ * the slab's read lock while they copy its bytes; the slab's write lock is only taken to reuse it, once no handle mapped
+ * to points into it.
+ * <br />
+ * Subclasses may choose where slabs live, and what precedes each value in them, see {@link #allocate(int)} and
+ * {@link #header(Element, byte, int, byte[])}.
+ */
+class JCacheOffHeapStore extends JCacheCompactStore {
+
+    /**
+     * The off-heap budget of caches that don't set one, 64 MB.
+     */
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+    private static final int MAX_SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_SLABS = 1 << 16;
+    private static final int MIN_SLABS = 3;
+
+    static final byte SERIALIZED = 0;
+    static final byte COMPRESSED = 1;
+    static final byte OBJECT = 2;
+
+    private static final byte[] NO_HEADER = new byte[0];
+
+    final ClassLoader classLoader;
+    final int slabSize;
+    final int slabHeaderSize;
+    final Slab[] slabs;
+    /**
+     * Slabs values may be appended to, emptied ones and the ones {@link #compact()} moved values to.
+     */
+    final LinkedList<Slab> free = new LinkedList<Slab>();
+    final List<Slab> sealed = new ArrayList<Slab>();
+    final AtomicLong liveBytes = new AtomicLong();
+    private Slab current;
+    Slab spare;
+
+    /**
+     * @param cache the cache this store holds the entries of
+     * @param evictionObserver where evictions get accounted, null not to account them
+     * @param maxBytes how many bytes of direct memory the values may take, allocated as needed
+     */
+    JCacheOffHeapStore(final Ehcache cache, final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver,
+                       final long maxBytes) {
+        this(cache, evictionObserver, maxBytes, 0);
+    }
+
+    /**
+     * @param slabHeaderSize how many bytes at the start of each slab aren't for values
+     */
+    JCacheOffHeapStore(final Ehcache cache, final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver,
+                       final long maxBytes, final int slabHeaderSize) {
+        super(cache, evictionObserver);
+        this.classLoader = cache.getCacheConfiguration().getClassLoader();
+        this.slabSize = (int)Math.max(MIN_SLAB_SIZE, Math.min(MAX_SLAB_SIZE, maxBytes / 16));
+        this.slabHeaderSize = slabHeaderSize;
+        this.slabs = new Slab[(int)Math.min(MAX_SLABS, Math.max(MIN_SLABS, maxBytes / slabSize))];
+        for (int i = 0; i < slabs.length; i++) {
+            slabs[i] = new Slab(i);
+            slabs[i].top = slabHeaderSize;
+        }
+        free.addAll(Arrays.asList(slabs));
+        spare = free.removeLast();
+    }
+
+    @Override
+    Object store(final Element element, final int hash) {
+        final Object value = element.getObjectValue();
+        final byte kind;
+        final byte[] bytes;
+        int length = -1;
+        if(value instanceof JCacheCompressedValue) {
+            kind = COMPRESSED;
+            bytes = ((JCacheCompressedValue)value).getBytes();
+            length = ((JCacheCompressedValue)value).getLength();
+        } else if(value instanceof JCacheSerializedValue) {
+            kind = SERIALIZED;
+            bytes = ((JCacheSerializedValue)value).getBytes();
+        } else {
+            kind = OBJECT;
+            bytes = JCacheSerializers.DEFAULT.serialize(value);
+        }
+        final byte[] header = header(element, kind, length, bytes);
+        final Handle handle = new Handle(hash, header.length, header.length + bytes.length + (kind == COMPRESSED ? 5 : 1));
+        final List<Element> evicted = new ArrayList<Element>();
+        final boolean stored = write(handle, header, kind, length, bytes, evicted);
+        for (Element e : evicted) {
+            notifyEvicted(e);
+        }
+        if(!stored) {
+            return NOT_STORED;
+        }
+        liveBytes.addAndGet(handle.length);
+        return handle;
+    }
+
+    @Override
+    void release(final Object stored) {
+        final Handle handle = (Handle)stored;
+        handle.live = false;
+        liveBytes.addAndGet(-handle.length);
+        slabs[slabIndex(handle.address)].deadBytes.addAndGet(handle.length);
+    }
+
+    @Override
+    Element toElement(final Record record) {
+        final Handle handle = (Handle)record.value;
+        byte kind;
+        byte[] bytes;
+        int length = -1;
+        while(true) {
+            final long address = handle.address;
+            final Slab slab = slabs[slabIndex(address)];
+            slab.readLock().lock();
+            try {
+                if(slab.generation != generation(address)) {
+                    if(handle.address == address) {
+                        return null;
+                    }
+                    continue;
+                }
+                final ByteBuffer view = slab.buffer.duplicate();
+                view.position(offset(address) + handle.valueOffset);
+                kind = view.get();
+                if(kind == COMPRESSED) {
+                    length = view.getInt();
+                }
+                bytes = new byte[handle.length - handle.valueOffset - (kind == COMPRESSED ? 5 : 1)];
+                view.get(bytes);
+                break;
+            } finally {
+                slab.readLock().unlock();
+            }
+        }
+        handle.referenced = true;
+        final Object value;
+        if(kind == COMPRESSED) {
+            value = new JCacheCompressedValue(bytes, length);
+        } else if(kind == SERIALIZED) {
+            value = new JCacheSerializedValue(bytes);
+        } else {
+            value = JCacheSerializers.DEFAULT.deserialize(bytes, classLoader);
+        }
+        return record.toElement(value);
+    }
+
+    @Override
+    public int getInMemorySize() {
+        return 0;
+    }
+
+    @Override
+    public int getOffHeapSize() {
+        return getSize();
+    }
+
+    @Override
+    public long getOffHeapSizeInBytes() {
+        return liveBytes.get();
+    }
+
+    @Override
+    public boolean containsKeyInMemory(final Object key) {
+        return false;
+    }
+
+    @Override
+    public boolean containsKeyOffHeap(final Object key) {
+        return containsKey(key);
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        removeAll();
+        synchronized (this) {
+            for (Slab slab : slabs) {
+                slab.writeLock().lock();
+                try {
+                    slab.generation = (slab.generation + 1) & 0xFFFF;
+                    slab.buffer = null;
+                    slab.handles.clear();
+                } finally {
+                    slab.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocates the buffer of the slab at {@code index}, of {@link #slabSize} bytes.
+     * <br />
+     * This one allocates a direct buffer.
+     */
+    ByteBuffer allocate(final int index) {
+        return ByteBuffer.allocateDirect(slabSize);
+    }
+
+    /**
+     * Builds what precedes the value of {@code element} in its slab.
+     * <br />
+     * This one doesn't precede values with anything.
+     *
+     * @param kind how the value is kept, {@link #SERIALIZED}, {@link #COMPRESSED} or {@link #OBJECT}
+     * @param length the serialized length of a compressed value, -1 for other values
+     * @param bytes the bytes of the value
+     */
+    byte[] header(final Element element, final byte kind, final int length, final byte[] bytes) {
+        return NO_HEADER;
+    }
+
+    /**
+     * Called holding the store's lock once the entry of {@code handle} got written at {@code offset} of {@code slab},
+     * or moved there.
+     */
+    void written(final Slab slab, final int offset, final Handle handle) {
+        // nothing to record
+    }
+
+    /**
+     * Called holding the store's lock once {@code slab} got a buffer, or got cleared to be reused.
+     */
+    void cleared(final Slab slab) {
+        // nothing to record
+    }
+
+    /**
+     * Moves the live values of the sealed slabs that are at least half dead to the spare slab, one slab at a time, the
+     * spare slab then being appended to before any empty one.
+     */
+    synchronized void compact() {
+        while(true) {
+            Slab victim = null;
+            for (Slab slab : sealed) {
+                if(slab.deadBytes.get() >= (slabSize - slabHeaderSize) / 2
+                   && (victim == null || slab.deadBytes.get() > victim.deadBytes.get())) {
+                    victim = slab;
+                }
+            }
+            if(victim == null) {
+                return;
+            }
+            final Slab target = spare;
+            ensureBuffer(target);
+            sealed.remove(victim);
+            reclaim(victim, target, false, false, null);
+            spare = victim;
+            free.addFirst(target);
+        }
+    }
+
+    /**
+     * Appends the entry of {@code handle} to the current slab, pointing the handle at it.
+     *
+     * @param length the serialized length of a compressed value, -1 for other values
+     * @param evicted where to add the elements evicted to make room, which are to be notified once the lock released
+     * @return false if there is no room for the entry, as it is larger than a slab or every slab holds values being
+     * written
+     */
+    private synchronized boolean write(final Handle handle, final byte[] header, final byte kind, final int length,
+                                       final byte[] bytes, final List<Element> evicted) {
+        if(handle.length > slabSize - slabHeaderSize) {
+            return false;
+        }
+        if(current == null || current.top + handle.length > slabSize) {
+            if(current != null) {
+                sealed.add(current);
+            }
+            current = nextSlab(handle.length, evicted);
+            if(current == null) {
+                return false;
+            }
+        }
+        final ByteBuffer view = current.buffer.duplicate();
+        view.position(current.top);
+        view.put(header);
+        view.put(kind);
+        if(kind == COMPRESSED) {
+            view.putInt(length);
+        }
+        view.put(bytes);
+        handle.address = address(current, current.top);
+        written(current, current.top, handle);
+        current.top += handle.length;
+        current.handles.add(handle);
+        return true;
+    }
+
+    /**
+     * @return a free slab with {@code needed} bytes left if there is one, otherwise the spare slab once the values of
+     * reclaimed slabs were moved to it, null if that doesn't leave {@code needed} bytes
+     */
+    private Slab nextSlab(final int needed, final List<Element> evicted) {
+        while(!free.isEmpty()) {
+            final Slab slab = free.removeFirst();
+            ensureBuffer(slab);
+            if(slab.top + needed <= slabSize) {
+                return slab;
+            }
+            sealed.add(slab);
+        }
+        ensureBuffer(spare);
+        for (int attempt = 0; attempt < slabs.length && !sealed.isEmpty(); attempt++) {
+            final Slab victim = victim();
+            final Slab target = spare;
+            sealed.remove(victim);
+            reclaim(victim, target, victim.deadBytes.get() < slabSize / 4, attempt >= sealed.size(), evicted);
+            spare = victim;
+            if(target.top + needed <= slabSize) {
+                return target;
+            }
+            sealed.add(target);
+        }
+        return null;
+    }
+
+    private void ensureBuffer(final Slab slab) {
+        if(slab.buffer == null) {
+            slab.buffer = allocate(slab.index);
+            cleared(slab);
+        }
+    }
+
+    /**
+     * @return the sealed slab with the most dead bytes, if a quarter of it is, otherwise the oldest sealed slab
+     */
+    private Slab victim() {
+        Slab victim = sealed.get(0);
+        for (Slab slab : sealed) {
+            if(slab.deadBytes.get() > victim.deadBytes.get()) {
+                victim = slab;
+            }
+        }
+        return victim.deadBytes.get() < slabSize / 4 ? sealed.get(0) : victim;
+    }
+
+    /**
+     * Moves the live values of {@code victim} to {@code target}, then clears {@code victim}.
+     *
+     * @param evict whether to evict values that weren't read since they were written or last moved, rather than
+     * move them
+     * @param force whether to evict all values, read or not
+     * @param evicted where to add the elements evicted, null if {@code evict} is false
+     */
+    private void reclaim(final Slab victim, final Slab target, final boolean evict, final boolean force,
+                         final List<Element> evicted) {
+        for (Handle handle : victim.handles) {
+            if(!handle.live || slabIndex(handle.address) != victim.index) {
+                continue;
+            }
+            if(evict && (force || !handle.referenced)) {
+                final Element element = tryEvict(handle.hash, handle);
+                if(element != null) {
+                    evicted.add(element);
+                    continue;
+                }
+            }
+            handle.referenced = false;
+            final ByteBuffer source = victim.buffer.duplicate();
+            source.position(offset(handle.address)).limit(offset(handle.address) + handle.length);
+            final ByteBuffer destination = target.buffer.duplicate();
+            destination.position(target.top);
+            destination.put(source);
+            handle.address = address(target, target.top);
+            written(target, target.top, handle);
+            target.top += handle.length;
+            target.handles.add(handle);
+        }
+        victim.writeLock().lock();
+        try {
+            victim.generation = (victim.generation + 1) & 0xFFFF;
+            victim.top = slabHeaderSize;
+            victim.deadBytes.set(0);
+            victim.handles.clear();
+            cleared(victim);
+        } finally {
+            victim.writeLock().unlock();
+        }
+    }
+
+    static long address(final Slab slab, final int offset) {
+        return ((long)slab.index << 48) | ((long)slab.generation << 32) | offset;
+    }
+
+    static int slabIndex(final long address) {
+        return (int)(address >>> 48);
+    }
+
+    static int generation(final long address) {
+        return (int)(address >>> 32) & 0xFFFF;
+    }
+
+    static int offset(final long address) {
+        return (int)address;
+    }
+
+    /**
+     * Where an entry is, which changes when it gets moved. The address holds the index of the slab, the generation of
+     * the slab the entry was written in, and its offset in the slab. The value follows the entry's header.
+     */
+    static final class Handle {
+
+        final int hash;
+        final int valueOffset;
+        final int length;
+        volatile long address;
+        volatile boolean live = true;
+        boolean referenced;
+
+        Handle(final int hash, final int valueOffset, final int length) {
+            this.hash = hash;
+            this.valueOffset = valueOffset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A buffer entries are appended to. Its generation changes whenever it gets cleared, so that handles no longer
+     * mapped to, still pointing into it, can tell their entry is gone.
+     */
+    static final class Slab extends ReentrantReadWriteLock {
+
+        final int index;
+        final AtomicInteger deadBytes = new AtomicInteger();
+        final List<Handle> handles = new ArrayList<Handle>();
+        volatile ByteBuffer buffer;
+        int generation;
+        int top;
+
+        Slab(final int index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.CacheOperationOutcomes;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.cache.CacheException;
+
+/**
+ * The store of {@link JCacheStoreEngine#PERSISTENT} caches: a {@link JCacheOffHeapStore} whose slabs are regions of a
+ * file mapped in memory, each entry logged with its key, so that a store built on the same file later gets the entries
+ * back.
+ * <br />
+ * An entry is appended with a sequence number and a checksum, and flagged dead in place once replaced or removed.
+ * Rebuilding the store scans each slab up to its first entry that isn't whole, keeping the live entry of highest
+ * sequence number for each key, so that a process killed while writing loses at most the entries being written.
+ * Compaction runs in the background, moving the entries of slabs half dead to the spare slab.
+ * <br />
+ * Flushing forces the mapped slabs to the disk; disposing the store leaves the file as it is.
+ */
+final class JCachePersistentStore extends JCacheOffHeapStore {
+
+    private static final int MAGIC = 0x4a434831;
+    private static final long COMPACTION_INTERVAL = 1000;
+
+    // the slab header
+    private static final int SLAB_MAGIC = 0;
+    private static final int SLAB_SIZE = 4;
+    private static final int SLAB_GENERATION = 8;
+    private static final int SLAB_HEADER_SIZE = 12;
+
+    // the entry header, the checksum covering all that follows the sequence number, included
+    private static final int CHECKSUM = 0;
+    private static final int LENGTH = 4;
+    private static final int GENERATION = 8;
+    private static final int STATE = 12;
+    private static final int SEQUENCE = 16;
+    private static final int CREATION_TIME = 24;
+    private static final int TIME_TO_LIVE = 32;
+    private static final int TIME_TO_IDLE = 36;
+    private static final int CACHE_DEFAULT_LIFESPAN = 40;
+    private static final int KEY_LENGTH = 41;
+    private static final int KEY = 45;
+
+    private static final byte DEAD = 0;
+    private static final byte LIVE = 1;
+
+    private final Ehcache cache;
+    private final JCacheSerializer<Object> keySerializer;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService compactor;
+    private volatile boolean closing;
+
+    /**
+     * Builds the store, getting back the entries {@code file} holds.
+     *
+     * @param cache the cache this store holds the entries of
+     * @param evictionObserver where evictions get accounted, null not to account them
+     * @param maxBytes how large the file may grow
+     * @param file the file to keep the entries in, which no other store may be using
+     * @param keySerializer serializes the keys into the file
+     */
+    JCachePersistentStore(final Ehcache cache, final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver,
+                          final long maxBytes, final File file, final JCacheSerializer<Object> keySerializer) {
+        super(cache, evictionObserver, maxBytes, SLAB_HEADER_SIZE);
+        this.cache = cache;
+        this.keySerializer = keySerializer;
+        try {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if(!directory.isDirectory() && !directory.mkdirs()) {
+                throw new CacheException("Can't create directory " + directory);
+            }
+            this.file = new RandomAccessFile(file, "rw");
+            this.channel = this.file.getChannel();
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            this.lock = fileLock;
+            if(lock == null) {
+                this.file.close();
+                throw new CacheException("Cache file " + file + " is in use");
+            }
+            try {
+                if(channel.size() > (long)slabs.length * slabSize) {
+                    channel.truncate((long)slabs.length * slabSize);
+                }
+                recover(channel.size() / slabSize);
+            } catch (RuntimeException e) {
+                this.file.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new CacheException("Can't open cache file " + file, e);
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, cache.getName() + "-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    ByteBuffer allocate(final int index) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long)index * slabSize, slabSize);
+        } catch (IOException e) {
+            throw new CacheException("Can't map cache file", e);
+        }
+    }
+
+    @Override
+    byte[] header(final Element element, final byte kind, final int length, final byte[] bytes) {
+        final byte[] key = keySerializer.serialize(element.getObjectKey());
+        final byte[] header = new byte[KEY + key.length];
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        buffer.putInt(LENGTH, header.length + bytes.length + (kind == COMPRESSED ? 5 : 1));
+        buffer.put(STATE, LIVE);
+        buffer.putLong(SEQUENCE, sequence.incrementAndGet());
+        buffer.putLong(CREATION_TIME, element.getCreationTime());
+        buffer.putInt(TIME_TO_LIVE, Record.timeToLive(element));
+        buffer.putInt(TIME_TO_IDLE, Record.timeToIdle(element));
+        buffer.put(CACHE_DEFAULT_LIFESPAN, element.usesCacheDefaultLifespan() ? (byte)1 : (byte)0);
+        buffer.putInt(KEY_LENGTH, key.length);
+        System.arraycopy(key, 0, header, KEY, key.length);
+        final CRC32 checksum = new CRC32();
+        checksum.update(header, SEQUENCE, header.length - SEQUENCE);
+        checksum.update(kind);
+        if(kind == COMPRESSED) {
+            checksum.update(ByteBuffer.allocate(4).putInt(0, length).array());
+        }
+        checksum.update(bytes);
+        buffer.putInt(CHECKSUM, (int)checksum.getValue());
+        return header;
+    }
+
+    @Override
+    void written(final Slab slab, final int offset, final Handle handle) {
+        slab.buffer.putInt(offset + GENERATION, slab.generation);
+        if(!handle.live) {
+            // released while being moved, after release flagged the entry it was moved from
+            slab.buffer.put(offset + STATE, DEAD);
+        }
+    }
+
+    @Override
+    void cleared(final Slab slab) {
+        slab.buffer.putInt(SLAB_MAGIC, MAGIC);
+        slab.buffer.putInt(SLAB_SIZE, slabSize);
+        slab.buffer.putInt(SLAB_GENERATION, slab.generation);
+    }
+
+    @Override
+    void release(final Object stored) {
+        super.release(stored);
+        if(!closing) {
+            final Handle handle = (Handle)stored;
+            final long address = handle.address;
+            final Slab slab = slabs[slabIndex(address)];
+            slab.readLock().lock();
+            try {
+                if(slab.generation == generation(address) && slab.buffer != null) {
+                    slab.buffer.put(offset(address) + STATE, DEAD);
+                }
+            } finally {
+                slab.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    synchronized void compact() {
+        if(!closing) {
+            super.compact();
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (Slab slab : slabs) {
+            final ByteBuffer buffer = slab.buffer;
+            if(buffer != null) {
+                ((MappedByteBuffer)buffer).force();
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKeyOnDisk(final Object key) {
+        return containsKey(key);
+    }
+
+    @Override
+    public long getOnDiskSizeInBytes() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if(closing) {
+            return;
+        }
+        compactor.shutdownNow();
+        closing = true;
+        super.dispose();
+        try {
+            lock.release();
+            file.close();
+        } catch (IOException e) {
+            throw new CacheException("Can't close cache file", e);
+        }
+    }
+
+    /**
+     * Scans the first {@code mapped} slabs of the file for live entries, maps their keys, and flags dead the ones
+     * superseded by an entry of higher sequence number. Slabs holding no entry, or written by another store
+     * configuration, are free.
+     */
+    private void recover(final long mapped) {
+        final Map<Object, Recovered> latest = new HashMap<Object, Recovered>();
+        for (int i = 0; i < mapped; i++) {
+            final Slab slab = slabs[i];
+            slab.buffer = allocate(i);
+            if(slab.buffer.getInt(SLAB_MAGIC) != MAGIC || slab.buffer.getInt(SLAB_SIZE) != slabSize) {
+                cleared(slab);
+                continue;
+            }
+            slab.generation = slab.buffer.getInt(SLAB_GENERATION) & 0xFFFF;
+            int offset = SLAB_HEADER_SIZE;
+            while(offset + KEY <= slabSize) {
+                final Recovered entry = read(slab, offset);
+                if(entry == null) {
+                    break;
+                }
+                sequence.set(Math.max(sequence.get(), entry.sequence));
+                if(entry.key == null) {
+                    slab.deadBytes.addAndGet(entry.length);
+                } else {
+                    final Recovered previous = latest.put(entry.key, entry);
+                    if(previous != null && previous.sequence > entry.sequence) {
+                        latest.put(entry.key, previous);
+                        kill(entry);
+                    } else if(previous != null) {
+                        kill(previous);
+                    }
+                }
+                offset += entry.length;
+            }
+            slab.top = offset;
+        }
+
+        free.clear();
+        sealed.clear();
+        spare = null;
+        for (int i = slabs.length - 1; i >= 0; i--) {
+            if(slabs[i].top > SLAB_HEADER_SIZE) {
+                sealed.add(slabs[i]);
+            } else if(spare == null) {
+                spare = slabs[i];
+            } else {
+                free.addFirst(slabs[i]);
+            }
+        }
+        if(spare == null) {
+            // killed while compacting a full file: drop the slab holding the fewest live bytes
+            spare = sealed.get(0);
+            for (Slab slab : sealed) {
+                if(slab.top - slab.deadBytes.get() < spare.top - spare.deadBytes.get()) {
+                    spare = slab;
+                }
+            }
+            sealed.remove(spare);
+            for (Iterator<Recovered> iterator = latest.values().iterator(); iterator.hasNext(); ) {
+                if(iterator.next().slab == spare) {
+                    iterator.remove();
+                }
+            }
+            spare.generation = (spare.generation + 1) & 0xFFFF;
+            spare.top = SLAB_HEADER_SIZE;
+            spare.deadBytes.set(0);
+            cleared(spare);
+        }
+
+        for (Recovered entry : latest.values()) {
+            final Element element = new Element(entry.key, null, 1L, entry.creationTime, entry.creationTime, 0L,
+                entry.cacheDefaultLifespan, entry.timeToLive, entry.timeToIdle, entry.creationTime);
+            if(element.isExpired(cache.getCacheConfiguration())) {
+                kill(entry);
+                continue;
+            }
+            final Handle handle = new Handle(hash(entry.key), KEY + entry.keyLength, entry.length);
+            handle.address = address(entry.slab, entry.offset);
+            entry.slab.handles.add(handle);
+            liveBytes.addAndGet(entry.length);
+            restore(element, handle);
+        }
+    }
+
+    /**
+     * @return the entry at {@code offset} of {@code slab}, its key left null if it is dead, or null if there is no whole
+     * entry there
+     */
+    private Recovered read(final Slab slab, final int offset) {
+        final ByteBuffer buffer = slab.buffer;
+        final int length = buffer.getInt(offset + LENGTH);
+        if(length < KEY + 1 || length > slabSize - offset || buffer.getInt(offset + GENERATION) != slab.generation) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        final ByteBuffer entry = ByteBuffer.wrap(bytes);
+        final int keyLength = entry.getInt(KEY_LENGTH);
+        if(keyLength < 0 || keyLength > length - KEY - 1) {
+            return null;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes, SEQUENCE, length - SEQUENCE);
+        if((int)checksum.getValue() != entry.getInt(CHECKSUM)) {
+            return null;
+        }
+        final Recovered recovered = new Recovered(slab, offset, length, keyLength);
+        recovered.sequence = entry.getLong(SEQUENCE);
+        if(entry.get(STATE) == LIVE) {
+            final byte[] key = new byte[keyLength];
+            System.arraycopy(bytes, KEY, key, 0, keyLength);
+            try {
+                recovered.key = keySerializer.deserialize(key, classLoader);
+            } catch (RuntimeException e) {
+                // the key's class changed or went away, the entry is as good as dead
+                return recovered;
+            }
+            recovered.creationTime = entry.getLong(CREATION_TIME);
+            recovered.timeToLive = entry.getInt(TIME_TO_LIVE);
+            recovered.timeToIdle = entry.getInt(TIME_TO_IDLE);
+            recovered.cacheDefaultLifespan = entry.get(CACHE_DEFAULT_LIFESPAN) != 0;
+        }
+        return recovered;
+    }
+
+    private void kill(final Recovered entry) {
+        entry.slab.buffer.put(entry.offset + STATE, DEAD);
+        entry.slab.deadBytes.addAndGet(entry.length);
+    }
+
+    /**
+     * An entry found scanning the file.
+     */
+    private static final class Recovered {
+
+        final Slab slab;
+        final int offset;
+        final int length;
+        final int keyLength;
+        long sequence;
+        Object key;
+        long creationTime;
+        int timeToLive;
+        int timeToIdle;
+        boolean cacheDefaultLifespan;
+
+        Recovered(final Slab slab, final int offset, final int length, final int keyLength) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.keyLength = keyLength;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.cache.integration.CacheLoader;
+
+/**
+ * Reloads the entries of a read-through {@link JCache} on its loader pool while their current value keeps being
+ * served: ahead of their expiry, as configured by {@link JCacheConfiguration#setRefreshAheadFactor(float)}, or once
+ * they expired but are kept for {@link JCacheConfiguration#setStaleWhileRevalidateSeconds(int)}.<br />
+ * Expired entries aren't kept in the cache itself, which sees them as gone, but apart, up to
+ * {@value #MAX_STALE_ENTRIES} of them, until their grace period ended or their key got mapped or removed. Entries
+ * Ehcache drops without an expiry event, as when read quietly once expired, aren't kept.<br />
+ * A key is refreshed once at a time. Refreshes the pool can't take are dropped, the next access trying again, and so
+ * are failed ones: the entry then expires as it would have. Removing a key, or clearing the cache, cancels the refreshes
+ * in flight, whose loaded values are then dropped.
+ */
+final class JCacheRefresher<K, V> implements CacheEventListener {
+
+    static final int MAX_STALE_ENTRIES = 10000;
+
+    private final JCache<K, V> jCache;
+    private final CacheLoader<K, V> cacheLoader;
+    private final JCacheLoaderExecutor executor;
+    private final float refreshAheadFactor;
+    private final int graceSeconds;
+    private final ConcurrentMap<Object, Element> refreshing = new ConcurrentHashMap<Object, Element>();
+    private final ConcurrentMap<Object, Element> stale = new ConcurrentHashMap<Object, Element>();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    JCacheRefresher(final JCache<K, V> jCache, final CacheLoader<K, V> cacheLoader, final JCacheLoaderExecutor executor,
+                    final float refreshAheadFactor, final int graceSeconds) {
+        this.jCache = jCache;
+        this.cacheLoader = cacheLoader;
+        this.executor = executor;
+        this.refreshAheadFactor = refreshAheadFactor;
+        this.graceSeconds = graceSeconds;
+    }
+
+    /**
+     * Refreshes {@code key} if {@code element}, the mapping just read, is due for a refresh ahead of its expiry.
+     * Entries living as long as the cache defaults to, or forever, are left alone.
+     */
+    void refreshIfDue(final K key, final Element element) {
+        if(refreshAheadFactor == 0 || element.isEternal() || element.usesCacheDefaultLifespan()) {
+            return;
+        }
+        if(System.currentTimeMillis() - element.getCreationTime() >= element.getTimeToLive() * 1000L * refreshAheadFactor) {
+            refresh(key, element);
+        }
+    }
+
+    /**
+     * Refreshes {@code key}, which the cache doesn't map, if it expired less than the grace period ago.
+     *
+     * @return the element {@code key} expired with, null if there is none or its grace period ended
+     */
+    Element getStale(final K key) {
+        final Element element = stale.get(key);
+        if(element == null) {
+            return null;
+        }
+        if(!inGracePeriod(element, System.currentTimeMillis())) {
+            stale.remove(key, element);
+            return null;
+        }
+        staleHits.incrementAndGet();
+        refresh(key, element);
+        return element;
+    }
+
+    /**
+     * Whether the refresh of {@code key} started from {@code element} still stands: no removal cancelled it and, unless
+     * the cache still maps the key, the key is still stale with {@code element}.
+     */
+    boolean isRefreshing(final Object key, final Element element, final boolean mapped) {
+        return refreshing.get(key) == element && (mapped || stale.get(key) == element);
+    }
+
+    private boolean inGracePeriod(final Element element, final long now) {
+        return now < element.getExpirationTime() + graceSeconds * 1000L;
+    }
+
+    private void refresh(final K key, final Element element) {
+        if(refreshing.putIfAbsent(key, element) != null) {
+            return;
+        }
+        final Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final V value = cacheLoader.load(key);
+                    if(value != null && jCache.putRefreshed(key, element, value)) {
+                        refreshes.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    // the entry expires as it would have
+                } finally {
+                    refreshing.remove(key, element);
+                }
+            }
+        };
+        if(!executor.tryExecute(refresh)) {
+            refreshing.remove(key, element);
+        }
+    }
+
+    @Override
+    public void notifyElementPut(final Ehcache cache, final Element element) {
+        stale.remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementUpdated(final Ehcache cache, final Element element) {
+        stale.remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementRemoved(final Ehcache cache, final Element element) {
+        stale.remove(element.getObjectKey());
+        refreshing.remove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementExpired(final Ehcache cache, final Element element) {
+        if(element == null || graceSeconds == 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if(stale.size() >= MAX_STALE_ENTRIES) {
+            for (Iterator<Element> iterator = stale.values().iterator(); iterator.hasNext(); ) {
+                if(!inGracePeriod(iterator.next(), now)) {
+                    iterator.remove();
+                }
+            }
+        }
+        if(stale.size() < MAX_STALE_ENTRIES && inGracePeriod(element, now)) {
+            stale.put(element.getObjectKey(), element);
+        }
+    }
+
+    @Override
+    public void notifyElementEvicted(final Ehcache cache, final Element element) {
+        // evicted before expiring: nothing stale to serve
+    }
+
+    @Override
+    public void notifyRemoveAll(final Ehcache cache) {
+        stale.clear();
+        refreshing.clear();
+    }
+
+    @Override
+    public void dispose() {
+        stale.clear();
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    long getRefreshes() {
+        return refreshes.get();
+    }
+
+    long getStaleHits() {
+        return staleHits.get();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import java.util.Arrays;
+
+/**
+ * A value stored in its serialized form by {@link JCacheCopyOnWriteStrategy}. Two of them are equal when their bytes
+ * are, which is what Ehcache's value comparisons then end up comparing.
+ */
+class JCacheSerializedValue {
+
+    private final byte[] bytes;
+
+    JCacheSerializedValue(final byte[] bytes) {
+        if(bytes == null) throw new NullPointerException();
+        this.bytes = bytes;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    boolean matches(final byte[] other) {
+        return Arrays.equals(bytes, other);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || o != null && o.getClass() == getClass() && Arrays.equals(bytes, ((JCacheSerializedValue)o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * Turns keys or values of a store-by-value cache into bytes and back, which is how such a cache copies them. Set one
+ * with {@link JCacheConfiguration#setKeySerializer(JCacheSerializer)} or
+ * {@link JCacheConfiguration#setValueSerializer(JCacheSerializer)}; {@link JCacheSerializers#DEFAULT} is used
+ * otherwise.
+ * <br />
+ * Implementations are shared by all threads using the cache, so need to be thread-safe.
+ *
+ * @param <T> the type of objects serialized
+ */
+public interface JCacheSerializer<T> {
+
+    /**
+     * @param object the object to serialize, never null
+     * @return its serialized form
+     * @throws net.sf.ehcache.CacheException if the object can't be serialized
+     */
+    byte[] serialize(T object);
+
+    /**
+     * @param bytes a serialized form, as returned by {@link #serialize(Object)}
+     * @param classLoader the class loader to resolve classes with
+     * @return a new object equal to the one serialized
+     * @throws net.sf.ehcache.CacheException if the object can't be deserialized
+     */
+    T deserialize(byte[] bytes, ClassLoader classLoader);
+}
@@ -0,0 +1,468 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.CacheException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The serializers shipped with this implementation.
+ * <br />
+ * {@link #DEFAULT} writes strings, boxed primitives, byte arrays, enums and {@link Externalizable}s in a compact form
+ * of its own, prefixed with a one byte tag, and everything else with Java serialization.
+ * <br />
+ * Each thread serializes into a buffer and with object streams it keeps across calls, and classes are resolved through
+ * a cache per class loader, so that copying allocates little besides the copy itself.
+ */
+public final class JCacheSerializers {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte JAVA = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte CHARACTER = 6;
+    private static final byte BOOLEAN = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte BYTES = 10;
+    private static final byte ENUM = 11;
+    private static final byte EXTERNALIZABLE = 12;
+    private static final int NO_TAG = -1;
+
+    private static final byte[] STREAM_HEADER = {
+        (byte)(ObjectStreamConstants.STREAM_MAGIC >>> 8), (byte)ObjectStreamConstants.STREAM_MAGIC,
+        (byte)(ObjectStreamConstants.STREAM_VERSION >>> 8), (byte)ObjectStreamConstants.STREAM_VERSION
+    };
+
+    private static final ThreadLocal<Streams> STREAMS = new ThreadLocal<Streams>() {
+        @Override
+        protected Streams initialValue() {
+            return new Streams();
+        }
+    };
+
+    /**
+     * Classes resolved by name, per class loader. Neither the loaders nor their classes are held on to strongly.
+     */
+    private static final Map<ClassLoader, ConcurrentMap<String, WeakReference<Class<?>>>> RESOLVED_CLASSES =
+        new WeakHashMap<ClassLoader, ConcurrentMap<String, WeakReference<Class<?>>>>();
+
+    /**
+     * Java serialization, as store-by-value caches used before serializers could be configured.
+     */
+    public static final JCacheSerializer<Object> JAVA_SERIALIZATION = new JCacheSerializer<Object>() {
+        @Override
+        public byte[] serialize(final Object object) {
+            return writeObject(NO_TAG, object, false);
+        }
+
+        @Override
+        public Object deserialize(final byte[] bytes, final ClassLoader classLoader) {
+            return readObject(bytes, 0, classLoader);
+        }
+    };
+
+    /**
+     * Fast codecs for common types, Java serialization for the others.
+     */
+    public static final JCacheSerializer<Object> DEFAULT = new JCacheSerializer<Object>() {
+        @Override
+        public byte[] serialize(final Object object) {
+            if (object instanceof String) {
+                return tagged(STRING, ((String)object).getBytes(UTF_8));
+            } else if (object instanceof Integer) {
+                return putLong(new byte[5], INTEGER, (Integer)object, 4);
+            } else if (object instanceof Long) {
+                return putLong(new byte[9], LONG, (Long)object, 8);
+            } else if (object instanceof byte[]) {
+                return tagged(BYTES, (byte[])object);
+            } else if (object instanceof Short) {
+                return putLong(new byte[3], SHORT, (Short)object, 2);
+            } else if (object instanceof Byte) {
+                return new byte[] { BYTE, (Byte)object };
+            } else if (object instanceof Character) {
+                return putLong(new byte[3], CHARACTER, (Character)object, 2);
+            } else if (object instanceof Boolean) {
+                return new byte[] { BOOLEAN, (byte)((Boolean)object ? 1 : 0) };
+            } else if (object instanceof Float) {
+                return putLong(new byte[5], FLOAT, Float.floatToRawIntBits((Float)object), 4);
+            } else if (object instanceof Double) {
+                return putLong(new byte[9], DOUBLE, Double.doubleToRawLongBits((Double)object), 8);
+            } else if (object instanceof Enum) {
+                final Enum<?> e = (Enum<?>)object;
+                return tagged(ENUM, (e.getDeclaringClass().getName() + ':' + e.name()).getBytes(UTF_8));
+            } else if (object instanceof Externalizable) {
+                return writeObject(EXTERNALIZABLE, object, true);
+            }
+            return writeObject(JAVA, object, false);
+        }
+
+        @Override
+        public Object deserialize(final byte[] bytes, final ClassLoader classLoader) {
+            switch (bytes[0]) {
+                case STRING:
+                    return new String(bytes, 1, bytes.length - 1, UTF_8);
+                case INTEGER:
+                    return (int)getLong(bytes, 4);
+                case LONG:
+                    return getLong(bytes, 8);
+                case BYTES:
+                    final byte[] copy = new byte[bytes.length - 1];
+                    System.arraycopy(bytes, 1, copy, 0, copy.length);
+                    return copy;
+                case SHORT:
+                    return (short)getLong(bytes, 2);
+                case BYTE:
+                    return bytes[1];
+                case CHARACTER:
+                    return (char)getLong(bytes, 2);
+                case BOOLEAN:
+                    return bytes[1] != 0;
+                case FLOAT:
+                    return Float.intBitsToFloat((int)getLong(bytes, 4));
+                case DOUBLE:
+                    return Double.longBitsToDouble(getLong(bytes, 8));
+                case ENUM:
+                    final String constant = new String(bytes, 1, bytes.length - 1, UTF_8);
+                    final int separator = constant.lastIndexOf(':');
+                    return Enum.valueOf((Class)resolve(constant.substring(0, separator), classLoader), constant.substring(separator + 1));
+                case EXTERNALIZABLE:
+                    return readExternal(bytes, classLoader);
+                case JAVA:
+                    return readObject(bytes, 1, classLoader);
+                default:
+                    throw new CacheException("Unknown serialized form " + bytes[0]);
+            }
+        }
+    };
+
+    private JCacheSerializers() {
+    }
+
+    /**
+     * @param serialized a form serialized by {@link #DEFAULT}
+     * @return a read-only view of the array it holds, sharing its bytes, or null if it doesn't hold a {@code byte[]}
+     */
+    static ByteBuffer bytesView(final byte[] serialized) {
+        if (serialized.length == 0 || serialized[0] != BYTES) {
+            return null;
+        }
+        return ByteBuffer.wrap(serialized, 1, serialized.length - 1).slice().asReadOnlyBuffer();
+    }
+
+    private static byte[] tagged(final byte tag, final byte[] payload) {
+        final byte[] bytes = new byte[payload.length + 1];
+        bytes[0] = tag;
+        System.arraycopy(payload, 0, bytes, 1, payload.length);
+        return bytes;
+    }
+
+    private static byte[] putLong(final byte[] bytes, final byte tag, final long value, final int length) {
+        bytes[0] = tag;
+        for (int i = 0; i < length; i++) {
+            bytes[length - i] = (byte)(value >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static long getLong(final byte[] bytes, final int length) {
+        long value = 0;
+        for (int i = 1; i <= length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static Class<?> resolve(final String name, final ClassLoader classLoader) throws CacheException {
+        try {
+            return STREAMS.get().resolve(name, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new CacheException("Couldn't load " + name, e);
+        }
+    }
+
+    /**
+     * Java serializes {@code object}, or has the {@link Externalizable} write itself behind its class name, after
+     * {@code tag} unless that is {@link #NO_TAG}. The stream is reset before the object, so it can be read with a
+     * reused {@link ObjectInputStream}.
+     */
+    private static byte[] writeObject(final int tag, final Object object, final boolean external) {
+        final Streams streams = Streams.acquire();
+        try {
+            if (tag != NO_TAG) {
+                streams.buffer.write(tag);
+            }
+            streams.buffer.write(STREAM_HEADER, 0, STREAM_HEADER.length);
+            final ObjectOutputStream oos = streams.out();
+            oos.reset();
+            if (external) {
+                oos.writeUTF(object.getClass().getName());
+                ((Externalizable)object).writeExternal(oos);
+            } else {
+                oos.writeObject(object);
+            }
+            oos.flush();
+            final byte[] bytes = streams.buffer.toByteArray();
+            streams.written();
+            return bytes;
+        } catch (Exception e) {
+            streams.discard();
+            if (external) {
+                throw new CacheException("Couldn't serialize " + object.getClass().getName(), e);
+            }
+            throw new CacheException("When configured copyOnRead or copyOnWrite, a Store will only accept Serializable values", e);
+        }
+    }
+
+    private static Object readObject(final byte[] bytes, final int offset, final ClassLoader classLoader) {
+        final Streams streams = Streams.acquire();
+        try {
+            final Object object = streams.in(bytes, offset, classLoader).readObject();
+            streams.read();
+            return object;
+        } catch (Exception e) {
+            streams.discard();
+            throw new CacheException("When configured copyOnRead or copyOnWrite, a Store will only accept Serializable values", e);
+        }
+    }
+
+    /**
+     * Reads an {@link Externalizable} with a stream of its own: unlike after {@link ObjectInputStream#readObject()},
+     * the state of a stream {@link Externalizable#readExternal} read from is unknown.
+     */
+    private static Object readExternal(final byte[] bytes, final ClassLoader classLoader) {
+        try {
+            final ObjectInputStream ois = new PreferredClassLoaderObjectInputStream(
+                new ByteArrayInputStream(bytes, 1, bytes.length - 1), STREAMS.get(), classLoader);
+            final Externalizable object = (Externalizable)resolve(ois.readUTF(), classLoader).newInstance();
+            object.readExternal(ois);
+            return object;
+        } catch (Exception e) {
+            throw new CacheException("Couldn't deserialize Externalizable", e);
+        }
+    }
+
+    private static boolean isReset(final byte[] bytes, final int offset) {
+        if (bytes.length <= offset + STREAM_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < STREAM_HEADER.length; i++) {
+            if (bytes[offset + i] != STREAM_HEADER[i]) {
+                return false;
+            }
+        }
+        return bytes[offset + STREAM_HEADER.length] == ObjectStreamConstants.TC_RESET;
+    }
+
+    /**
+     * What a thread serializes with: the buffer serialized forms are written to, the object streams writing and
+     * reading them, and the classes resolved by the class loader it last used.
+     * <br />
+     * Streams that failed are dropped, as their state is then unknown. A thread serializing while already at it, from
+     * some writeObject or readObject method, gets streams of its own.
+     */
+    private static final class Streams {
+        private final Buffer buffer = new Buffer();
+        private final Source source = new Source();
+        private ObjectOutputStream out;
+        private PreferredClassLoaderObjectInputStream in;
+        private boolean busy;
+        private WeakReference<ClassLoader> classLoader;
+        private ConcurrentMap<String, WeakReference<Class<?>>> classes;
+
+        static Streams acquire() {
+            final Streams streams = STREAMS.get();
+            if (streams.busy) {
+                return new Streams();
+            }
+            streams.busy = true;
+            return streams;
+        }
+
+        ObjectOutputStream out() throws IOException {
+            if (out == null) {
+                out = new ObjectOutputStream(buffer) {
+                    @Override
+                    protected void writeStreamHeader() {
+                        // written to the buffer for each object instead
+                    }
+                };
+            }
+            return out;
+        }
+
+        /**
+         * A reader positioned on the object serialized at {@code offset}, the reused one if {@link #writeObject} wrote
+         * it, as that object then starts off by clearing what the reader remembers of the previous one.
+         */
+        ObjectInputStream in(final byte[] bytes, final int offset, final ClassLoader classLoader) throws IOException {
+            if (!isReset(bytes, offset)) {
+                return new PreferredClassLoaderObjectInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset),
+                    this, classLoader);
+            }
+            if (in == null) {
+                source.set(STREAM_HEADER, 0);
+                in = new PreferredClassLoaderObjectInputStream(source, this, classLoader);
+            }
+            source.set(bytes, offset + STREAM_HEADER.length);
+            in.classLoader = classLoader;
+            return in;
+        }
+
+        void written() throws IOException {
+            // forget the object written, the reset this writes is dropped with the buffer's content
+            out.reset();
+            out.flush();
+            buffer.clear();
+            busy = false;
+        }
+
+        void read() {
+            source.clear();
+            busy = false;
+        }
+
+        void discard() {
+            if (STREAMS.get() == this) {
+                STREAMS.remove();
+            }
+        }
+
+        Class<?> resolve(final String name, final ClassLoader loader) throws ClassNotFoundException {
+            final ConcurrentMap<String, WeakReference<Class<?>>> resolved = classesOf(loader);
+            final WeakReference<Class<?>> reference = resolved.get(name);
+            Class<?> type = reference == null ? null : reference.get();
+            if (type == null) {
+                type = Class.forName(name, false, loader);
+                resolved.put(name, new WeakReference<Class<?>>(type));
+            }
+            return type;
+        }
+
+        private ConcurrentMap<String, WeakReference<Class<?>>> classesOf(final ClassLoader loader) {
+            if (classes == null || classLoader.get() != loader || loader == null) {
+                synchronized (RESOLVED_CLASSES) {
+                    classes = RESOLVED_CLASSES.get(loader);
+                    if (classes == null) {
+                        classes = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+                        RESOLVED_CLASSES.put(loader, classes);
+                    }
+                }
+                classLoader = new WeakReference<ClassLoader>(loader);
+            }
+            return classes;
+        }
+    }
+
+    /**
+     * A growable buffer that gives up its array once it got large, rather than retaining it for the thread's lifetime.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private static final int INITIAL_SIZE = 256;
+        private static final int RETAINED_SIZE = 64 * 1024;
+
+        Buffer() {
+            super(INITIAL_SIZE);
+        }
+
+        void clear() {
+            if (buf.length > RETAINED_SIZE) {
+                buf = new byte[INITIAL_SIZE];
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * An input stream over whichever bytes are being read.
+     */
+    private static final class Source extends InputStream {
+        private static final byte[] EMPTY = new byte[0];
+
+        private byte[] bytes = EMPTY;
+        private int position;
+
+        void set(final byte[] bytes, final int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        void clear() {
+            set(EMPTY, 0);
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (position >= bytes.length) {
+                return len == 0 ? 0 : -1;
+            }
+            final int n = Math.min(len, bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return bytes.length - position;
+        }
+    }
+
+    /**
+     * Resolves classes with the class loader the cache was configured with.
+     */
+    private static class PreferredClassLoaderObjectInputStream extends ObjectInputStream {
+        private final Streams streams;
+        private ClassLoader classLoader;
+
+        PreferredClassLoaderObjectInputStream(final InputStream in, final Streams streams, final ClassLoader classLoader)
+            throws IOException {
+            super(in);
+            this.streams = streams;
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            return streams.resolve(desc.getName(), classLoader);
+        }
+    }
+}
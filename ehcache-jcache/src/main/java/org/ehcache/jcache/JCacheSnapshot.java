@@ -0,0 +1,353 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.cache.CacheException;
+
+/**
+ * Writes the entries of a {@link JCache} to a file and reads them back, while the cache keeps serving.<br />
+ * A snapshot is a magic number, a record per entry and a trailer:
+ * <pre>
+ * record:  key length (int) | value length (int) | expiration time (long) | time to idle (int) | key | value
+ * trailer: -1 (int) | record count (long)
+ * </pre>
+ * Keys and values are serialized by the serializers of the cache. The expiration time is absolute, 0 for eternal
+ * entries, so that restored entries only live for what remained of their lifespan, the cache's default one included.
+ */
+final class JCacheSnapshot {
+
+    static final int MAGIC = 0x4a435331;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 12;
+    private static final int END = -1;
+    private static final String PREVIOUS_SUFFIX = ".previous";
+
+    private JCacheSnapshot() {
+    }
+
+    /**
+     * Streams the entries of {@code jCache} to {@code file}, walking its keys weakly and reading each entry quietly, so
+     * that neither the cache is locked nor its entries copied all at once. Entries put or removed meanwhile may or may
+     * not make it. The snapshot is written next to {@code file} and only replaces it once complete, renaming it over
+     * {@code file} where the platform allows.
+     *
+     * @return the number of entries written
+     */
+    static long write(final JCache<?, ?> jCache, final File file) {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new CacheException("Can't create directory " + parent);
+        }
+        final File partial = new File(file.getPath() + ".partial");
+        final JCacheSerializer<Object> keySerializer = jCache.getKeySerializer();
+        long records = 0;
+        try {
+            final FileOutputStream out = new FileOutputStream(partial);
+            try {
+                final FileChannel channel = out.getChannel();
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                buffer.putInt(MAGIC);
+                final Iterator<?> keys = JCacheStoreAccess.keys(jCache.unwrap(Ehcache.class));
+                while(keys.hasNext()) {
+                    final Element element = jCache.getStoredElement(keys.next());
+                    if(element == null || element.isExpired()) {
+                        continue;
+                    }
+                    final byte[] key = keySerializer.serialize(element.getObjectKey());
+                    final byte[] value = jCache.serializeStoredValue(element.getObjectValue());
+                    if(buffer.remaining() < RECORD_HEADER_SIZE) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putInt(key.length).putInt(value.length).putLong(expirationTime(element)).putInt(element.getTimeToIdle());
+                    put(channel, buffer, key);
+                    put(channel, buffer, value);
+                    records++;
+                }
+                if(buffer.remaining() < TRAILER_SIZE) {
+                    drain(channel, buffer);
+                }
+                buffer.putInt(END).putLong(records);
+                drain(channel, buffer);
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw new CacheException("Couldn't write snapshot " + file, e);
+        } catch (RuntimeException e) {
+            partial.delete();
+            throw e;
+        }
+        replace(partial, file);
+        return records;
+    }
+
+    /**
+     * Moves the complete snapshot {@code partial} in place of {@code file}. Where renaming can't replace a file, the
+     * snapshot it replaces is moved aside first, and only deleted once the new one is in place, so that a crash in
+     * between leaves a snapshot to read, see {@link #current(File)}.
+     */
+    private static void replace(final File partial, final File file) {
+        final File previous = new File(file.getPath() + PREVIOUS_SUFFIX);
+        if(!partial.renameTo(file)) {
+            if(!previous.delete() && previous.exists() || !file.renameTo(previous) || !partial.renameTo(file)) {
+                partial.delete();
+                throw new CacheException("Couldn't replace snapshot " + file);
+            }
+        }
+        previous.delete();
+    }
+
+    /**
+     * @return {@code file}, or the snapshot it was replacing if a crash left it moved aside by {@link #replace(File, File)}
+     */
+    static File current(final File file) {
+        final File previous = new File(file.getPath() + PREVIOUS_SUFFIX);
+        return !file.isFile() && previous.isFile() ? previous : file;
+    }
+
+    /**
+     * Streams the entries of the snapshot {@code file} into {@code jCache}, batches of them being deserialized and
+     * inserted concurrently on its loader executor. Only a few batches are read ahead, whatever the size of the
+     * snapshot. Entries that expired since, or whose key the cache already maps, are skipped; no writer is called.
+     * Entries restored before a truncated or corrupt part of the file stay in the cache. If a crash interrupted the
+     * replacement of {@code file}, the snapshot it was replacing is read.
+     *
+     * @return the number of entries inserted
+     */
+    static long read(final JCache<?, ?> jCache, final File file) {
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(current(file));
+        } catch (FileNotFoundException e) {
+            throw new CacheException("No snapshot " + file, e);
+        }
+        final JCacheLoaderExecutor executor = jCache.getLoaderExecutor();
+        final List<Callable<Long>> batches = new ArrayList<Callable<Long>>();
+        long restored = 0;
+        CacheException failure = null;
+        try {
+            try {
+                final FileChannel channel = in.getChannel();
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                buffer.flip();
+                fill(channel, buffer, 4);
+                if(buffer.getInt() != MAGIC) {
+                    throw new CacheException(file + " isn't a cache snapshot");
+                }
+                long records = 0;
+                List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+                while(true) {
+                    fill(channel, buffer, 4);
+                    final int keyLength = buffer.getInt();
+                    if(keyLength == END) {
+                        fill(channel, buffer, TRAILER_SIZE - 4);
+                        if(buffer.getLong() != records) {
+                            throw new CacheException("Snapshot " + file + " is corrupt");
+                        }
+                        break;
+                    }
+                    fill(channel, buffer, RECORD_HEADER_SIZE - 4);
+                    final int valueLength = buffer.getInt();
+                    final long expirationTime = buffer.getLong();
+                    final int timeToIdle = buffer.getInt();
+                    if(keyLength < 0 || valueLength < 0) {
+                        throw new CacheException("Snapshot " + file + " is corrupt");
+                    }
+                    batch.add(new Record(get(channel, buffer, keyLength), get(channel, buffer, valueLength), expirationTime, timeToIdle));
+                    records++;
+                    if(batch.size() == BATCH_SIZE) {
+                        batches.add(insertion(jCache, batch));
+                        batch = new ArrayList<Record>(BATCH_SIZE);
+                        if(batches.size() >= executor.getParallelism()) {
+                            restored += insert(executor, batches);
+                        }
+                    }
+                }
+                batches.add(insertion(jCache, batch));
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            failure = new CacheException("Snapshot " + file + " is truncated", e);
+        } catch (IOException e) {
+            failure = new CacheException("Couldn't read snapshot " + file, e);
+        } catch (CacheException e) {
+            failure = e;
+        }
+        // the entries read before a failure are restored all the same, which mustn't hide it
+        try {
+            restored += insert(executor, batches);
+        } catch (CacheException e) {
+            if(failure == null) {
+                throw e;
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        return restored;
+    }
+
+    private static Callable<Long> insertion(final JCache<?, ?> jCache, final List<Record> records) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                final JCacheSerializer<Object> keySerializer = jCache.getKeySerializer();
+                final JCacheSerializer<Object> valueSerializer = jCache.getValueSerializer();
+                final ClassLoader classLoader = jCache.unwrap(Ehcache.class).getCacheConfiguration().getClassLoader();
+                long inserted = 0;
+                for (Record record : records) {
+                    final Element element = toElement(keySerializer.deserialize(record.key, classLoader),
+                        valueSerializer.deserialize(record.value, classLoader), record.expirationTime, record.timeToIdle);
+                    if(element != null && jCache.restoreEntry(element)) {
+                        inserted++;
+                    }
+                }
+                return inserted;
+            }
+        };
+    }
+
+    /**
+     * @return the absolute expiration time of {@code element} as recorded, whether its lifespan is its own or the
+     * cache's, 0 if it is eternal
+     */
+    static long expirationTime(final Element element) {
+        return element.isEternal() ? 0 : element.getExpirationTime();
+    }
+
+    /**
+     * An element living for what remains until {@code expirationTime}, as recorded by {@link #expirationTime(Element)}.
+     *
+     * @return the element, null if it expired already
+     */
+    static Element toElement(final Object key, final Object value, final long expirationTime, final int timeToIdle) {
+        final Element element = new Element(key, value);
+        if(expirationTime != 0) {
+            final long remaining = expirationTime - System.currentTimeMillis();
+            if(remaining <= 0) {
+                return null;
+            }
+            element.setTimeToLive((int)Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+            element.setTimeToIdle(timeToIdle);
+        }
+        return element;
+    }
+
+    private static long insert(final JCacheLoaderExecutor executor, final List<Callable<Long>> batches) {
+        long inserted = 0;
+        try {
+            for (Long count : executor.invokeAll(batches)) {
+                inserted += count;
+            }
+        } catch (CacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CacheException(e);
+        } finally {
+            batches.clear();
+        }
+        return inserted;
+    }
+
+    private static void put(final FileChannel channel, final ByteBuffer buffer, final byte[] bytes) throws IOException {
+        int offset = 0;
+        while(offset < bytes.length) {
+            if(!buffer.hasRemaining()) {
+                drain(channel, buffer);
+            }
+            final int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private static void drain(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[] get(final FileChannel channel, final ByteBuffer buffer, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+        while(offset < length) {
+            if(!buffer.hasRemaining()) {
+                fill(channel, buffer, 1);
+            }
+            final int chunk = Math.min(buffer.remaining(), length - offset);
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads from {@code channel} until {@code buffer} has at least {@code length} bytes left to get.
+     */
+    private static void fill(final FileChannel channel, final ByteBuffer buffer, final int length) throws IOException {
+        if(buffer.remaining() >= length) {
+            return;
+        }
+        buffer.compact();
+        try {
+            while(buffer.position() < length) {
+                if(channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    private static final class Record {
+        private final byte[] key;
+        private final byte[] value;
+        private final long expirationTime;
+        private final int timeToIdle;
+
+        private Record(final byte[] key, final byte[] value, final long expirationTime, final int timeToIdle) {
+            this.key = key;
+            this.value = value;
+            this.expirationTime = expirationTime;
+            this.timeToIdle = timeToIdle;
+        }
+    }
+}
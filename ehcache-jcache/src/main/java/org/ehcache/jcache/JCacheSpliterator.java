@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Element;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.cache.Cache;
+
+/**
+ * A splittable traversal of the entries of a {@link JCache}, for scanning a cache from several threads: split it with
+ * {@link #trySplit()} until there are enough parts, then have each thread iterate over one.
+ * <br />
+ * It traverses a snapshot of the keys the cache held when it was created, reading each entry when reaching it. Entries
+ * removed meanwhile are skipped, those added meanwhile aren't seen. No lock is held while traversing.
+ * <br />
+ * Entries are read the way the cache's own iterator reads them, quietly if
+ * {@link JCacheConfiguration#isQuietIteration()}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class JCacheSpliterator<K, V> implements Iterator<Cache.Entry<K, V>> {
+
+    private final JCache<K, V> jCache;
+    private final Object[] keys;
+    private final int fence;
+    private int index;
+    private Cache.Entry<K, V> next;
+
+    JCacheSpliterator(final JCache<K, V> jCache, final Object[] keys, final int origin, final int fence) {
+        this.jCache = jCache;
+        this.keys = keys;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    /**
+     * Hands the first half of the entries left to traverse to a new spliterator, keeping the second half.
+     *
+     * @return a spliterator over the first half, or null if there's too little left to split
+     */
+    public JCacheSpliterator<K, V> trySplit() {
+        final int mid = (index + fence) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        final JCacheSpliterator<K, V> prefix = new JCacheSpliterator<K, V>(jCache, keys, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    /**
+     * @return the number of entries left to traverse, less those removed from the cache since this was created
+     */
+    public long estimateSize() {
+        return fence - index + (next == null ? 0 : 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && index < fence) {
+            final Element element = jCache.readForIteration((K)keys[index++]);
+            if (element != null) {
+                next = jCache.toEntry(element);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Cache.Entry<K, V> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Cache.Entry<K, V> entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
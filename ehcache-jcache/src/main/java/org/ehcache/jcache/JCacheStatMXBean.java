@@ -1,11 +1,9 @@
 package org.ehcache.jcache;
 
-import javax.cache.management.CacheStatisticsMXBean;
-
 /**
  * @author Alex Snaps
  */
-public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXBean {
+public class JCacheStatMXBean extends JCacheMXBean implements ExtendedCacheStatisticsMXBean {
 
     private long pCacheHits;
     private long pCacheMisses;
@@ -13,6 +11,15 @@ public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXB
     private long pCachePuts;
     private long pCacheRemovals;
     private long pCacheEvictions;
+    private long pCompressions;
+    private long pCompressionNanos;
+    private long pUncompressedBytes;
+    private long pCompressedBytes;
+    private long pDecompressions;
+    private long pDecompressionNanos;
+    private long pRefreshes;
+    private long pStaleHits;
+    private long pNegativeHits;
 
     public JCacheStatMXBean(final JCache jCache) {
         super(jCache, "Statistics");
@@ -21,11 +28,29 @@ public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXB
     @Override
     public void clear() {
         pCacheHits = getEhcache().getStatistics().cacheHitCount();
-        pCacheMisses = getEhcache().getStatistics().cacheMissCount();
-        pCacheGets = getEhcache().getStatistics().cacheGetOperation().count().value();
-        pCachePuts = getEhcache().getStatistics().cachePutCount();
-        pCacheRemovals = getEhcache().getStatistics().cacheRemoveCount();
+        pCacheMisses = getEhcache().getStatistics().cacheMissCount() + jCache.getUncountedMissCount();
+        pCacheGets = getEhcache().getStatistics().cacheGetOperation().count().value() + jCache.getUncountedMissCount();
+        pCachePuts = getEhcache().getStatistics().cachePutCount() + jCache.getUncountedPutCount();
+        pCacheRemovals = getEhcache().getStatistics().cacheRemoveCount() + jCache.getUncountedRemovalCount();
         pCacheEvictions = getEhcache().getStatistics().cacheEvictedCount();
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        if(copyStrategy != null) {
+            pCompressions = copyStrategy.getCompressions();
+            pCompressionNanos = copyStrategy.getCompressionNanos();
+            pUncompressedBytes = copyStrategy.getUncompressedBytes();
+            pCompressedBytes = copyStrategy.getCompressedBytes();
+            pDecompressions = copyStrategy.getDecompressions();
+            pDecompressionNanos = copyStrategy.getDecompressionNanos();
+        }
+        final JCacheRefresher refresher = jCache.getRefresher();
+        if(refresher != null) {
+            pRefreshes = refresher.getRefreshes();
+            pStaleHits = refresher.getStaleHits();
+        }
+        final JCacheNegativeCache negativeCache = jCache.getNegativeCache();
+        if(negativeCache != null) {
+            pNegativeHits = negativeCache.getHits();
+        }
     }
 
     @Override
@@ -44,7 +69,7 @@ public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXB
 
     @Override
     public long getCacheMisses() {
-        return getEhcache().getStatistics().cacheMissCount() - pCacheMisses;
+        return getEhcache().getStatistics().cacheMissCount() + jCache.getUncountedMissCount() - pCacheMisses;
     }
 
     @Override
@@ -58,17 +83,17 @@ public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXB
 
     @Override
     public long getCacheGets() {
-        return getEhcache().getStatistics().cacheGetOperation().count().value() - pCacheGets;
+        return getEhcache().getStatistics().cacheGetOperation().count().value() + jCache.getUncountedMissCount() - pCacheGets;
     }
 
     @Override
     public long getCachePuts() {
-        return getEhcache().getStatistics().cachePutCount() - pCachePuts;
+        return getEhcache().getStatistics().cachePutCount() + jCache.getUncountedPutCount() - pCachePuts;
     }
 
     @Override
     public long getCacheRemovals() {
-        return getEhcache().getStatistics().cacheRemoveCount() - pCacheRemovals;
+        return getEhcache().getStatistics().cacheRemoveCount() + jCache.getUncountedRemovalCount() - pCacheRemovals;
     }
 
     @Override
@@ -94,4 +119,65 @@ public class JCacheStatMXBean extends JCacheMXBean implements CacheStatisticsMXB
         return Float.isNaN(v) ? 0f : v;
     }
 
+    @Override
+    public long getValueCompressions() {
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        return copyStrategy == null ? 0 : copyStrategy.getCompressions() - pCompressions;
+    }
+
+    @Override
+    public long getValueDecompressions() {
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        return copyStrategy == null ? 0 : copyStrategy.getDecompressions() - pDecompressions;
+    }
+
+    @Override
+    public float getCompressionRatio() {
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        if(copyStrategy == null) {
+            return 0f;
+        }
+        final long compressed = copyStrategy.getCompressedBytes() - pCompressedBytes;
+        return compressed == 0 ? 0f : (float) (copyStrategy.getUncompressedBytes() - pUncompressedBytes) / compressed;
+    }
+
+    @Override
+    public float getAverageCompressionTime() {
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        if(copyStrategy == null) {
+            return 0f;
+        }
+        return averageMicros(copyStrategy.getCompressionNanos() - pCompressionNanos, copyStrategy.getCompressions() - pCompressions);
+    }
+
+    @Override
+    public float getAverageDecompressionTime() {
+        final JCacheCopyOnWriteStrategy copyStrategy = jCache.getCopyStrategy();
+        if(copyStrategy == null) {
+            return 0f;
+        }
+        return averageMicros(copyStrategy.getDecompressionNanos() - pDecompressionNanos, copyStrategy.getDecompressions() - pDecompressions);
+    }
+
+    @Override
+    public long getCacheRefreshes() {
+        final JCacheRefresher refresher = jCache.getRefresher();
+        return refresher == null ? 0 : refresher.getRefreshes() - pRefreshes;
+    }
+
+    @Override
+    public long getStaleCacheHits() {
+        final JCacheRefresher refresher = jCache.getRefresher();
+        return refresher == null ? 0 : refresher.getStaleHits() - pStaleHits;
+    }
+
+    @Override
+    public long getNegativeCacheHits() {
+        final JCacheNegativeCache negativeCache = jCache.getNegativeCache();
+        return negativeCache == null ? 0 : negativeCache.getHits() - pNegativeHits;
+    }
+
+    private static float averageMicros(final long nanos, final long count) {
+        return count == 0 ? 0f : nanos / 1000f / count;
+    }
 }
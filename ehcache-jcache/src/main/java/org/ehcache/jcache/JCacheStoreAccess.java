@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.CacheOperationOutcomes;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.concurrent.CacheLockProvider;
+import net.sf.ehcache.config.CacheConfigurationListener;
+import net.sf.ehcache.statistics.StatisticsGateway;
+import net.sf.ehcache.store.CopyingCacheStore;
+import net.sf.ehcache.store.MemoryStore;
+import net.sf.ehcache.store.Store;
+import net.sf.ehcache.util.ProductInfo;
+import org.terracotta.statistics.OperationStatistic;
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.cache.CacheException;
+
+/**
+ * Reaches into the store backing an {@link Ehcache}, for what its public API only offers as copies.
+ */
+final class JCacheStoreAccess {
+
+    /**
+     * The version of Ehcache whose private fields {@link #replaceStore(Cache, Store)} knows.
+     */
+    static final String EHCACHE_VERSION = "2.8.";
+
+    private JCacheStoreAccess() {
+    }
+
+    /**
+     * Walks the keys of {@code ehcache} without copying them, which is possible when it is backed by a
+     * {@link MemoryStore}. Other caches have their keys copied by {@link Ehcache#getKeys()}.
+     *
+     * @return a weakly consistent iterator over the keys of the cache
+     */
+    static Iterator<?> keys(final Ehcache ehcache) {
+        final Store store = backingStore(ehcache);
+        if (store instanceof JCacheCompactStore) {
+            return ((JCacheCompactStore)store).keyIterator();
+        }
+        if (store != null) {
+            try {
+                final Method keySet = MemoryStore.class.getDeclaredMethod("keySet");
+                keySet.setAccessible(true);
+                return ((Set<?>)keySet.invoke(store)).iterator();
+            } catch (Exception e) {
+                // not a MemoryStore we know, fall back to copying
+            }
+        }
+        return ehcache.getKeys().iterator();
+    }
+
+    /**
+     * Finds the {@link MemoryStore} or {@link JCacheCompactStore} holding the elements of {@code ehcache}, beneath any
+     * copying layer, whose elements therefore hold the stored values rather than copies.
+     *
+     * @return the store, or null if {@code ehcache} is backed by neither
+     */
+    static Store backingStore(final Ehcache ehcache) {
+        if (!(ehcache instanceof Cache)) {
+            return null;
+        }
+        try {
+            Store store = (Store)declaredField(Cache.class, "compoundStore").get(ehcache);
+            while (store instanceof CopyingCacheStore) {
+                store = ((CopyingCacheStore<?>)store).getUnderlyingStore();
+            }
+            return store instanceof MemoryStore || store instanceof JCacheCompactStore ? store : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * The observer the {@link MemoryStore} of {@code ehcache} accounts evictions with, which the statistics of the cache
+     * are bound to.
+     *
+     * @return the observer, null if {@code ehcache} isn't backed by a {@link MemoryStore}
+     */
+    static OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver(final Ehcache ehcache) {
+        final Store store = backingStore(ehcache);
+        if (store instanceof MemoryStore) {
+            try {
+                final Field evictionObserver = MemoryStore.class.getDeclaredField("evictionObserver");
+                evictionObserver.setAccessible(true);
+                return (OperationObserver<CacheOperationOutcomes.EvictionOutcome>)evictionObserver.get(store);
+            } catch (Exception e) {
+                // not a MemoryStore we know, evictions go unaccounted
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Has the freshly initialised and still empty {@code cache} keep its elements in {@code store} rather than in the
+     * store Ehcache created, which gets disposed of. {@code store} is wrapped for copying as the cache's configuration
+     * requires, and the cache then locks keys with the locks of {@code store}. The statistics of the cache move over to
+     * {@code store} too, as the ones of the disposed store would fail once it got collected: they are found again by a
+     * new {@link StatisticsGateway}.
+     */
+    static void replaceStore(final Cache cache, final Store store) {
+        final String version = new ProductInfo().getVersion();
+        if (!version.startsWith(EHCACHE_VERSION)) {
+            throw new CacheException("Store engines need Ehcache " + EHCACHE_VERSION + "x, can't replace the store of cache "
+                                     + cache.getName() + " with Ehcache " + version);
+        }
+        try {
+            final Field compoundStore = declaredField(Cache.class, "compoundStore");
+            final Field lockProvider = declaredField(Cache.class, "lockProvider");
+            final Store previous = (Store)compoundStore.get(cache);
+            final Store previousBackingStore = backingStore(cache);
+            final OperationObserver<CacheOperationOutcomes.EvictionOutcome> evictionObserver = evictionObserver(cache);
+            final Store replacement = CopyingCacheStore.wrapIfCopy(store, cache.getCacheConfiguration());
+            previous.removeStoreListener(cache);
+            compoundStore.set(cache, replacement);
+            lockProvider.set(cache, (CacheLockProvider)replacement.getInternalContext());
+            replacement.addStoreListener(cache);
+            StatisticsManager.dissociate(previous).fromParent(cache);
+            StatisticsManager.associate(cache).withChild(store);
+            for (String tier : new String[] { StoreSize.HEAP, StoreSize.OFF_HEAP, StoreSize.DISK }) {
+                StatisticsManager.createPassThroughStatistic(store, "size", Collections.singleton(tier), new StoreSize(store, tier, false));
+                StatisticsManager.createPassThroughStatistic(store, "size-in-bytes", Collections.singleton(tier), new StoreSize(store, tier, true));
+            }
+            if (evictionObserver != null) {
+                final OperationStatistic<CacheOperationOutcomes.EvictionOutcome> evictions = StatisticsManager.getOperationStatisticFor(evictionObserver);
+                if (evictions != null) {
+                    StatisticsManager.associate(store).withChild(evictions);
+                }
+            }
+            final Field statistics = declaredField(Cache.class, "statistics");
+            final Method statisticsExecutor = CacheManager.class.getDeclaredMethod("getStatisticsExecutor");
+            statisticsExecutor.setAccessible(true);
+            statistics.set(cache, new StatisticsGateway(cache, (ScheduledExecutorService)statisticsExecutor.invoke(cache.getCacheManager())));
+            if (previousBackingStore instanceof CacheConfigurationListener) {
+                cache.getCacheConfiguration().removeConfigurationListener((CacheConfigurationListener)previousBackingStore);
+            }
+            previous.dispose();
+        } catch (NoSuchFieldException e) {
+            throw new CacheException("Can't replace the store of cache " + cache.getName() + ", Ehcache " + version + " lacks " + e.getMessage(), e);
+        } catch (NoSuchMethodException e) {
+            throw new CacheException("Can't replace the store of cache " + cache.getName() + ", Ehcache " + version + " lacks " + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new CacheException("Can't replace the store of cache " + cache.getName(), e);
+        } catch (InvocationTargetException e) {
+            throw new CacheException("Can't replace the store of cache " + cache.getName(), e.getCause());
+        }
+    }
+
+    private static Field declaredField(final Class<?> type, final String name) throws NoSuchFieldException {
+        final Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * Reads the size of a tier of a store for its statistics, without keeping the store from being collected.
+     */
+    private static final class StoreSize implements Callable<Long> {
+
+        private static final String HEAP = "local-heap";
+        private static final String OFF_HEAP = "local-offheap";
+        private static final String DISK = "local-disk";
+
+        private final WeakReference<Store> store;
+        private final String tier;
+        private final boolean bytes;
+
+        private StoreSize(final Store store, final String tier, final boolean bytes) {
+            this.store = new WeakReference<Store>(store);
+            this.tier = tier;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public Long call() {
+            final Store s = store.get();
+            if (s == null) {
+                return 0L;
+            }
+            if (tier.equals(HEAP)) {
+                return bytes ? s.getInMemorySizeInBytes() : s.getInMemorySize();
+            }
+            if (tier.equals(OFF_HEAP)) {
+                return bytes ? s.getOffHeapSizeInBytes() : s.getOffHeapSize();
+            }
+            return bytes ? s.getOnDiskSizeInBytes() : s.getOnDiskSize();
+        }
+    }
+}
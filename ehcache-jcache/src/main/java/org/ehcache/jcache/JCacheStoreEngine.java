@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+/**
+ * The store holding the entries of a cache created by {@link JCacheManager#createCache(String, javax.cache.configuration.Configuration)}.
+ * Choose one per cache with {@link JCacheConfiguration#setStoreEngine(JCacheStoreEngine)}, or for all caches of a
+ * manager with its {@link JCacheManager#STORE_ENGINE_PROPERTY} property.
+ */
+public enum JCacheStoreEngine {
+
+    /**
+     * Ehcache's own {@link net.sf.ehcache.store.MemoryStore}, keeping an {@link net.sf.ehcache.Element} per entry.
+     */
+    STANDARD,
+
+    /**
+     * A segmented hash table keeping only key, value, times and lifespan per entry, less than half the heap of an
+     * {@link net.sf.ehcache.Element} and its map entry. Elements are built when entries are read, entries are evicted
+     * least recently used of a sample first, and expired ones are only removed when met.
+     * <br />
+     * Caches sized in bytes rather than entries, by their manager's {@code maxBytesLocalHeap}, always use
+     * {@link #STANDARD}.
+     */
+    COMPACT,
+
+    /**
+     * A {@link #COMPACT} store whose values are kept serialized off the Java heap, in direct buffers up to the cache's
+     * {@link JCacheConfiguration#setMaxBytesOffHeap(long)}. Values replaced or removed get compacted away, values
+     * that don't fit evicted, the ones not read lately first.
+     * <br />
+     * Only store-by-value caches, whose values are stored serialized, can keep their values off heap. Store-by-reference
+     * ones use {@link #COMPACT} instead.
+     */
+    OFF_HEAP,
+
+    /**
+     * An {@link #OFF_HEAP} store whose entries are kept in a file mapped in memory, in the directory of the manager's
+     * {@link JCacheManager#PERSISTENCE_DIRECTORY_PROPERTY} property, so that the cache created again after a restart
+     * starts with them. The file is a log of entries, keys included, compacted in the background and read back up to
+     * the last whole entry after a crash.
+     * <br />
+     * Keys are serialized with the cache's {@link JCacheConfiguration#setKeySerializer(JCacheSerializer)}, values
+     * stored serialized. Only store-by-value caches can be persistent; store-by-reference ones use {@link #COMPACT}
+     * instead. {@link javax.cache.CacheManager#destroyCache(String)} removes the entries, closing the cache or its
+     * manager keeps them.
+     */
+    PERSISTENT
+}
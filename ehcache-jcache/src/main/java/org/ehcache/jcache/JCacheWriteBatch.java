@@ -0,0 +1,157 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.cache.Cache;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
+
+/**
+ * Collects the write-through work of a bulk operation, whose mutations were already applied to the cache, to hand it
+ * to the {@link CacheWriter} as {@link CacheWriter#writeAll(Collection)} and {@link CacheWriter#deleteAll(Collection)}
+ * calls. Keys the writer reports as failed get their previous mapping back, unless they got mapped anew meanwhile.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+class JCacheWriteBatch<K, V> {
+
+    private final Ehcache ehcache;
+    private final CacheWriter<K, V> cacheWriter;
+    private final Class<K> keyType;
+    private final Class<V> valueType;
+    private final Map<K, Element> previous = new HashMap<K, Element>();
+    private final Map<K, Element> writes = new LinkedHashMap<K, Element>();
+    private final Set<K> deletes = new HashSet<K>();
+
+    JCacheWriteBatch(final Ehcache ehcache, final CacheWriter<K, V> cacheWriter,
+                     final Class<K> keyType, final Class<V> valueType) {
+        this.ehcache = ehcache;
+        this.cacheWriter = cacheWriter;
+        this.keyType = keyType;
+        this.valueType = valueType;
+    }
+
+    /**
+     * Records that {@code element} was put in the cache, replacing {@code previous}.
+     */
+    void write(final K key, final Element previous, final Element element) {
+        record(key, previous);
+        deletes.remove(key);
+        writes.put(key, element);
+    }
+
+    /**
+     * Records that {@code key} was removed from the cache, where it was mapped to {@code previous}.
+     */
+    void delete(final K key, final Element previous) {
+        record(key, previous);
+        writes.remove(key);
+        deletes.add(key);
+    }
+
+    private void record(final K key, final Element element) {
+        if (!previous.containsKey(key)) {
+            previous.put(key, element);
+        }
+    }
+
+    int size() {
+        return writes.size() + deletes.size();
+    }
+
+    /**
+     * Sends the collected work to the writer and empties this batch.
+     *
+     * @return the keys the writer failed on, restored to their previous mapping, with the writer's failure
+     */
+    Map<K, CacheWriterException> flush() {
+        final Map<K, CacheWriterException> failures = new HashMap<K, CacheWriterException>();
+        if (!writes.isEmpty()) {
+            final List<Cache.Entry<? extends K, ? extends V>> entries = new ArrayList<Cache.Entry<? extends K, ? extends V>>(writes.size());
+            for (Element element : writes.values()) {
+                entries.add(new JCacheEntry<K, V>(element, keyType, valueType));
+            }
+            try {
+                cacheWriter.writeAll(entries);
+            } catch (Exception e) {
+                final CacheWriterException failure = toWriterException(e);
+                for (Cache.Entry<? extends K, ? extends V> entry : entries) {
+                    failures.put(entry.getKey(), failure);
+                }
+            }
+        }
+        if (!deletes.isEmpty()) {
+            final Collection<K> keys = new HashSet<K>(deletes);
+            try {
+                cacheWriter.deleteAll(keys);
+            } catch (Exception e) {
+                final CacheWriterException failure = toWriterException(e);
+                for (K key : keys) {
+                    failures.put(key, failure);
+                }
+            }
+        }
+        for (K key : failures.keySet()) {
+            restore(key, previous.get(key), writes.get(key));
+        }
+        previous.clear();
+        writes.clear();
+        deletes.clear();
+        return failures;
+    }
+
+    /**
+     * Puts {@code previous} back as the mapping of {@code key}, provided the key is still mapped to {@code written},
+     * or still unmapped if it was deleted. Restorations go through Ehcache's compare-and-swap operations, which notify
+     * listeners, the journal among them, as any mutation.
+     *
+     * @param previous the element mapped before the batch, null if there was none
+     * @param written the element the batch put, null if it deleted the key
+     */
+    private void restore(final K key, final Element previous, final Element written) {
+        ehcache.acquireWriteLockOnKey(key);
+        try {
+            if (written == null) {
+                if (previous != null) {
+                    ehcache.putIfAbsent(previous);
+                }
+            } else if (previous != null) {
+                ehcache.replace(written, previous);
+            } else {
+                ehcache.removeElement(written);
+            }
+        } finally {
+            ehcache.releaseWriteLockOnKey(key);
+        }
+    }
+
+    private static CacheWriterException toWriterException(final Exception e) {
+        return e instanceof CacheWriterException ? (CacheWriterException)e : new CacheWriterException(e);
+    }
+}
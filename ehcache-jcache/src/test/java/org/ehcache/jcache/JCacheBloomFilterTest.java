@@ -0,0 +1,170 @@
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JCacheBloomFilterTest {
+
+  @Test
+  public void testBloomFilterAnswersMissingKeys() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, String> cache = cacheManager.createCache("bloomFilter", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setStatisticsEnabled(true)).setBloomFilterExpectedEntries(1000));
+    try {
+      final JCacheBloomFilter filter = cache.unwrap(JCache.class).getBloomFilter();
+      awaitRebuilds(filter, 1);
+      for (int i = 0; i < 100; i++) {
+        cache.put(i, "v" + i);
+      }
+      for (int i = 0; i < 50; i++) {
+        cache.remove(i);
+      }
+      for (int i = 0; i < 10; i++) {
+        cache.put(i, "w" + i);
+      }
+      for (int i = 0; i < 100; i++) {
+        assertThat(cache.get(i), is(i < 10 ? "w" + i : i < 50 ? null : "v" + i));
+      }
+      final JCacheStatMXBean stats = new JCacheStatMXBean(cache.unwrap(JCache.class));
+      stats.clear();
+      for (int i = 1000; i < 2000; i++) {
+        assertThat(cache.get(i), nullValue());
+      }
+      assertThat(stats.getCacheMisses(), is(1000L));
+      assertThat(stats.getCacheGets(), is(1000L));
+
+      final ObjectName name = new ObjectName(new JCacheBloomFilterMXBean(cache.unwrap(JCache.class)).getObjectName());
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertThat(server.getAttribute(name, "Entries"), is((Object)60L));
+      assertThat((Long)server.getAttribute(name, "StoreLookupsAvoided") > 990, is(true));
+      assertThat((Double)server.getAttribute(name, "FalsePositiveRate") < 0.01, is(true));
+      assertThat((Long)server.getAttribute(name, "SizeInBytes") >= 1000, is(true));
+
+      cache.clear();
+      awaitRebuilds(filter, 2);
+      assertThat(filter.getEntries(), is(0L));
+      cache.put(3, "x");
+      assertThat(cache.get(3), is("x"));
+
+      final UniverseLoader loader = new UniverseLoader(100);
+      final Cache<Integer, String> readThrough = cacheManager.createCache("bloomFilterUniverse", new JCacheConfiguration<Integer, String>(
+        new MutableConfiguration<Integer, String>().setReadThrough(true)
+          .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+        .setBloomFilterExpectedEntries(1000));
+      awaitRebuilds(readThrough.unwrap(JCache.class).getBloomFilter(), 1);
+      for (int i = 0; i < 100; i++) {
+        assertThat(readThrough.get(i), is(i == 5 ? null : Integer.toString(i)));
+      }
+      assertThat(loader.loads.get(), is(100));
+      for (int i = 1000; i < 2000; i++) {
+        assertThat(readThrough.get(i), nullValue());
+      }
+      assertThat(loader.loads.get() < 150, is(true));
+      assertThat(readThrough.unwrap(JCache.class).getBloomFilter().getUniverseEntries(), is(100L));
+    } finally {
+      cacheManager.destroyCache("bloomFilter");
+      cacheManager.destroyCache("bloomFilterUniverse");
+    }
+  }
+
+  @Test
+  public void testBloomFilterMightStoreEveryKeyUntilBuilt() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, String> cache = cacheManager.createCache("bloomFilterUnbuilt", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>()));
+    try {
+      cache.put(1, "v1");
+      final JCacheLoaderExecutor executor = new JCacheLoaderExecutor("bloomFilterUnbuilt", 1, 1);
+      final CountDownLatch release = new CountDownLatch(1);
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+        final JCacheBloomFilter filter = new JCacheBloomFilter(cache.unwrap(Ehcache.class), null, executor, 1000,
+          JCacheBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        filter.scheduleRebuild();
+        assertThat(filter.mightBeStored(1), is(true));
+        assertThat(filter.mightBeStored(2), is(true));
+        assertThat(filter.getAbsentKeys(), is(0L));
+
+        release.countDown();
+        awaitRebuilds(filter, 1);
+        assertThat(filter.mightBeStored(1), is(true));
+        assertThat(filter.mightBeStored(2), is(false));
+      } finally {
+        release.countDown();
+        executor.shutdown();
+      }
+    } finally {
+      cacheManager.destroyCache("bloomFilterUnbuilt");
+    }
+  }
+
+  private static void awaitRebuilds(final JCacheBloomFilter filter, final long rebuilds) throws InterruptedException {
+    for (int i = 0; i < 500 && filter.getRebuilds() < rebuilds; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(filter.getRebuilds(), is(rebuilds));
+  }
+
+  /**
+   * Has the key's string form for the keys below {@code size} but 5, and tells them as its universe.
+   */
+  private static class UniverseLoader implements CacheLoader<Integer, String>, JCacheKeyUniverse<Integer> {
+
+    private final int size;
+    final AtomicInteger loads = new AtomicInteger();
+
+    UniverseLoader(final int size) {
+      this.size = size;
+    }
+
+    @Override
+    public String load(final Integer key) throws CacheLoaderException {
+      loads.incrementAndGet();
+      return key == 5 || key >= size ? null : key.toString();
+    }
+
+    @Override
+    public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<Integer> keys() {
+      final List<Integer> keys = new ArrayList<Integer>(size);
+      for (int i = 0; i < size; i++) {
+        keys.add(i);
+      }
+      return keys;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheBytesTest {
+
+  @Test
+  public void testByteBufferAccessCopiesOnceAtMost() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, byte[]> cache = cacheManager.createCache("bytes",
+      new JCacheConfiguration<Integer, byte[]>(new MutableConfiguration<Integer, byte[]>().setStoreByValue(true)));
+    try {
+      final JCacheBytes<Integer> bytes = cache.unwrap(JCacheBytes.class);
+
+      final ByteBuffer src = ByteBuffer.allocateDirect(3);
+      src.put(new byte[] { 1, 2, 3 }).flip();
+      bytes.putBytes(1, src);
+      assertThat(src.hasRemaining(), is(false));
+      src.put(0, (byte)9);
+      assertThat(Arrays.equals(cache.get(1), new byte[] { 1, 2, 3 }), is(true));
+
+      final ByteBuffer view = bytes.getView(1);
+      assertThat(view.isReadOnly(), is(true));
+      assertThat(view.remaining(), is(3));
+      assertThat(bytes.getView(1).get(2), is((byte)3));
+
+      final ByteBuffer dst = ByteBuffer.allocateDirect(4);
+      assertThat(bytes.getBytes(1, dst), is(3));
+      assertThat(dst.position(), is(3));
+      try {
+        bytes.getBytes(1, dst);
+        fail();
+      } catch (BufferOverflowException e) {
+        assertThat(dst.position(), is(3));
+      }
+      assertThat(bytes.getBytes(2, dst), is(-1));
+      assertThat(bytes.getView(2), nullValue());
+
+      final Cache<Integer, byte[]> serialized = cacheManager.createCache("serializedBytes",
+        new JCacheConfiguration<Integer, byte[]>(new MutableConfiguration<Integer, byte[]>().setStoreByValue(true))
+          .setStoreSerializedValues(true));
+      serialized.put(1, new byte[] { 4, 5 });
+      assertThat(serialized.unwrap(JCacheBytes.class).getView(1), is(ByteBuffer.wrap(new byte[] { 4, 5 })));
+    } finally {
+      cacheManager.destroyCache("bytes");
+      cacheManager.destroyCache("serializedBytes");
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheCompactStoreTest {
+
+  @Test
+  public void testCompactStoreEvictsAndHoldsLessHeap() throws Exception {
+    // the default manager sizes caches in bytes, which only Ehcache's own store supports
+    final CacheManager entriesSized = Caching.getCachingProvider()
+      .getCacheManager(getClass().getResource("/ehcache-basic.xml").toURI(), getClass().getClassLoader());
+    try {
+      final Cache<Integer, Integer> compact = entriesSized.createCache("compact",
+        new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>().setStoreByValue(false))
+          .setStoreEngine(JCacheStoreEngine.COMPACT));
+      final Cache<Integer, Integer> standard = entriesSized.createCache("standard",
+        new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>().setStoreByValue(false)));
+      final net.sf.ehcache.Ehcache compactEhcache = compact.unwrap(net.sf.ehcache.Ehcache.class);
+      final net.sf.ehcache.Ehcache standardEhcache = standard.unwrap(net.sf.ehcache.Ehcache.class);
+      assertThat(JCacheStoreAccess.backingStore(compactEhcache), instanceOf(JCacheCompactStore.class));
+      assertThat(JCacheStoreAccess.backingStore(standardEhcache), instanceOf(net.sf.ehcache.store.MemoryStore.class));
+
+      for (int i = 0; i < 1000; i++) {
+        compact.put(i, i);
+        standard.put(i, i);
+      }
+      assertThat(compact.get(10), is(10));
+      // about 84 against 148 bytes per entry
+      assertThat(compactEhcache.calculateInMemorySize() * 5 < standardEhcache.calculateInMemorySize() * 3, is(true));
+      // the statistics of the cache read the compact store, not the one it replaced
+      assertThat(compactEhcache.getStatistics().getLocalHeapSize(), is(1000L));
+      assertThat(compactEhcache.getStatistics().getLocalHeapSizeInBytes(), is(compactEhcache.calculateInMemorySize()));
+
+      for (int i = 1000; i < 2000; i++) {
+        compact.put(i, i);
+      }
+      assertThat(compactEhcache.getSize(), is(1000));
+      assertThat(compact.get(1999), is(1999));
+      assertThat(new JCacheStatMXBean(compact.unwrap(JCache.class)).getCacheEvictions(), is(1000L));
+      int iterated = 0;
+      for (Cache.Entry<Integer, Integer> entry : compact) {
+        assertThat(entry.getValue(), is(entry.getKey()));
+        iterated++;
+      }
+      assertThat(iterated, is(1000));
+
+      final Cache<Integer, Date> byValue = entriesSized.createCache("compactByValue",
+        new JCacheConfiguration<Integer, Date>(new MutableConfiguration<Integer, Date>().setStoreByValue(true))
+          .setStoreEngine(JCacheStoreEngine.COMPACT));
+      final Date date = new Date(1);
+      byValue.put(1, date);
+      date.setTime(2);
+      assertThat(byValue.get(1), is(new Date(1)));
+      assertThat(byValue.replace(1, new Date(2), new Date(3)), is(false));
+      assertThat(byValue.replace(1, new Date(1), new Date(3)), is(true));
+      assertThat(byValue.getAndRemove(1), is(new Date(3)));
+      assertThat(byValue.containsKey(1), is(false));
+    } finally {
+      entriesSized.close();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheCompressedValueTest {
+
+  @Test
+  public void testValueCompressionIsReportedInStatistics() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, ArrayList<String>> cache = cacheManager.createCache("compression",
+      new JCacheConfiguration<Integer, ArrayList<String>>(new MutableConfiguration<Integer, ArrayList<String>>()
+        .setStoreByValue(true)).setValueCompressionThreshold(256));
+    try {
+      final ArrayList<String> large = new ArrayList<String>();
+      for (int i = 0; i < 100; i++) {
+        large.add("{\"name\":\"value\",\"index\":" + i + "}");
+      }
+      final ArrayList<String> small = new ArrayList<String>(Collections.singleton("small"));
+      final ExtendedCacheStatisticsMXBean statistics = new JCacheStatMXBean(cache.unwrap(JCache.class));
+
+      cache.put(1, large);
+      cache.put(2, small);
+      assertThat(cache.get(1), is(large));
+      assertThat(cache.get(2), is(small));
+      assertThat(statistics.getValueCompressions(), is(1L));
+      assertThat(statistics.getValueDecompressions(), is(1L));
+      assertThat(statistics.getCompressionRatio() > 2, is(true));
+
+      assertThat(cache.replace(1, small, small), is(false));
+      assertThat(cache.replace(1, large, small), is(true));
+      assertThat(cache.remove(2, small), is(true));
+      statistics.clear();
+      assertThat(statistics.getValueCompressions(), is(0L));
+      assertThat(statistics.getCompressionRatio(), is(0f));
+    } finally {
+      cacheManager.destroyCache("compression");
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class JCacheCopiersTest {
+
+  @Test
+  public void testStoreByValueSkipsImmutablesAndUsesCopier() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, String> strings = cacheManager.createCache("immutables",
+      new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>().setStoreByValue(true)));
+    try {
+      final String value = new String("one");
+      strings.put(1, value);
+      assertThat(strings.get(1), sameInstance(value));
+
+      final AtomicInteger copies = new AtomicInteger();
+      final JCacheCopier<Date> copier = new JCacheCopier<Date>() {
+        @Override
+        public Date copy(final Date object) {
+          copies.incrementAndGet();
+          return new Date(object.getTime());
+        }
+      };
+      final Cache<Integer, Date> dates = cacheManager.createCache("copier",
+        new JCacheConfiguration<Integer, Date>(new MutableConfiguration<Integer, Date>().setStoreByValue(true))
+          .setValueCopier(copier));
+      final Date date = new Date(1);
+      dates.put(1, date);
+      date.setTime(2);
+      assertThat(dates.get(1), is(new Date(1)));
+      assertThat(copies.get(), is(2));
+      assertThat(JCacheCopiers.isImmutable(TimeUnit.SECONDS), is(true));
+      assertThat(JCacheCopiers.isImmutable(date), is(false));
+    } finally {
+      cacheManager.destroyCache("immutables");
+      cacheManager.destroyCache("copier");
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+import javax.management.ObjectName;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheJournalTest {
+
+  @Test
+  public void testJournalReplaysMutationsSinceTheLastCheckpoint() throws Exception {
+    final File directory = File.createTempFile("jcache", "");
+    assertThat(directory.delete() && directory.mkdir(), is(true));
+    final Properties properties = new Properties();
+    properties.setProperty(JCacheManager.PERSISTENCE_DIRECTORY_PROPERTY, directory.getPath());
+    final URI uri = getClass().getResource("/ehcache-basic.xml").toURI();
+    final JCacheConfiguration<Integer, String> configuration = new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setStatisticsEnabled(true))
+      .setJournaled(true).setJournalSegmentSize(64 * 1024);
+
+    CacheManager manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    try {
+      Cache<Integer, String> journaled = manager.createCache("journaled", configuration);
+      for (int i = 0; i < 300; i++) {
+        journaled.put(i, "value " + i);
+      }
+      assertThat(journaled.unwrap(JCache.class).checkpoint(), is(300L));
+      for (int i = 300; i < 500; i++) {
+        journaled.put(i, "value " + i);
+      }
+      journaled.remove(3);
+      journaled.invoke(4, new EntryProcessor<Integer, String, Void>() {
+        @Override
+        public Void process(final MutableEntry<Integer, String> entry, final Object... arguments) {
+          entry.setValue("invoked");
+          return null;
+        }
+      });
+      final ObjectName name = new ObjectName(new JCacheJournalMXBean(journaled.unwrap(JCache.class)).getObjectName());
+      assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "JournalAppends"), is((Object)502L));
+      manager.close();
+
+      manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+      journaled = manager.createCache("journaled", configuration);
+      assertThat(journaled.unwrap(net.sf.ehcache.Ehcache.class).getSize(), is(499));
+      assertThat(journaled.get(3), nullValue());
+      assertThat(journaled.get(4), is("invoked"));
+      assertThat(journaled.get(499), is("value 499"));
+      assertThat(journaled.unwrap(JCache.class).getJournal().getReplayed(), is(502L));
+
+      // enough overwrites to fill segments past a checkpoint, which then drops them
+      for (int round = 0; round < 50; round++) {
+        for (int i = 0; i < 500; i++) {
+          journaled.put(i, round + ":" + i);
+        }
+      }
+      final JCacheJournal journal = journaled.unwrap(JCache.class).getJournal();
+      for (int i = 0; i < 100 && journal.getSegments() > JCacheJournal.CHECKPOINT_SEGMENTS; i++) {
+        Thread.sleep(50);
+      }
+      assertThat(journal.getSegments() <= JCacheJournal.CHECKPOINT_SEGMENTS, is(true));
+      manager.close();
+
+      manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+      journaled = manager.createCache("journaled", configuration);
+      assertThat(journaled.get(3), is("49:3"));
+      assertThat(journaled.unwrap(net.sf.ehcache.Ehcache.class).getSize(), is(500));
+      manager.destroyCache("journaled");
+      journaled = manager.createCache("journaled", configuration);
+      assertThat(journaled.get(3), nullValue());
+    } finally {
+      manager.close();
+      for (File file : directory.listFiles()) {
+        assertThat(file.delete(), is(true));
+      }
+      assertThat(directory.delete(), is(true));
+    }
+  }
+
+  @Test
+  public void testRecoveryStopsAtATornSegment() throws Exception {
+    final File directory = File.createTempFile("jcache", "");
+    assertThat(directory.delete() && directory.mkdir(), is(true));
+    final Properties properties = new Properties();
+    properties.setProperty(JCacheManager.PERSISTENCE_DIRECTORY_PROPERTY, directory.getPath());
+    final URI uri = getClass().getResource("/ehcache-basic.xml").toURI();
+    final JCacheConfiguration<Integer, String> configuration = new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>()).setJournaled(true).setJournalSegmentSize(4 * 1024);
+
+    CacheManager manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    try {
+      Cache<Integer, String> journaled = manager.createCache("torn", configuration);
+      final JCacheJournal journal = journaled.unwrap(JCache.class).getJournal();
+      int puts = 0;
+      while (journal.getSegments() < 3) {
+        journaled.put(puts, "value " + puts);
+        puts++;
+      }
+      manager.close();
+
+      // the second segment lost its first record, the segments written after it can't be trusted
+      final File torn = new File(directory, JCacheManager.getFileName("torn") + ".journal.2");
+      final RandomAccessFile file = new RandomAccessFile(torn, "rw");
+      try {
+        file.seek(8);
+        file.writeLong(-1L);
+      } finally {
+        file.close();
+      }
+      manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+      journaled = manager.createCache("torn", configuration);
+      final int recovered = journaled.unwrap(net.sf.ehcache.Ehcache.class).getSize();
+      assertThat(recovered > 0 && recovered < puts, is(true));
+      for (int i = 0; i < recovered; i++) {
+        assertThat(journaled.get(i), is("value " + i));
+      }
+
+      // sealed where it tore, so what is journaled from now on gets replayed
+      journaled.put(-1, "after");
+      manager.close();
+      manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+      journaled = manager.createCache("torn", configuration);
+      assertThat(journaled.get(-1), is("after"));
+      assertThat(journaled.unwrap(net.sf.ehcache.Ehcache.class).getSize(), is(recovered + 1));
+      manager.destroyCache("torn");
+    } finally {
+      manager.close();
+      for (File file : directory.listFiles()) {
+        assertThat(file.delete(), is(true));
+      }
+      assertThat(directory.delete(), is(true));
+    }
+  }
+
+  @Test
+  public void testJournaledCachesRefuseLockFreeMutations() {
+    try {
+      new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()).setJournaled(true).setLockFreeMutations(true);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()).setLockFreeMutations(true).setJournaled(true);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JCacheLoadBatcherTest {
+
+  @Test
+  public void testReadThroughBatchesConcurrentMisses() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final BatchLoader loader = new BatchLoader() {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        loading.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new CacheLoaderException(e);
+        }
+        return super.load(key);
+      }
+    };
+    final Cache<Integer, String> cache = cacheManager.createCache("loadBatches", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+      .setLoadBatchSize(3).setLoadBatchWindowMicros(60 * 1000 * 1000));
+    try {
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        final List<Future<String>> gets = new ArrayList<Future<String>>();
+        for (int i = 0; i <= 3; i++) {
+          final int key = i;
+          gets.add(executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+              return cache.get(key);
+            }
+          }));
+          if (i == 0) {
+            // nothing else loading, the first miss is loaded on its own right away
+            assertThat(loading.await(10, TimeUnit.SECONDS), is(true));
+          }
+        }
+        // the misses arriving while it loads are loaded together, once they fill a batch
+        for (int i = 1; i <= 3; i++) {
+          assertThat(gets.get(i).get(10, TimeUnit.SECONDS), is(Integer.toString(i)));
+        }
+        release.countDown();
+        assertThat(gets.get(0).get(10, TimeUnit.SECONDS), is("0"));
+      } finally {
+        release.countDown();
+        executor.shutdownNow();
+      }
+      assertThat(loader.loadAllCalls.get(), is(1));
+      assertThat(loader.loads.get(), is(1));
+      assertThat(cache.get(3), is("3"));
+
+      final BatchLoader lonely = new BatchLoader();
+      final Cache<Integer, String> windowed = cacheManager.createCache("loadBatchWindow", new JCacheConfiguration<Integer, String>(
+        new MutableConfiguration<Integer, String>().setReadThrough(true)
+          .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(lonely)))
+        .setLoadBatchSize(4).setLoadBatchWindowMicros(60 * 1000 * 1000));
+      final long start = System.nanoTime();
+      assertThat(windowed.get(5), nullValue());
+      assertThat(windowed.get(6), is("6"));
+      // lone misses don't wait out the window
+      assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), is(true));
+      assertThat(lonely.loads.get(), is(2));
+      assertThat(lonely.loadAllCalls.get(), is(0));
+      final JCacheLoadBatcher<?, ?> batcher = windowed.unwrap(JCache.class).getLoadBatcher();
+      assertThat(batcher.getBatches(), is(2L));
+      assertThat(batcher.getBatchedLoads(), is(2L));
+    } finally {
+      cacheManager.destroyCache("loadBatches");
+      cacheManager.destroyCache("loadBatchWindow");
+    }
+  }
+
+  /**
+   * Loads the key's string form for every key but 5, counting single and bulk loads.
+   */
+  private static class BatchLoader implements CacheLoader<Integer, String> {
+
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger loadAllCalls = new AtomicInteger();
+
+    @Override
+    public String load(final Integer key) throws CacheLoaderException {
+      loads.incrementAndGet();
+      return key == 5 ? null : key.toString();
+    }
+
+    @Override
+    public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+      loadAllCalls.incrementAndGet();
+      final Map<Integer, String> values = new HashMap<Integer, String>();
+      for (Integer key : keys) {
+        if (key != 5) {
+          values.put(key, key.toString());
+        }
+      }
+      return values;
+    }
+  }
+}
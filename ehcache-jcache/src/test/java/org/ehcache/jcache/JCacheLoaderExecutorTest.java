@@ -0,0 +1,80 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.integration.CompletionListenerFuture;
+import javax.management.ObjectName;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheLoaderExecutorTest {
+
+  @Test
+  public void testLoadAllPartitionsKeysAcrossLoaderThreads() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountDownLatch concurrentCalls = new CountDownLatch(2);
+    final AtomicInteger loadAllCalls = new AtomicInteger();
+    final CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+        loadAllCalls.incrementAndGet();
+        concurrentCalls.countDown();
+        try {
+          if (!concurrentCalls.await(10, TimeUnit.SECONDS)) {
+            throw new CacheLoaderException("Partitions weren't loaded concurrently");
+          }
+        } catch (InterruptedException e) {
+          throw new CacheLoaderException(e);
+        }
+        final Map<Integer, String> values = new HashMap<Integer, String>();
+        for (Integer key : keys) {
+          if (key != 5) {
+            values.put(key, key.toString());
+          }
+        }
+        return values;
+      }
+    };
+    final MutableConfiguration<Integer, String> configuration = new MutableConfiguration<Integer, String>()
+      .setStatisticsEnabled(true)
+      .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader));
+    final Cache<Integer, String> cache = cacheManager.createCache("loadAllPartitions",
+      new JCacheConfiguration<Integer, String>(configuration).setLoaderThreads(4).setLoaderQueueSize(16));
+    try {
+      final CompletionListenerFuture future = new CompletionListenerFuture();
+      cache.loadAll(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)), false, future);
+      future.get();
+      assertThat(loadAllCalls.get(), is(4));
+      assertThat(cache.get(8), is("8"));
+      assertThat(cache.containsKey(5), is(false));
+
+      final ObjectName name = new ObjectName(new JCacheLoaderMXBean(cache.unwrap(JCache.class)).getObjectName());
+      assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LoaderThreads"), is((Object)4));
+      assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RejectedTasks"), is((Object)0L));
+    } finally {
+      cacheManager.destroyCache("loadAllPartitions");
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JCacheNegativeCacheTest {
+
+  @Test
+  public void testNegativeCacheRemembersKeysWithoutValue() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final SparseLoader loader = new SparseLoader();
+    final Cache<Integer, String> cache = cacheManager.createCache("negativeCache", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+      .setNegativeCacheTimeToLiveMillis(60000));
+    try {
+      final JCacheStatMXBean stats = new JCacheStatMXBean(cache.unwrap(JCache.class));
+      assertThat(cache.get(5), nullValue());
+      assertThat(cache.get(5), nullValue());
+      assertThat(loader.loads.get(), is(1));
+      assertThat(stats.getNegativeCacheHits(), is(1L));
+      assertThat(stats.getCacheHits(), is(0L));
+
+      assertThat(cache.getAll(new HashSet<Integer>(Arrays.asList(5, 6))), is(Collections.singletonMap(6, "6")));
+      assertThat(loader.loadAllCalls.get(), is(1));
+      assertThat(stats.getNegativeCacheHits(), is(2L));
+      assertThat(cache.invoke(5, new EntryProcessor<Integer, String, String>() {
+        @Override
+        public String process(final MutableEntry<Integer, String> entry, final Object... arguments) {
+          return entry.getValue();
+        }
+      }), nullValue());
+      assertThat(loader.loads.get(), is(1));
+      assertThat(stats.getNegativeCacheHits(), is(3L));
+
+      cache.put(5, "five");
+      assertThat(cache.get(5), is("five"));
+      cache.remove(5);
+      assertThat(cache.get(5), nullValue());
+      assertThat(loader.loads.get(), is(2));
+      cache.clear();
+      assertThat(cache.get(5), nullValue());
+      assertThat(loader.loads.get(), is(3));
+
+      final SparseLoader nothing = new SparseLoader() {
+        @Override
+        public String load(final Integer key) throws CacheLoaderException {
+          super.load(key);
+          return null;
+        }
+      };
+      final Cache<Integer, String> bounded = cacheManager.createCache("boundedNegativeCache", new JCacheConfiguration<Integer, String>(
+        new MutableConfiguration<Integer, String>().setReadThrough(true)
+          .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(nothing)))
+        .setNegativeCacheTimeToLiveMillis(1000).setNegativeCacheSize(64));
+      for (int i = 0; i < 1000; i++) {
+        assertThat(bounded.get(i), nullValue());
+      }
+      assertThat(bounded.unwrap(JCache.class).getNegativeCache().size() <= 64, is(true));
+      assertThat(bounded.get(999), nullValue());
+      assertThat(nothing.loads.get(), is(1000));
+      Thread.sleep(1100);
+      assertThat(bounded.get(999), nullValue());
+      assertThat(nothing.loads.get(), is(1001));
+    } finally {
+      cacheManager.destroyCache("negativeCache");
+      cacheManager.destroyCache("boundedNegativeCache");
+    }
+  }
+
+  /**
+   * Has no value for key 5, loads every other key's string form.
+   */
+  private static class SparseLoader implements CacheLoader<Integer, String> {
+
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger loadAllCalls = new AtomicInteger();
+
+    @Override
+    public String load(final Integer key) throws CacheLoaderException {
+      loads.incrementAndGet();
+      return key == 5 ? null : key.toString();
+    }
+
+    @Override
+    public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+      loadAllCalls.incrementAndGet();
+      final Map<Integer, String> values = new HashMap<Integer, String>();
+      for (Integer key : keys) {
+        if (key != 5) {
+          values.put(key, key.toString());
+        }
+      }
+      return values;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheOffHeapStoreTest {
+
+  @Test
+  public void testOffHeapStoreCompactsAndEvictsWithinBudget() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, String> offHeap = cacheManager.createCache("offHeap",
+      new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>().setStoreByValue(true))
+        .setStoreEngine(JCacheStoreEngine.OFF_HEAP).setMaxBytesOffHeap(256 * 1024));
+    try {
+      final net.sf.ehcache.Ehcache ehcache = offHeap.unwrap(net.sf.ehcache.Ehcache.class);
+      final net.sf.ehcache.store.Store store = JCacheStoreAccess.backingStore(ehcache);
+      assertThat(store, instanceOf(JCacheOffHeapStore.class));
+      final char[] chars = new char[1000];
+
+      // replacing the same values over and over leaves dead bytes only compaction reclaims
+      for (int round = 0; round < 100; round++) {
+        for (int i = 0; i < 50; i++) {
+          Arrays.fill(chars, (char)('a' + (round + i) % 26));
+          offHeap.put(i, new String(chars));
+        }
+      }
+      assertThat(ehcache.getSize(), is(50));
+      assertThat(new JCacheStatMXBean(offHeap.unwrap(JCache.class)).getCacheEvictions(), is(0L));
+      for (int i = 0; i < 50; i++) {
+        Arrays.fill(chars, (char)('a' + (99 + i) % 26));
+        assertThat(offHeap.get(i), is(new String(chars)));
+      }
+      assertThat(store.getOffHeapSizeInBytes() > 50 * 1000, is(true));
+      assertThat(store.getOffHeapSizeInBytes() < 50 * 1100, is(true));
+      assertThat(ehcache.getStatistics().getLocalOffHeapSizeInBytes(), is(store.getOffHeapSizeInBytes()));
+
+      // four times the budget can't all stay, the value read meanwhile gets a second chance
+      final String read = offHeap.get(0);
+      for (int i = 50; i < 1000; i++) {
+        offHeap.put(i, i + new String(chars));
+        assertThat(offHeap.get(0), is(read));
+      }
+      assertThat(ehcache.getSize() < 256, is(true));
+      assertThat(new JCacheStatMXBean(offHeap.unwrap(JCache.class)).getCacheEvictions() > 0, is(true));
+      assertThat(offHeap.get(999), is("999" + new String(chars)));
+      assertThat(offHeap.containsKey(0), is(true));
+
+      // a value larger than a slab isn't stored
+      offHeap.put(1, new String(new char[64 * 1024]));
+      assertThat(offHeap.containsKey(1), is(false));
+
+      offHeap.removeAll();
+      assertThat(store.getOffHeapSizeInBytes(), is(0L));
+    } finally {
+      cacheManager.destroyCache("offHeap");
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Properties;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JCachePersistentStoreTest {
+
+  @Test
+  public void testPersistentStoreSurvivesRestarts() throws Exception {
+    final File directory = File.createTempFile("jcache", "");
+    assertThat(directory.delete() && directory.mkdir(), is(true));
+    final Properties properties = new Properties();
+    properties.setProperty(JCacheManager.PERSISTENCE_DIRECTORY_PROPERTY, directory.getPath());
+    final URI uri = getClass().getResource("/ehcache-basic.xml").toURI();
+    final JCacheConfiguration<Integer, String> configuration = new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setStoreByValue(true))
+      .setStoreEngine(JCacheStoreEngine.PERSISTENT).setMaxBytesOffHeap(256 * 1024);
+
+    CacheManager manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    Cache<Integer, String> persistent = manager.createCache("persistent", configuration);
+    final net.sf.ehcache.store.Store store = JCacheStoreAccess.backingStore(persistent.unwrap(net.sf.ehcache.Ehcache.class));
+    assertThat(store, instanceOf(JCachePersistentStore.class));
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 100; i++) {
+        persistent.put(i, round + ":" + i);
+      }
+    }
+    persistent.remove(7);
+    ((JCachePersistentStore)store).compact();
+    persistent.put(8, "eight");
+    manager.close();
+
+    manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    persistent = manager.createCache("persistent", configuration);
+    assertThat(persistent.unwrap(net.sf.ehcache.Ehcache.class).getSize(), is(99));
+    assertThat(persistent.get(0), is("19:0"));
+    assertThat(persistent.get(7), nullValue());
+    assertThat(persistent.get(8), is("eight"));
+    assertThat(persistent.get(99), is("19:99"));
+    manager.close();
+
+    // as if killed while writing: a byte in the middle of the log is garbage, the entries from there on are lost
+    manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    Cache<Integer, String> torn = manager.createCache("torn", configuration);
+    for (int i = 0; i < 100; i++) {
+      torn.put(i, "value " + i);
+    }
+    manager.close();
+    final RandomAccessFile log = new RandomAccessFile(new File(directory, "torn.jcache"), "rw");
+    try {
+      log.seek(4000);
+      final int garbage = log.read() ^ 0xFF;
+      log.seek(4000);
+      log.write(garbage);
+    } finally {
+      log.close();
+    }
+    manager = Caching.getCachingProvider().getCacheManager(uri, getClass().getClassLoader(), properties);
+    torn = manager.createCache("torn", configuration);
+    final int recovered = torn.unwrap(net.sf.ehcache.Ehcache.class).getSize();
+    assertThat(recovered > 0 && recovered < 100, is(true));
+    for (int i = 0; i < 100; i++) {
+      assertThat(torn.get(i), is(i < recovered ? "value " + i : null));
+    }
+    torn.put(100, "hundred");
+    assertThat(torn.get(100), is("hundred"));
+    manager.destroyCache("torn");
+
+    persistent = manager.createCache("persistent", configuration);
+    assertThat(persistent.get(0), is("19:0"));
+    manager.destroyCache("persistent");
+    persistent = manager.createCache("persistent", configuration);
+    assertThat(persistent.get(0), nullValue());
+    manager.close();
+    for (File file : directory.listFiles()) {
+      assertThat(file.delete(), is(true));
+    }
+    assertThat(directory.delete(), is(true));
+  }
+}
@@ -0,0 +1,151 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheRefresherTest {
+
+  @Test
+  public void testRefreshAheadAndStaleWhileRevalidate() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicInteger version = new AtomicInteger();
+    final CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        return key + "@" + version.incrementAndGet();
+      }
+
+      @Override
+      public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+        throw new UnsupportedOperationException();
+      }
+    };
+    final Cache<Integer, String> ahead = cacheManager.createCache("refreshAhead", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 2)))
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+      .setRefreshAheadFactor(0.5f));
+    try {
+      final JCacheStatMXBean aheadStats = new JCacheStatMXBean(ahead.unwrap(JCache.class));
+      assertThat(ahead.get(1), is("1@1"));
+      assertThat(ahead.get(1), is("1@1"));
+      Thread.sleep(1100);
+      assertThat(ahead.get(1), is("1@1"));
+      awaitRefreshes(aheadStats, 1);
+      assertThat(ahead.get(1), is("1@2"));
+
+      final Cache<Integer, String> stale = cacheManager.createCache("staleWhileRevalidate", new JCacheConfiguration<Integer, String>(
+        new MutableConfiguration<Integer, String>().setReadThrough(true)
+          .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 1)))
+          .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+        .setStaleWhileRevalidateSeconds(30));
+      final JCacheStatMXBean staleStats = new JCacheStatMXBean(stale.unwrap(JCache.class));
+      assertThat(stale.get(2), is("2@3"));
+      Thread.sleep(1100);
+      assertThat(stale.iterator().hasNext(), is(false));
+      assertThat(stale.containsKey(2), is(false));
+      assertThat(stale.get(2), is("2@3"));
+      assertThat(staleStats.getStaleCacheHits(), is(1L));
+      awaitRefreshes(staleStats, 1);
+      assertThat(stale.get(2), is("2@4"));
+      assertThat(staleStats.getStaleCacheHits(), is(1L));
+
+      final Cache<Integer, String> jittered = cacheManager.createCache("expiryJitter", new JCacheConfiguration<Integer, String>(
+        new MutableConfiguration<Integer, String>()
+          .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 100))))
+        .setExpiryJitter(0.5f));
+      final Set<Integer> timesToLive = new HashSet<Integer>();
+      for (int i = 0; i < 100; i++) {
+        jittered.put(i, "v");
+        final int timeToLive = jittered.unwrap(net.sf.ehcache.Ehcache.class).getQuiet(i).getTimeToLive();
+        assertThat(timeToLive >= 50 && timeToLive <= 100, is(true));
+        timesToLive.add(timeToLive);
+      }
+      assertThat(timesToLive.size() > 1, is(true));
+    } finally {
+      cacheManager.destroyCache("refreshAhead");
+      cacheManager.destroyCache("staleWhileRevalidate");
+      cacheManager.destroyCache("expiryJitter");
+    }
+  }
+
+  @Test
+  public void testRemovalCancelsTheRefreshInFlight() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicInteger version = new AtomicInteger();
+    final CountDownLatch refreshing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        if (version.incrementAndGet() > 1) {
+          refreshing.countDown();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new CacheLoaderException(e);
+          }
+        }
+        return key + "@" + version.get();
+      }
+
+      @Override
+      public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+        throw new UnsupportedOperationException();
+      }
+    };
+    final Cache<Integer, String> cache = cacheManager.createCache("cancelledRefresh", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, 2)))
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader)))
+      .setRefreshAheadFactor(0.5f));
+    try {
+      final JCacheLoaderMXBean loaderStats = new JCacheLoaderMXBean(cache.unwrap(JCache.class));
+      assertThat(cache.get(1), is("1@1"));
+      Thread.sleep(1100);
+      assertThat(cache.get(1), is("1@1"));
+      assertThat(refreshing.await(10, TimeUnit.SECONDS), is(true));
+      final long completed = loaderStats.getCompletedTasks();
+      cache.remove(1);
+      release.countDown();
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (loaderStats.getCompletedTasks() == completed && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      // the value loaded for the removed key is dropped
+      assertThat(loaderStats.getCompletedTasks() > completed, is(true));
+      assertThat(cache.iterator().hasNext(), is(false));
+      assertThat(new JCacheStatMXBean(cache.unwrap(JCache.class)).getCacheRefreshes(), is(0L));
+    } finally {
+      release.countDown();
+      cacheManager.destroyCache("cancelledRefresh");
+    }
+  }
+
+  private static void awaitRefreshes(final JCacheStatMXBean stats, final long refreshes) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (stats.getCacheRefreshes() < refreshes && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(stats.getCacheRefreshes(), is(refreshes));
+  }
+}
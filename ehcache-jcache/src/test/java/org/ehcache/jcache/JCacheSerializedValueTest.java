@@ -0,0 +1,85 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheSerializedValueTest {
+
+  @Test
+  public void testStoreByValueCopiesWithConfiguredSerializer() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicInteger serializations = new AtomicInteger();
+    final JCacheSerializer<Date> valueSerializer = new JCacheSerializer<Date>() {
+      @Override
+      public byte[] serialize(final Date object) {
+        serializations.incrementAndGet();
+        return JCacheSerializers.DEFAULT.serialize(object);
+      }
+
+      @Override
+      public Date deserialize(final byte[] bytes, final ClassLoader classLoader) {
+        return (Date)JCacheSerializers.DEFAULT.deserialize(bytes, classLoader);
+      }
+    };
+    final Cache<Integer, Date> cache = cacheManager.createCache("serializer",
+      new JCacheConfiguration<Integer, Date>(new MutableConfiguration<Integer, Date>().setStoreByValue(true))
+        .setValueSerializer(valueSerializer));
+    try {
+      cache.put(1, new Date(1));
+      assertThat(serializations.get(), is(1));
+      assertThat(cache.get(1), is(new Date(1)));
+      assertThat(serializations.get(), is(2));
+    } finally {
+      cacheManager.destroyCache("serializer");
+    }
+  }
+
+  @Test
+  public void testStoreSerializedValuesDeserializesOnReadOnly() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicInteger serializations = new AtomicInteger();
+    final AtomicInteger deserializations = new AtomicInteger();
+    final JCacheSerializer<Date> valueSerializer = new JCacheSerializer<Date>() {
+      @Override
+      public byte[] serialize(final Date object) {
+        serializations.incrementAndGet();
+        return JCacheSerializers.DEFAULT.serialize(object);
+      }
+
+      @Override
+      public Date deserialize(final byte[] bytes, final ClassLoader classLoader) {
+        deserializations.incrementAndGet();
+        return (Date)JCacheSerializers.DEFAULT.deserialize(bytes, classLoader);
+      }
+    };
+    final Cache<Integer, Date> cache = cacheManager.createCache("serializedValues",
+      new JCacheConfiguration<Integer, Date>(new MutableConfiguration<Integer, Date>().setStoreByValue(true))
+        .setValueSerializer(valueSerializer).setStoreSerializedValues(true));
+    try {
+      cache.put(1, new Date(1));
+      assertThat(serializations.get(), is(1));
+      assertThat(deserializations.get(), is(0));
+      assertThat(cache.get(1), is(new Date(1)));
+      assertThat(serializations.get(), is(1));
+      assertThat(deserializations.get(), is(1));
+
+      assertThat(cache.replace(1, new Date(2), new Date(3)), is(false));
+      assertThat(cache.replace(1, new Date(1), new Date(3)), is(true));
+      assertThat(cache.remove(1, new Date(1)), is(false));
+      assertThat(cache.remove(1, new Date(3)), is(true));
+      assertThat(cache.containsKey(1), is(false));
+    } finally {
+      cacheManager.destroyCache("serializedValues");
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.ehcache.jcache;
+
+import net.sf.ehcache.CacheException;
+import org.junit.Test;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheSerializersTest {
+
+  @Test
+  public void testDefaultSerializerRoundTripsBuiltInTypes() {
+    for (Object value : Arrays.<Object>asList("", "h\u00e9llo \u4e16\u754c", 0, -1, Integer.MIN_VALUE, Long.MAX_VALUE, -42L,
+      (short)-3, (byte)-128, '\u20ac', true, false, 1.5f, Float.NaN, -0.0d, Double.MAX_VALUE, TimeUnit.SECONDS,
+      new BigDecimal("3.14"), new Point(3, -4))) {
+      assertThat(roundTrip(value), equalTo(value));
+    }
+  }
+
+  @Test
+  public void testDefaultSerializerCopiesByteArrays() {
+    final byte[] bytes = { 1, 2, 3 };
+    final byte[] copy = (byte[])roundTrip(bytes);
+    assertThat(Arrays.equals(copy, bytes), is(true));
+    assertThat(copy == bytes, is(false));
+  }
+
+  @Test
+  public void testBuiltInTypesAreSmallerThanWithJavaSerialization() {
+    assertThat(JCacheSerializers.DEFAULT.serialize(42L).length, is(9));
+    assertThat(JCacheSerializers.DEFAULT.serialize("abc").length, is(4));
+    assertThat(JCacheSerializers.JAVA_SERIALIZATION.serialize(42L).length > 9, is(true));
+  }
+
+  @Test
+  public void testReusedStreamsCopyGraphsIndependently() {
+    final ArrayList<Object> shared = new ArrayList<Object>(Arrays.<Object>asList("a", 1));
+    final ArrayList<Object> graph = new ArrayList<Object>(Arrays.<Object>asList(shared, shared, new Date(5)));
+    final byte[] first = JCacheSerializers.DEFAULT.serialize(graph);
+    for (int i = 0; i < 3; i++) {
+      assertThat(Arrays.equals(JCacheSerializers.DEFAULT.serialize(graph), first), is(true));
+      final List<Object> copy = (List<Object>)roundTrip(graph);
+      assertThat(copy, equalTo((List<Object>)graph));
+      assertThat(copy.get(0) == copy.get(1), is(true));
+      assertThat(roundTrip(new Date(i)), equalTo((Object)new Date(i)));
+    }
+  }
+
+  @Test
+  public void testStreamsRecoverFromFailuresAndNesting() {
+    try {
+      JCacheSerializers.DEFAULT.serialize(new ArrayList<Object>(Collections.singleton(new Object())));
+      fail();
+    } catch (CacheException e) {
+      // expected
+    }
+    assertThat(roundTrip(new Nested(new Date(7))), equalTo((Object)new Nested(new Date(7))));
+    final byte[] bytes = JCacheSerializers.JAVA_SERIALIZATION.serialize(new Date(8));
+    assertThat(JCacheSerializers.JAVA_SERIALIZATION.deserialize(bytes, getClass().getClassLoader()), equalTo((Object)new Date(8)));
+    try {
+      JCacheSerializers.JAVA_SERIALIZATION.deserialize(Arrays.copyOf(bytes, bytes.length - 1), getClass().getClassLoader());
+      fail();
+    } catch (CacheException e) {
+      // expected
+    }
+    assertThat(roundTrip(new Date(9)), equalTo((Object)new Date(9)));
+  }
+
+  private static Object roundTrip(final Object value) {
+    return JCacheSerializers.DEFAULT.deserialize(JCacheSerializers.DEFAULT.serialize(value), JCacheSerializersTest.class.getClassLoader());
+  }
+
+  /**
+   * Serializes its state through the serializers while being serialized.
+   */
+  public static class Nested implements Serializable {
+    private transient Date date;
+
+    Nested(final Date date) {
+      this.date = date;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+      out.writeObject(JCacheSerializers.DEFAULT.serialize(date));
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+      date = (Date)JCacheSerializers.DEFAULT.deserialize((byte[])in.readObject(), getClass().getClassLoader());
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Nested && ((Nested)o).date.equals(date);
+    }
+
+    @Override
+    public int hashCode() {
+      return date.hashCode();
+    }
+  }
+
+  public static class Point implements Externalizable {
+    private int x;
+    private int y;
+
+    public Point() {
+    }
+
+    Point(final int x, final int y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException {
+      out.writeInt(x);
+      out.writeInt(y);
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException {
+      x = in.readInt();
+      y = in.readInt();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Point && ((Point)o).x == x && ((Point)o).y == y;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * x + y;
+    }
+  }
+}
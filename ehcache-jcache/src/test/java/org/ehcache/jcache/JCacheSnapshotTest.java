@@ -0,0 +1,143 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheSnapshotTest {
+
+  @Test
+  public void testSnapshotRestoresEntriesWithWhatRemainsOfTheirLifespan() throws Exception {
+    final File directory = File.createTempFile("jcache", "");
+    assertThat(directory.delete() && directory.mkdir(), is(true));
+    final JCacheConfiguration<Integer, String> configuration = new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setStoreByValue(true)
+        .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(Duration.ONE_HOUR)))
+      .setStoreEngine(JCacheStoreEngine.OFF_HEAP).setMaxBytesOffHeap(32 * 1024 * 1024);
+    final char[] large = new char[1100 * 1024];
+    Arrays.fill(large, 'x');
+    final JCacheManager manager = Caching.getCachingProvider()
+      .getCacheManager(getClass().getResource("/ehcache-basic.xml").toURI(), getClass().getClassLoader())
+      .unwrap(JCacheManager.class);
+    try {
+      JCache<Integer, String> cache = (JCache<Integer, String>)manager.createCache("snapshot", configuration);
+      for (int i = 0; i < 5000; i++) {
+        cache.put(i, "value " + i);
+      }
+      cache.put(-1, new String(large));
+      final long expiration = cache.unwrap(net.sf.ehcache.Ehcache.class).getQuiet(0).getExpirationTime();
+      final File file = new File(directory, "entries.snapshot");
+      assertThat(cache.snapshot(file), is(5001L));
+
+      manager.destroyCache("snapshot");
+      cache = (JCache<Integer, String>)manager.createCache("snapshot", configuration);
+      cache.put(1, "live");
+      assertThat(cache.restore(file), is(5000L));
+      assertThat(cache.get(1), is("live"));
+      assertThat(cache.get(4999), is("value 4999"));
+      assertThat(cache.get(-1), is(new String(large)));
+      final long restoredExpiration = cache.unwrap(net.sf.ehcache.Ehcache.class).getQuiet(0).getExpirationTime();
+      assertThat(restoredExpiration >= expiration && restoredExpiration <= expiration + 1000, is(true));
+
+      assertThat(manager.snapshot(directory), is(5001L));
+      assertThat(new File(directory, "snapshot.snapshot").isFile(), is(true));
+      manager.destroyCache("snapshot");
+      cache = (JCache<Integer, String>)manager.createCache("snapshot", configuration);
+      assertThat(manager.restore(directory), is(5001L));
+      assertThat(cache.get(1), is("live"));
+      assertThat(cache.get(2), is("value 2"));
+
+      final RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+      try {
+        truncated.setLength(truncated.length() - 4);
+      } finally {
+        truncated.close();
+      }
+      manager.destroyCache("snapshot");
+      cache = (JCache<Integer, String>)manager.createCache("snapshot", configuration);
+      try {
+        cache.restore(file);
+        fail();
+      } catch (javax.cache.CacheException e) {
+        assertThat(cache.get(2), is("value 2"));
+      }
+    } finally {
+      manager.close();
+      for (File file : directory.listFiles()) {
+        assertThat(file.delete(), is(true));
+      }
+      assertThat(directory.delete(), is(true));
+    }
+  }
+
+  @Test
+  public void testSnapshotRecordsTheCacheDefaultLifespan() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final File file = File.createTempFile("jcache", ".snapshot");
+    try {
+      JCache<Integer, String> cache = (JCache<Integer, String>)cacheManager.createCache("defaultLifespan",
+        new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()));
+      net.sf.ehcache.Ehcache ehcache = cache.unwrap(net.sf.ehcache.Ehcache.class);
+      ehcache.getCacheConfiguration().setTimeToLiveSeconds(3600);
+      ehcache.put(new net.sf.ehcache.Element(1, "default"));
+      final long expiration = ehcache.getQuiet(1).getExpirationTime();
+      assertThat(cache.snapshot(file), is(1L));
+
+      cacheManager.destroyCache("defaultLifespan");
+      cache = (JCache<Integer, String>)cacheManager.createCache("defaultLifespan",
+        new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()));
+      ehcache = cache.unwrap(net.sf.ehcache.Ehcache.class);
+      assertThat(cache.restore(file), is(1L));
+      final long restoredExpiration = ehcache.getQuiet(1).getExpirationTime();
+      assertThat(restoredExpiration >= expiration && restoredExpiration <= expiration + 1000, is(true));
+    } finally {
+      cacheManager.destroyCache("defaultLifespan");
+      assertThat(file.delete(), is(true));
+    }
+  }
+
+  @Test
+  public void testSnapshotReplacesTheOldOneAndRestoresOneLeftAsideByACrash() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final File directory = File.createTempFile("jcache", "");
+    assertThat(directory.delete() && directory.mkdir(), is(true));
+    final File file = new File(directory, "entries.snapshot");
+    final File previous = new File(directory, "entries.snapshot.previous");
+    try {
+      final JCache<Integer, String> cache = (JCache<Integer, String>)cacheManager.createCache("replaced",
+        new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()));
+      cache.put(1, "old");
+      assertThat(cache.snapshot(file), is(1L));
+      cache.put(1, "new");
+      cache.put(2, "new");
+      assertThat(cache.snapshot(file), is(2L));
+      assertThat(previous.exists(), is(false));
+
+      assertThat(file.renameTo(previous), is(true));
+      cache.clear();
+      assertThat(cache.restore(file), is(2L));
+      assertThat(cache.get(2), is("new"));
+      cache.put(3, "newer");
+      assertThat(cache.snapshot(file), is(3L));
+      assertThat(file.isFile() && !previous.exists(), is(true));
+    } finally {
+      cacheManager.destroyCache("replaced");
+      for (File each : directory.listFiles()) {
+        assertThat(each.delete(), is(true));
+      }
+      assertThat(directory.delete(), is(true));
+    }
+  }
+}
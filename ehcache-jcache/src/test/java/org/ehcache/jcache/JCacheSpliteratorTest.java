@@ -0,0 +1,80 @@
+package org.ehcache.jcache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JCacheSpliteratorTest {
+
+  @Test
+  public void testSpliteratorSplitsIntoDisjointParts() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, Integer> cache = cacheManager.createCache("spliterator",
+      new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>()));
+    try {
+      for (int i = 0; i < 1000; i++) {
+        cache.put(i, i);
+      }
+      final List<JCacheSpliterator<Integer, Integer>> parts = new ArrayList<JCacheSpliterator<Integer, Integer>>();
+      parts.add(cache.unwrap(JCache.class).entrySpliterator());
+      for (int i = 0; i < 3; i++) {
+        final List<JCacheSpliterator<Integer, Integer>> split = new ArrayList<JCacheSpliterator<Integer, Integer>>();
+        for (JCacheSpliterator<Integer, Integer> part : parts) {
+          split.add(part.trySplit());
+          split.add(part);
+        }
+        parts.clear();
+        parts.addAll(split);
+      }
+      assertThat(parts.size(), is(8));
+      long estimated = 0;
+      for (JCacheSpliterator<Integer, Integer> part : parts) {
+        estimated += part.estimateSize();
+      }
+      assertThat(estimated, is(1000L));
+
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        final List<Future<Set<Integer>>> futures = new ArrayList<Future<Set<Integer>>>();
+        for (final JCacheSpliterator<Integer, Integer> part : parts) {
+          futures.add(executor.submit(new Callable<Set<Integer>>() {
+            @Override
+            public Set<Integer> call() throws Exception {
+              final Set<Integer> keys = new HashSet<Integer>();
+              while (part.hasNext()) {
+                keys.add(part.next().getKey());
+              }
+              return keys;
+            }
+          }));
+        }
+        final Set<Integer> seen = new HashSet<Integer>();
+        for (Future<Set<Integer>> future : futures) {
+          for (Integer key : future.get()) {
+            assertThat(seen.add(key), is(true));
+          }
+        }
+        assertThat(seen.size(), is(1000));
+      } finally {
+        executor.shutdown();
+      }
+    } finally {
+      cacheManager.destroyCache("spliterator");
+    }
+  }
+}
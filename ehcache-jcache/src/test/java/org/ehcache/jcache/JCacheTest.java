@@ -0,0 +1,532 @@
+package org.ehcache.jcache;
+
+import net.sf.ehcache.concurrent.CacheLockProvider;
+import net.sf.ehcache.concurrent.ReadWriteLockSync;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ExpiryPolicy;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.EntryProcessorResult;
+import javax.cache.processor.MutableEntry;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheTest {
+
+  @Test
+  public void testLockFreeMutationsHonorCacheSemantics() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<String, String> cache = cacheManager.createCache("lockFreeSemantics",
+      new JCacheConfiguration<String, String>(new MutableConfiguration<String, String>()).setLockFreeMutations(true));
+    try {
+      assertThat(cache.putIfAbsent("a", "1"), is(true));
+      assertThat(cache.putIfAbsent("a", "2"), is(false));
+      assertThat(cache.get("a"), is("1"));
+      assertThat(cache.getAndPut("a", "2"), is("1"));
+      assertThat(cache.replace("a", "1", "3"), is(false));
+      assertThat(cache.replace("a", "2", "3"), is(true));
+      assertThat(cache.replace("b", "1"), is(false));
+      assertThat(cache.getAndReplace("a", "4"), is("3"));
+      assertThat(cache.remove("a", "3"), is(false));
+      assertThat(cache.getAndRemove("a"), is("4"));
+      assertThat(cache.getAndRemove("a"), nullValue());
+      cache.put("a", "5");
+      assertThat(cache.remove("a", "5"), is(true));
+      assertThat(cache.containsKey("a"), is(false));
+    } finally {
+      cacheManager.destroyCache("lockFreeSemantics");
+    }
+  }
+
+  @Test
+  public void testLockFreeInvokeIsAtomic() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<String, Integer> cache = cacheManager.createCache("lockFreeInvoke",
+      new JCacheConfiguration<String, Integer>(new MutableConfiguration<String, Integer>()).setLockFreeMutations(true));
+    try {
+      final int threads = 8;
+      final int increments = 1000;
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              for (int j = 0; j < increments; j++) {
+                cache.invoke("counter", new EntryProcessor<String, Integer, Void>() {
+                  @Override
+                  public Void process(final MutableEntry<String, Integer> entry, final Object... arguments) throws EntryProcessorException {
+                    entry.setValue(entry.exists() ? entry.getValue() + 1 : 1);
+                    return null;
+                  }
+                });
+              }
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdown();
+      }
+      assertThat(cache.get("counter"), is(threads * increments));
+    } finally {
+      cacheManager.destroyCache("lockFreeInvoke");
+    }
+  }
+
+  @Test
+  public void testGetAllLoadsMissesInChunks() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountingLoader loader = new CountingLoader(true);
+    final MutableConfiguration<Integer, String> configuration = new MutableConfiguration<Integer, String>()
+      .setReadThrough(true)
+      .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader));
+    final Cache<Integer, String> cache = cacheManager.createCache("getAllChunks",
+      new JCacheConfiguration<Integer, String>(configuration).setLoadAllChunkSize(2));
+    try {
+      cache.put(0, "cached");
+
+      final Map<Integer, String> all = cache.getAll(new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5)));
+      assertThat(all.size(), is(5));
+      assertThat(all.get(0), is("cached"));
+      assertThat(all.get(3), is("3"));
+      assertThat(all.containsKey(5), is(false));
+      assertThat(loader.loadAllCalls.get(), is(3));
+      assertThat(loader.loads.get(), is(0));
+      assertThat(cache.get(4), is("4"));
+      assertThat(loader.loadAllCalls.get(), is(3));
+    } finally {
+      cacheManager.destroyCache("getAllChunks");
+    }
+  }
+
+  @Test
+  public void testGetAllFallsBackToSingleKeyLoads() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountingLoader loader = new CountingLoader(false);
+    final MutableConfiguration<Integer, String> configuration = new MutableConfiguration<Integer, String>()
+      .setReadThrough(true)
+      .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader));
+    final Cache<Integer, String> cache = cacheManager.createCache("getAllSingleKeyLoads",
+      new JCacheConfiguration<Integer, String>(configuration));
+    try {
+      final Map<Integer, String> all = cache.getAll(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4, 5)));
+      assertThat(all.size(), is(4));
+      assertThat(loader.loads.get(), is(5));
+      assertThat(cache.containsKey(2), is(true));
+      assertThat(cache.containsKey(5), is(false));
+    } finally {
+      cacheManager.destroyCache("getAllSingleKeyLoads");
+    }
+  }
+
+  @Test
+  public void testGetAllKeepsValuesPutWhileLoading() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicReference<Cache<Integer, String>> cacheRef = new AtomicReference<Cache<Integer, String>>();
+    final CountingLoader loader = new CountingLoader(true) {
+      @Override
+      public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+        cacheRef.get().put(2, "put meanwhile");
+        return super.loadAll(keys);
+      }
+    };
+    final MutableConfiguration<Integer, String> configuration = new MutableConfiguration<Integer, String>()
+      .setReadThrough(true)
+      .setStatisticsEnabled(true)
+      .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader));
+    final Cache<Integer, String> cache = cacheManager.createCache("getAllPutMeanwhile",
+      new JCacheConfiguration<Integer, String>(configuration));
+    try {
+      cacheRef.set(cache);
+
+      final Map<Integer, String> all = cache.getAll(new HashSet<Integer>(Arrays.asList(1, 2, 3)));
+      assertThat(all.get(2), is("put meanwhile"));
+      assertThat(all.get(3), is("3"));
+      assertThat(cache.get(2), is("put meanwhile"));
+      assertThat(new JCacheStatMXBean(cache.unwrap(JCache.class)).getCachePuts(), is(3L));
+    } finally {
+      cacheManager.destroyCache("getAllPutMeanwhile");
+    }
+  }
+
+  @Test
+  public void testGetAllJoinsLoadsInFlight() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingLoader loader = new CountingLoader(true) {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        loading.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new CacheLoaderException(e);
+        }
+        return super.load(key);
+      }
+    };
+    final Cache<Integer, String> cache = cacheManager.createCache("getAllJoins", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader))));
+    try {
+      final ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        final Future<String> get = executor.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return cache.get(1);
+          }
+        });
+        assertThat(loading.await(10, TimeUnit.SECONDS), is(true));
+        final Future<Map<Integer, String>> getAll = executor.submit(new Callable<Map<Integer, String>>() {
+          @Override
+          public Map<Integer, String> call() {
+            return cache.getAll(new HashSet<Integer>(Arrays.asList(1, 2)));
+          }
+        });
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (loader.loadAllCalls.get() == 0 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertThat(getAll.isDone(), is(false));
+        release.countDown();
+        assertThat(get.get(10, TimeUnit.SECONDS), is("1"));
+        final Map<Integer, String> all = getAll.get(10, TimeUnit.SECONDS);
+        assertThat(all.get(1), is("1"));
+        assertThat(all.get(2), is("2"));
+        assertThat(loader.loads.get(), is(1));
+        assertThat(loader.loadAllCalls.get(), is(1));
+      } finally {
+        release.countDown();
+        executor.shutdownNow();
+      }
+    } finally {
+      cacheManager.destroyCache("getAllJoins");
+    }
+  }
+
+  @Test
+  public void testReadThroughSharesLoadsWithoutBlockingOtherKeys() throws Exception {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingLoader loader = new CountingLoader(false) {
+      @Override
+      public String load(final Integer key) throws CacheLoaderException {
+        if (key == 1) {
+          loading.countDown();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new CacheLoaderException(e);
+          }
+        }
+        return super.load(key);
+      }
+    };
+    final Cache<Integer, String> cache = cacheManager.createCache("singleFlight", new JCacheConfiguration<Integer, String>(
+      new MutableConfiguration<Integer, String>().setReadThrough(true)
+        .setCacheLoaderFactory(new FactoryBuilder.SingletonFactory<CacheLoader<Integer, String>>(loader))));
+    try {
+      final net.sf.ehcache.Ehcache ehcache = cache.unwrap(net.sf.ehcache.Ehcache.class);
+      final CacheLockProvider locks = (CacheLockProvider)ehcache.getInternalContext();
+      int sameStripe = 2;
+      while (((ReadWriteLockSync)locks.getSyncForKey(sameStripe)).getReadWriteLock()
+             != ((ReadWriteLockSync)locks.getSyncForKey(1)).getReadWriteLock()) {
+        sameStripe++;
+      }
+
+      final ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+        final Callable<String> get = new Callable<String>() {
+          @Override
+          public String call() {
+            return cache.get(1);
+          }
+        };
+        final Future<String> first = executor.submit(get);
+        assertThat(loading.await(10, TimeUnit.SECONDS), is(true));
+        final Future<String> second = executor.submit(get);
+        final int key = sameStripe;
+        final Future<String> other = executor.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return cache.get(key);
+          }
+        });
+        assertThat(other.get(10, TimeUnit.SECONDS), is(Integer.toString(key)));
+        release.countDown();
+        assertThat(first.get(10, TimeUnit.SECONDS), is("1"));
+        assertThat(second.get(10, TimeUnit.SECONDS), is("1"));
+        assertThat(loader.loads.get(), is(2));
+      } finally {
+        release.countDown();
+        executor.shutdownNow();
+      }
+
+      final Cache<Integer, String> computed = cacheManager.createCache("getOrCompute",
+        new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()));
+      final AtomicInteger computations = new AtomicInteger();
+      final JCacheFunction<Integer, String> function = new JCacheFunction<Integer, String>() {
+        @Override
+        public String apply(final Integer key) {
+          computations.incrementAndGet();
+          return key == 5 ? null : "computed " + key;
+        }
+      };
+      assertThat(computed.unwrap(JCache.class).getOrCompute(3, function), is((Object)"computed 3"));
+      assertThat(computed.unwrap(JCache.class).getOrCompute(3, function), is((Object)"computed 3"));
+      assertThat(computed.unwrap(JCache.class).getOrCompute(5, function), nullValue());
+      assertThat(computed.containsKey(5), is(false));
+      assertThat(computations.get(), is(2));
+    } finally {
+      cacheManager.destroyCache("singleFlight");
+      cacheManager.destroyCache("getOrCompute");
+    }
+  }
+
+  @Test
+  public void testParallelInvokeAllCapturesFailuresPerKey() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, Integer> cache = cacheManager.createCache("parallelInvokeAll",
+      new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>())
+        .setLoaderThreads(4).setParallelInvokeAll(true));
+    try {
+      final Set<Integer> keys = new HashSet<Integer>();
+      for (int i = 0; i < 1000; i++) {
+        cache.put(i, i);
+        keys.add(i);
+      }
+
+      final Map<Integer, EntryProcessorResult<Integer>> results = cache.invokeAll(keys, new EntryProcessor<Integer, Integer, Integer>() {
+        @Override
+        public Integer process(final MutableEntry<Integer, Integer> entry, final Object... arguments) throws EntryProcessorException {
+          if (entry.getKey() == 13) {
+            throw new IllegalArgumentException("unlucky");
+          }
+          entry.setValue(entry.getValue() + 1);
+          return entry.getValue();
+        }
+      });
+      assertThat(results.size(), is(1000));
+      for (int i = 0; i < 1000; i++) {
+        if (i == 13) {
+          try {
+            results.get(i).get();
+            fail();
+          } catch (EntryProcessorException e) {
+            assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+          }
+          assertThat(cache.get(i), is(13));
+        } else {
+          assertThat(results.get(i).get(), is(i + 1));
+          assertThat(cache.get(i), is(i + 1));
+        }
+      }
+    } finally {
+      cacheManager.destroyCache("parallelInvokeAll");
+    }
+  }
+
+  @Test
+  public void testPutAllFillsInParallelAndUpdatesExistingEntries() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, Integer> cache = cacheManager.createCache("putAll",
+      new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>().setStatisticsEnabled(true))
+        .setLoaderThreads(4));
+    try {
+      final Map<Integer, Integer> fill = new HashMap<Integer, Integer>();
+      for (int i = 0; i < 20000; i++) {
+        fill.put(i, i);
+      }
+      cache.putAll(fill);
+      final Map<Integer, Integer> update = new HashMap<Integer, Integer>();
+      update.put(0, -1);
+      update.put(20000, 20000);
+      cache.putAll(update);
+
+      final JCacheStatMXBean statistics = new JCacheStatMXBean(cache.unwrap(JCache.class));
+      assertThat(statistics.getCachePuts(), is(20002L));
+      assertThat(cache.unwrap(net.sf.ehcache.Ehcache.class).getSize(), is(20001));
+      assertThat(cache.get(0), is(-1));
+      assertThat(cache.get(19999), is(19999));
+      assertThat(cache.get(20000), is(20000));
+    } finally {
+      cacheManager.destroyCache("putAll");
+    }
+  }
+
+  @Test
+  public void testPutAllUpdatesEntriesCreatedMeanwhile() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicReference<net.sf.ehcache.Ehcache> ehcache = new AtomicReference<net.sf.ehcache.Ehcache>();
+    final AtomicInteger updates = new AtomicInteger();
+    final ExpiryPolicy expiryPolicy = new ExpiryPolicy() {
+      @Override
+      public Duration getExpiryForCreation() {
+        // another thread creates the entry between putAll's probe and its insert
+        ehcache.get().put(new net.sf.ehcache.Element(1, "raced"));
+        return Duration.ETERNAL;
+      }
+
+      @Override
+      public Duration getExpiryForAccess() {
+        return null;
+      }
+
+      @Override
+      public Duration getExpiryForUpdate() {
+        updates.incrementAndGet();
+        return Duration.ETERNAL;
+      }
+    };
+    final Cache<Integer, String> cache = cacheManager.createCache("putAllRace",
+      new MutableConfiguration<Integer, String>()
+        .setExpiryPolicyFactory(new FactoryBuilder.SingletonFactory<ExpiryPolicy>(expiryPolicy)));
+    try {
+      ehcache.set(cache.unwrap(net.sf.ehcache.Ehcache.class));
+      cache.putAll(Collections.singletonMap(1, "mine"));
+      assertThat(cache.get(1), is("mine"));
+      assertThat(updates.get(), is(1));
+    } finally {
+      cacheManager.destroyCache("putAllRace");
+    }
+  }
+
+  @Test
+  public void testQuietIterationLeavesStatisticsAlone() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, Integer> cache = cacheManager.createCache("quietIteration",
+      new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>().setStatisticsEnabled(true))
+        .setQuietIteration(true));
+    try {
+      for (int i = 0; i < 1000; i++) {
+        cache.put(i, i);
+      }
+      final Set<Integer> seen = new HashSet<Integer>();
+      for (Cache.Entry<Integer, Integer> entry : cache) {
+        assertThat(entry.getValue(), is(entry.getKey()));
+        seen.add(entry.getKey());
+      }
+      assertThat(seen.size(), is(1000));
+      final JCacheStatMXBean statistics = new JCacheStatMXBean(cache.unwrap(JCache.class));
+      assertThat(statistics.getCacheHits(), is(0L));
+      assertThat(statistics.getCacheGets(), is(0L));
+      // walks the store's own keys rather than a copy of them
+      assertThat(JCacheStoreAccess.keys(cache.unwrap(net.sf.ehcache.Ehcache.class)).getClass().getName().startsWith("java.util.ArrayList"), is(false));
+
+      final Iterator<Cache.Entry<Integer, Integer>> iterator = cache.iterator();
+      iterator.next();
+      iterator.remove();
+      assertThat(statistics.getCacheRemovals(), is(1L));
+    } finally {
+      cacheManager.destroyCache("quietIteration");
+    }
+  }
+
+  @Test
+  public void testAggregateCombinesMappedEntries() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final Cache<Integer, Integer> cache = cacheManager.createCache("aggregate",
+      new JCacheConfiguration<Integer, Integer>(new MutableConfiguration<Integer, Integer>().setStatisticsEnabled(true))
+        .setLoaderThreads(4));
+    try {
+      // enough entries for the whole cache to be walked in several chunks
+      for (int i = 1; i <= 5000; i++) {
+        cache.put(i, i);
+      }
+      final EntryProcessor<Integer, Integer, Long> evenValues = new EntryProcessor<Integer, Integer, Long>() {
+        @Override
+        public Long process(final MutableEntry<Integer, Integer> entry, final Object... arguments) throws EntryProcessorException {
+          return entry.getValue() % 2 == 0 ? Long.valueOf(entry.getValue()) : null;
+        }
+      };
+      final JCacheCombiner<Long> sum = new JCacheCombiner<Long>() {
+        @Override
+        public Long combine(final Long left, final Long right) {
+          return left + right;
+        }
+      };
+      final JCache<Integer, Integer> jCache = cache.unwrap(JCache.class);
+
+      assertThat(jCache.aggregate(null, evenValues, sum), is(6252500L));
+      assertThat(jCache.aggregate(new HashSet<Integer>(Arrays.asList(1, 2, 4, 6000)), evenValues, sum), is(6L));
+      assertThat(jCache.aggregate(Collections.singleton(1), evenValues, sum), nullValue());
+      assertThat(new JCacheStatMXBean(jCache).getCacheGets(), is(0L));
+    } finally {
+      cacheManager.destroyCache("aggregate");
+    }
+  }
+
+  /**
+   * Loads the key's string form for every key but 5.
+   */
+  private static class CountingLoader implements CacheLoader<Integer, String> {
+
+    private final boolean bulk;
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger loadAllCalls = new AtomicInteger();
+
+    CountingLoader(final boolean bulk) {
+      this.bulk = bulk;
+    }
+
+    @Override
+    public String load(final Integer key) throws CacheLoaderException {
+      loads.incrementAndGet();
+      return key == 5 ? null : key.toString();
+    }
+
+    @Override
+    public Map<Integer, String> loadAll(final Iterable<? extends Integer> keys) throws CacheLoaderException {
+      if (!bulk) {
+        throw new UnsupportedOperationException();
+      }
+      loadAllCalls.incrementAndGet();
+      final Map<Integer, String> values = new HashMap<Integer, String>();
+      for (Integer key : keys) {
+        if (key != 5) {
+          values.put(key, key.toString());
+        }
+      }
+      return values;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package org.ehcache.jcache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.EntryProcessorResult;
+import javax.cache.processor.MutableEntry;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JCacheWriteBatchTest {
+
+  @Test
+  public void testRemoveAllBatchesDeletesAndRestoresFailedKeys() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final BatchRecordingWriter writer = new BatchRecordingWriter(5);
+    final Cache<Integer, Integer> cache = cacheManager.createCache("batchedRemoveAll", writeBatching(writer, 3));
+    try {
+      for (int i = 1; i <= 7; i++) {
+        cache.put(i, i);
+      }
+      writer.batchSizes.clear();
+
+      try {
+        cache.removeAll(new TreeSet<Integer>(Arrays.asList(1, 2, 3, 4, 5, 6, 7)));
+        fail();
+      } catch (CacheWriterException e) {
+        // expected
+      }
+      assertThat(writer.batchSizes, is(Arrays.asList(3, 3)));
+      assertThat(cache.containsKey(3), is(false));
+      assertThat(cache.containsKey(4), is(false));
+      assertThat(cache.get(5), is(5));
+      assertThat(cache.get(7), is(7));
+    } finally {
+      cacheManager.destroyCache("batchedRemoveAll");
+    }
+  }
+
+  @Test
+  public void testFailedKeysKeepMappingsChangedMeanwhileAndNotifyRestores() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final AtomicReference<Ehcache> ehcacheRef = new AtomicReference<Ehcache>();
+    final BatchRecordingWriter writer = new BatchRecordingWriter(2) {
+      @Override
+      public void writeAll(final Collection<Cache.Entry<? extends Integer, ? extends Integer>> entries) throws CacheWriterException {
+        ehcacheRef.get().put(new Element(2, 99));
+        super.writeAll(entries);
+      }
+    };
+    final Cache<Integer, Integer> cache = cacheManager.createCache("batchChangedMeanwhile", writeBatching(writer, 4));
+    try {
+      final Ehcache ehcache = cache.unwrap(Ehcache.class);
+      ehcacheRef.set(ehcache);
+      cache.put(2, 2);
+      cache.invokeAll(new TreeSet<Integer>(Arrays.asList(1, 2, 3)), new EntryProcessor<Integer, Integer, Void>() {
+        @Override
+        public Void process(final MutableEntry<Integer, Integer> entry, final Object... arguments) throws EntryProcessorException {
+          entry.setValue(entry.getKey() * 10);
+          return null;
+        }
+      });
+      assertThat(cache.get(2), is(99));
+      assertThat(cache.get(3), is(30));
+
+      final BatchRecordingWriter failing = new BatchRecordingWriter(5);
+      final Cache<Integer, Integer> removed = cacheManager.createCache("batchRestoreEvents", writeBatching(failing, 3));
+      for (int i = 4; i <= 6; i++) {
+        removed.put(i, i);
+      }
+      final AtomicInteger puts = new AtomicInteger();
+      removed.unwrap(Ehcache.class).getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+        @Override
+        public void notifyElementPut(final Ehcache cache, final Element element) {
+          puts.incrementAndGet();
+        }
+      });
+      try {
+        removed.removeAll(new TreeSet<Integer>(Arrays.asList(4, 5, 6)));
+        fail();
+      } catch (CacheWriterException e) {
+        // expected
+      }
+      assertThat(removed.get(5), is(5));
+      assertThat(puts.get(), is(1));
+    } finally {
+      cacheManager.destroyCache("batchChangedMeanwhile");
+      cacheManager.destroyCache("batchRestoreEvents");
+    }
+  }
+
+  @Test
+  public void testInvokeAllBatchesWritesAndReportsFailedKeys() {
+    final CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+    final BatchRecordingWriter writer = new BatchRecordingWriter(2);
+    final Cache<Integer, Integer> cache = cacheManager.createCache("batchedInvokeAll", writeBatching(writer, 4));
+    try {
+      final Set<Integer> keys = new TreeSet<Integer>();
+      for (int i = 1; i <= 6; i++) {
+        keys.add(i);
+      }
+      cache.put(2, 2);
+      writer.batchSizes.clear();
+
+      final Map<Integer, EntryProcessorResult<Void>> results = cache.invokeAll(keys, new EntryProcessor<Integer, Integer, Void>() {
+        @Override
+        public Void process(final MutableEntry<Integer, Integer> entry, final Object... arguments) throws EntryProcessorException {
+          entry.setValue(entry.getKey() * 10);
+          return null;
+        }
+      });
+      assertThat(writer.batchSizes, is(Arrays.asList(4, 2)));
+      assertThat(results.size(), is(1));
+      try {
+        results.get(2).get();
+        fail();
+      } catch (EntryProcessorException e) {
+        assertThat(e.getCause(), instanceOf(CacheWriterException.class));
+      }
+      assertThat(cache.get(2), is(2));
+      assertThat(cache.get(6), is(60));
+    } finally {
+      cacheManager.destroyCache("batchedInvokeAll");
+    }
+  }
+
+  private static JCacheConfiguration<Integer, Integer> writeBatching(final BatchRecordingWriter writer, final int batchSize) {
+    final MutableConfiguration<Integer, Integer> configuration = new MutableConfiguration<Integer, Integer>()
+      .setWriteThrough(true)
+      .setCacheWriterFactory(new FactoryBuilder.SingletonFactory<CacheWriter<Integer, Integer>>(writer));
+    return new JCacheConfiguration<Integer, Integer>(configuration).setWriteBatchSize(batchSize);
+  }
+
+  /**
+   * Records the size of each batch, and fails writing or deleting one key.
+   */
+  private static class BatchRecordingWriter implements CacheWriter<Integer, Integer> {
+
+    private final Integer failingKey;
+    final List<Integer> batchSizes = new ArrayList<Integer>();
+
+    BatchRecordingWriter(final Integer failingKey) {
+      this.failingKey = failingKey;
+    }
+
+    @Override
+    public void write(final Cache.Entry<? extends Integer, ? extends Integer> entry) throws CacheWriterException {
+      batchSizes.add(1);
+    }
+
+    @Override
+    public void writeAll(final Collection<Cache.Entry<? extends Integer, ? extends Integer>> entries) throws CacheWriterException {
+      batchSizes.add(entries.size());
+      for (Iterator<Cache.Entry<? extends Integer, ? extends Integer>> it = entries.iterator(); it.hasNext(); ) {
+        if (!it.next().getKey().equals(failingKey)) {
+          it.remove();
+        }
+      }
+      if (!entries.isEmpty()) {
+        throw new CacheWriterException("Couldn't write " + failingKey);
+      }
+    }
+
+    @Override
+    public void delete(final Object key) throws CacheWriterException {
+      batchSizes.add(1);
+    }
+
+    @Override
+    public void deleteAll(final Collection<?> keys) throws CacheWriterException {
+      batchSizes.add(keys.size());
+      for (Iterator<?> it = keys.iterator(); it.hasNext(); ) {
+        if (!it.next().equals(failingKey)) {
+          it.remove();
+        }
+      }
+      if (!keys.isEmpty()) {
+        throw new CacheWriterException("Couldn't delete " + failingKey);
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache.benchmarks;
+
+import org.ehcache.jcache.JCacheConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+/**
+ * Writes to a cache with and without a journal, to measure what journaling adds to a mutation. The journal checkpoints
+ * as its segments fill up, which the measurement includes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JournalBenchmark {
+
+    @Param({"false", "true"})
+    public boolean journaled;
+
+    @Param({"1000"})
+    public int keySpace;
+
+    private CacheManager cacheManager;
+    private Cache<Integer, String> cache;
+
+    @Setup
+    public void setUp() {
+        cacheManager = Caching.getCachingProvider().getCacheManager();
+        cache = cacheManager.createCache("journalBenchmark",
+            new JCacheConfiguration<Integer, String>(new MutableConfiguration<Integer, String>()).setJournaled(journaled));
+        for (int i = 0; i < keySpace; i++) {
+            cache.put(i, "value " + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.destroyCache(cache.getName());
+        cacheManager.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private int seed = (int) System.nanoTime() | 1;
+
+        int next(final int bound) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Benchmark
+    public void put(final Keys keys) {
+        final int key = keys.next(keySpace);
+        cache.put(key, "value " + key);
+    }
+
+    @Benchmark
+    public boolean remove(final Keys keys) {
+        return cache.remove(keys.next(keySpace));
+    }
+}
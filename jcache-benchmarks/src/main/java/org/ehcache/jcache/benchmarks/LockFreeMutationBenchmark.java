@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache.benchmarks;
+
+import org.ehcache.jcache.JCacheConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+/**
+ * Contended writes on a small key space, comparing the key-locked mutation path with the lock-free one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LockFreeMutationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean lockFree;
+
+    @Param({"512"})
+    public int keySpace;
+
+    private CacheManager cacheManager;
+    private Cache<Integer, Integer> cache;
+
+    @Setup
+    public void setUp() {
+        cacheManager = Caching.getCachingProvider().getCacheManager();
+        final MutableConfiguration<Integer, Integer> configuration = new MutableConfiguration<Integer, Integer>()
+            .setStoreByValue(false);
+        cache = cacheManager.createCache("lockFreeMutationBenchmark",
+            new JCacheConfiguration<Integer, Integer>(configuration).setLockFreeMutations(lockFree));
+        for (int i = 0; i < keySpace; i++) {
+            cache.put(i, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.destroyCache(cache.getName());
+        cacheManager.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private int seed = (int) System.nanoTime() | 1;
+
+        int next(final int bound) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void put_08(final Keys keys) {
+        put(keys);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void put_16(final Keys keys) {
+        put(keys);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void put_32(final Keys keys) {
+        put(keys);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer getAndReplace_08(final Keys keys) {
+        return getAndReplace(keys);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Integer getAndReplace_16(final Keys keys) {
+        return getAndReplace(keys);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Integer getAndReplace_32(final Keys keys) {
+        return getAndReplace(keys);
+    }
+
+    private void put(final Keys keys) {
+        final int key = keys.next(keySpace);
+        cache.put(key, key);
+    }
+
+    private Integer getAndReplace(final Keys keys) {
+        final int key = keys.next(keySpace);
+        return cache.getAndReplace(key, key);
+    }
+}
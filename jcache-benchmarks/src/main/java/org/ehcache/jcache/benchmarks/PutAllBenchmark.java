@@ -0,0 +1,93 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+/**
+ * Filling an empty cache from a map, through putAll versus one put per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PutAllBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private CacheManager cacheManager;
+    private Cache<Integer, Integer> cache;
+    private Map<Integer, Integer> entries;
+
+    @Setup
+    public void setUp() {
+        cacheManager = Caching.getCachingProvider().getCacheManager();
+        cache = cacheManager.createCache("putAllBenchmark", new MutableConfiguration<Integer, Integer>().setStoreByValue(false));
+        entries = new HashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+            entries.put(i, i);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        cache.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.destroyCache(cache.getName());
+        cacheManager.close();
+    }
+
+    @Benchmark
+    public Cache<Integer, Integer> putAll() {
+        cache.putAll(entries);
+        return cache;
+    }
+
+    @Benchmark
+    public Cache<Integer, Integer> putEach() {
+        for (Map.Entry<Integer, Integer> entry : entries.entrySet()) {
+            cache.put(entry.getKey(), entry.getValue());
+        }
+        return cache;
+    }
+}
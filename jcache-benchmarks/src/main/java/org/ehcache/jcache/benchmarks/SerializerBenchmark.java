@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache.benchmarks;
+
+import org.ehcache.jcache.JCacheSerializer;
+import org.ehcache.jcache.JCacheSerializers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a value the way a store-by-value cache does, serializing then deserializing it, with each serializer.
+ * Run with {@code -prof gc} for the bytes allocated per copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"default", "java"})
+    public String serializer;
+
+    @Param({"string", "long", "bytes", "enum", "externalizable", "serializable"})
+    public String type;
+
+    private JCacheSerializer<Object> codec;
+    private Object value;
+    private ClassLoader classLoader;
+
+    @Setup
+    public void setUp() {
+        codec = "java".equals(serializer) ? JCacheSerializers.JAVA_SERIALIZATION : JCacheSerializers.DEFAULT;
+        classLoader = getClass().getClassLoader();
+        if ("string".equals(type)) {
+            value = "a moderately long string value, as often found in caches";
+        } else if ("long".equals(type)) {
+            value = 1234567890123L;
+        } else if ("bytes".equals(type)) {
+            value = new byte[1024];
+        } else if ("enum".equals(type)) {
+            value = TimeUnit.MILLISECONDS;
+        } else if ("externalizable".equals(type)) {
+            value = new Point(3, 4);
+        } else {
+            value = new Person("Ada", 36);
+        }
+    }
+
+    @Benchmark
+    public Object copy() {
+        return codec.deserialize(codec.serialize(value), classLoader);
+    }
+
+    public static class Person implements Serializable {
+        private final String name;
+        private final int age;
+
+        Person(final String name, final int age) {
+            this.name = name;
+            this.age = age;
+        }
+    }
+
+    public static class Point implements Externalizable {
+        private int x;
+        private int y;
+
+        public Point() {
+        }
+
+        Point(final int x, final int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public void writeExternal(final ObjectOutput out) throws IOException {
+            out.writeInt(x);
+            out.writeInt(y);
+        }
+
+        @Override
+        public void readExternal(final ObjectInput in) throws IOException {
+            x = in.readInt();
+            y = in.readInt();
+        }
+    }
+}
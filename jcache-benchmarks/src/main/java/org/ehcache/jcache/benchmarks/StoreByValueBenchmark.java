@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2003-2010 Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ehcache.jcache.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+
+/**
+ * Reads and writes of a store-by-value cache, against a store-by-reference one, for immutable and mutable values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreByValueBenchmark {
+
+    @Param({"false", "true"})
+    public boolean storeByValue;
+
+    @Param({"string", "date"})
+    public String type;
+
+    private CacheManager cacheManager;
+    private Cache<Integer, Object> cache;
+    private Object value;
+
+    @Setup
+    public void setUp() {
+        cacheManager = Caching.getCachingProvider().getCacheManager();
+        cache = cacheManager.createCache("storeByValueBenchmark",
+            new MutableConfiguration<Integer, Object>().setStoreByValue(storeByValue));
+        value = "string".equals(type) ? "a moderately long string value, as often found in caches" : new Date();
+        cache.put(1, value);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.destroyCache(cache.getName());
+        cacheManager.close();
+    }
+
+    @Benchmark
+    public Object get() {
+        return cache.get(1);
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(2, value);
+    }
+}